@@ -0,0 +1,188 @@
+package com.driftpro.app;
+
+import android.util.Log;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+// Recent activity across deviations, documents, chats and shifts, newest first. Each source is
+// its own query ordered by time and read on its own cursor into a small buffer; a page is a
+// k-way merge that keeps taking the newest buffered head. A source is only read when its
+// buffer runs dry and it may still hold something newer than the other heads, and then only
+// for as many items as the page still lacks. A page therefore reads at most about
+// PAGE_SIZE per source, however busy any one of them is, and whatever is left in a buffer
+// is used by the next page.
+public class ActivityFeed {
+    private static final String TAG = "ActivityFeed";
+    public static final int PAGE_SIZE = 10;
+
+    private final List<Source> sources = new ArrayList<>();
+    private boolean loading;
+
+    public static class Item {
+        public final String title;
+        public final String subtitle;
+        public final Date at;
+        public final int iconRes;
+        public final int colorRes;
+
+        Item(String title, String subtitle, Date at, int iconRes, int colorRes) {
+            this.title = title;
+            this.subtitle = subtitle;
+            this.at = at;
+            this.iconRes = iconRes;
+            this.colorRes = colorRes;
+        }
+    }
+
+    public interface PageCallback {
+        void onPage(List<Item> items);
+    }
+
+    // Returns null for documents that should not show up in the feed
+    private interface Mapper {
+        Item map(DocumentSnapshot snapshot, Date at);
+    }
+
+    private static class Source {
+        final String name;
+        final Query query;
+        final String timeField;
+        final Mapper mapper;
+        final ArrayDeque<Item> buffer = new ArrayDeque<>();
+        DocumentSnapshot last;
+        boolean exhausted;
+
+        Source(String name, Query query, String timeField, Mapper mapper) {
+            this.name = name;
+            this.query = query.orderBy(timeField, Query.Direction.DESCENDING);
+            this.timeField = timeField;
+            this.mapper = mapper;
+        }
+
+        boolean isDry() {
+            return buffer.isEmpty() && !exhausted;
+        }
+    }
+
+    // userId selects the user's own chats and shifts; without it those sources are left out
+    public ActivityFeed(FirebaseFirestore db, String companyId, String userId) {
+        sources.add(new Source("deviations",
+                DeviationSummary.collection(db).whereEqualTo("companyId", companyId), "createdAt",
+                (snapshot, at) -> new Item("Nytt avvik rapportert", snapshot.getString("title"), at,
+                        R.drawable.ic_warning, R.color.orange)));
+        sources.add(new Source("documents",
+                db.collection("documents").whereEqualTo("companyId", companyId), "updatedAt",
+                (snapshot, at) -> {
+                    if (Boolean.FALSE.equals(snapshot.getBoolean("isActive"))) return null;
+                    boolean firstVersion = snapshot.getString("version") == null
+                            || "1.0".equals(snapshot.getString("version"));
+                    return new Item(firstVersion ? "Dokument lastet opp" : "Dokument oppdatert",
+                            snapshot.getString("title"), at, R.drawable.ic_document, R.color.teal);
+                }));
+        if (userId == null) return;
+        sources.add(new Source("chats",
+                db.collection("chats").whereArrayContains("participants", userId), "lastMessageAt",
+                (snapshot, at) -> {
+                    String sender = snapshot.getString("lastMessageSender");
+                    String message = snapshot.getString("lastMessage");
+                    return new Item("Ny melding", sender != null ? sender + ": " + message : message, at,
+                            R.drawable.ic_chat_bubble, R.color.blue);
+                }));
+        sources.add(new Source("shifts",
+                db.collection("shifts").whereEqualTo("employeeId", userId), "createdAt",
+                (snapshot, at) -> {
+                    String type = snapshot.getString("type");
+                    String date = snapshot.getString("date");
+                    return new Item("Skift opprettet", (type != null ? type : "Skift") + (date != null ? " " + date : ""),
+                            at, R.drawable.ic_calendar, R.color.green);
+                }));
+    }
+
+    public boolean hasMore() {
+        for (Source source : sources) {
+            if (!source.buffer.isEmpty() || !source.exhausted) return true;
+        }
+        return false;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public void loadNextPage(PageCallback callback) {
+        if (loading || !hasMore()) return;
+        loading = true;
+        merge(new ArrayList<>(), callback);
+    }
+
+    // With four sources a scan of the heads is cheaper than keeping them in a heap
+    private void merge(List<Item> page, PageCallback callback) {
+        while (page.size() < PAGE_SIZE) {
+            List<Source> dry = new ArrayList<>();
+            for (Source source : sources) {
+                if (source.isDry()) dry.add(source);
+            }
+            if (!dry.isEmpty()) {
+                fetch(dry, PAGE_SIZE - page.size(), page, callback);
+                return;
+            }
+
+            Source newest = null;
+            for (Source source : sources) {
+                if (source.buffer.isEmpty()) continue;
+                if (newest == null || source.buffer.peek().at.after(newest.buffer.peek().at)) {
+                    newest = source;
+                }
+            }
+            if (newest == null) break;
+            page.add(newest.buffer.poll());
+        }
+        loading = false;
+        callback.onPage(page);
+    }
+
+    private void fetch(List<Source> dry, int limit, List<Item> page, PageCallback callback) {
+        List<Task<QuerySnapshot>> reads = new ArrayList<>();
+        for (Source source : dry) {
+            Query query = source.query.limit(limit);
+            if (source.last != null) {
+                query = query.startAfter(source.last);
+            }
+            reads.add(query.get());
+        }
+        Tasks.whenAllComplete(reads).addOnSuccessListener(tasks -> {
+            for (int i = 0; i < dry.size(); i++) {
+                Source source = dry.get(i);
+                Task<QuerySnapshot> read = reads.get(i);
+                if (!read.isSuccessful()) {
+                    // A source that cannot be read (offline, missing index) is left out
+                    // rather than holding back the others
+                    Log.w(TAG, "Could not read " + source.name, read.getException());
+                    source.exhausted = true;
+                    continue;
+                }
+                QuerySnapshot snapshot = read.getResult();
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    Date at = document.getDate(source.timeField);
+                    Item item = at != null ? source.mapper.map(document, at) : null;
+                    if (item != null) {
+                        source.buffer.add(item);
+                    }
+                }
+                if (!snapshot.isEmpty()) {
+                    source.last = snapshot.getDocuments().get(snapshot.size() - 1);
+                }
+                source.exhausted = snapshot.size() < limit;
+            }
+            merge(page, callback);
+        });
+    }
+}
@@ -2,6 +2,7 @@ package com.driftpro.app;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public class CompanySettings {
     private boolean enableDeviationReporting;
@@ -12,6 +13,8 @@ public class CompanySettings {
     private boolean enableBirthdayCalendar;
     private int maxFileSizeMB;
     private List<String> allowedFileTypes;
+    // Closed deviations older than this move to the archive; 0 turns archiving off
+    private int archiveAfterMonths;
 
     public CompanySettings() {
         this.enableDeviationReporting = true;
@@ -22,6 +25,7 @@ public class CompanySettings {
         this.enableBirthdayCalendar = true;
         this.maxFileSizeMB = 50;
         this.allowedFileTypes = Arrays.asList("jpg", "jpeg", "png", "pdf", "doc", "docx", "mp4", "mov");
+        this.archiveAfterMonths = 12;
     }
 
     public CompanySettings(boolean enableDeviationReporting, boolean enableRiskAnalysis, 
@@ -36,6 +40,23 @@ public class CompanySettings {
         this.enableBirthdayCalendar = enableBirthdayCalendar;
         this.maxFileSizeMB = maxFileSizeMB;
         this.allowedFileTypes = allowedFileTypes;
+        this.archiveAfterMonths = 12;
+    }
+
+    // Missing fields keep their defaults
+    public static CompanySettings fromMap(Map<String, Object> map) {
+        CompanySettings settings = new CompanySettings();
+        if (map == null) return settings;
+        if (map.get("enableDeviationReporting") instanceof Boolean) settings.setEnableDeviationReporting((Boolean) map.get("enableDeviationReporting"));
+        if (map.get("enableRiskAnalysis") instanceof Boolean) settings.setEnableRiskAnalysis((Boolean) map.get("enableRiskAnalysis"));
+        if (map.get("enableDocumentArchive") instanceof Boolean) settings.setEnableDocumentArchive((Boolean) map.get("enableDocumentArchive"));
+        if (map.get("enableInternalControl") instanceof Boolean) settings.setEnableInternalControl((Boolean) map.get("enableInternalControl"));
+        if (map.get("enableChat") instanceof Boolean) settings.setEnableChat((Boolean) map.get("enableChat"));
+        if (map.get("enableBirthdayCalendar") instanceof Boolean) settings.setEnableBirthdayCalendar((Boolean) map.get("enableBirthdayCalendar"));
+        if (map.get("maxFileSizeMB") instanceof Number) settings.setMaxFileSizeMB(((Number) map.get("maxFileSizeMB")).intValue());
+        if (map.get("allowedFileTypes") instanceof List) settings.setAllowedFileTypes((List<String>) map.get("allowedFileTypes"));
+        if (map.get("archiveAfterMonths") instanceof Number) settings.setArchiveAfterMonths(((Number) map.get("archiveAfterMonths")).intValue());
+        return settings;
     }
 
     // Getters
@@ -47,6 +68,7 @@ public class CompanySettings {
     public boolean isEnableBirthdayCalendar() { return enableBirthdayCalendar; }
     public int getMaxFileSizeMB() { return maxFileSizeMB; }
     public List<String> getAllowedFileTypes() { return allowedFileTypes; }
+    public int getArchiveAfterMonths() { return archiveAfterMonths; }
 
     // Setters
     public void setEnableDeviationReporting(boolean enableDeviationReporting) { this.enableDeviationReporting = enableDeviationReporting; }
@@ -57,4 +79,5 @@ public class CompanySettings {
     public void setEnableBirthdayCalendar(boolean enableBirthdayCalendar) { this.enableBirthdayCalendar = enableBirthdayCalendar; }
     public void setMaxFileSizeMB(int maxFileSizeMB) { this.maxFileSizeMB = maxFileSizeMB; }
     public void setAllowedFileTypes(List<String> allowedFileTypes) { this.allowedFileTypes = allowedFileTypes; }
+    public void setArchiveAfterMonths(int archiveAfterMonths) { this.archiveAfterMonths = archiveAfterMonths; }
 } 
\ No newline at end of file
@@ -0,0 +1,77 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.google.firebase.firestore.AggregateQuery;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.FirebaseFirestore;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Numbers for the dashboard's stat cards. Each is a count() aggregation, which the server
+// answers from its index without sending any documents; all stale counts are requested at
+// once. Results are kept in SharedPreferences for TTL_MS: a cached value is shown straight
+// away, fresh or not, and only counts older than the TTL are queried again. Open deviations
+// are not counted here, since the company's DeviationStats document already keeps them.
+public class DashboardCounts {
+    public static final String USERS = "users";
+    public static final String DOCUMENTS = "documents";
+    public static final String SHIFTS = "shifts";
+    private static final String PREFS_NAME = "dashboard_counts";
+    private static final long TTL_MS = 10 * 60 * 1000;
+    private static DashboardCounts instance;
+
+    private final SharedPreferences prefs;
+
+    // Runs on the main thread, once with the cached value if there is one and again when a
+    // refresh returns
+    public interface Callback {
+        void onCount(String key, long count);
+    }
+
+    public static synchronized DashboardCounts getInstance(Context context) {
+        if (instance == null) {
+            instance = new DashboardCounts(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DashboardCounts(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // userId scopes the shift count to the signed-in user's own shifts; null skips it
+    public void load(FirebaseFirestore db, String companyId, String userId, Callback callback) {
+        Map<String, AggregateQuery> queries = new LinkedHashMap<>();
+        queries.put(USERS, db.collection("users")
+            .whereEqualTo("companyId", companyId)
+            .count());
+        queries.put(DOCUMENTS, db.collection("documents")
+            .whereEqualTo("companyId", companyId)
+            .count());
+        if (userId != null) {
+            queries.put(SHIFTS, db.collection("shifts")
+                .whereEqualTo("employeeId", userId)
+                .count());
+        }
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, AggregateQuery> entry : queries.entrySet()) {
+            String key = entry.getKey();
+            String cacheKey = companyId + "/" + (SHIFTS.equals(key) ? userId + "/" : "") + key;
+            if (prefs.contains(cacheKey + ".count")) {
+                callback.onCount(key, prefs.getLong(cacheKey + ".count", 0));
+                if (now - prefs.getLong(cacheKey + ".at", 0) < TTL_MS) continue;
+            }
+            // A failed count keeps showing the cached value and is tried again next time
+            entry.getValue().get(AggregateSource.SERVER)
+                .addOnSuccessListener(snapshot -> {
+                    prefs.edit()
+                        .putLong(cacheKey + ".count", snapshot.getCount())
+                        .putLong(cacheKey + ".at", System.currentTimeMillis())
+                        .apply();
+                    callback.onCount(key, snapshot.getCount());
+                });
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.driftpro.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -14,7 +15,10 @@ import com.google.android.material.card.MaterialCardView;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class DashboardFragment extends Fragment {
     private FirebaseFirestore db;
@@ -22,9 +26,22 @@ public class DashboardFragment extends Fragment {
     private RecyclerView statsRecyclerView;
     private RecyclerView quickActionsRecyclerView;
     private RecyclerView activityRecyclerView;
+    private RecyclerView resolutionRecyclerView;
     private StatsAdapter statsAdapter;
     private QuickActionsAdapter quickActionsAdapter;
     private ActivityAdapter activityAdapter;
+    private final List<ActivityItem> activities = new ArrayList<>();
+    private ActivityFeed activityFeed;
+    private View activityMore;
+    private final List<StatCard> stats = new ArrayList<>();
+    // Stat cards by DashboardCounts key, plus the open count read from DeviationStats
+    private static final String OPEN_DEVIATIONS = "openDeviations";
+    private final Map<String, StatCard> countCards = new HashMap<>();
+    private final List<ActivityItem> resolutionRows = new ArrayList<>();
+    private ActivityAdapter resolutionAdapter;
+    private View riskMatrixSection;
+    private RiskMatrixAdapter riskMatrixAdapter;
+    private final Runnable riskMatrixObserver = this::showRiskMatrix;
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -38,11 +55,16 @@ public class DashboardFragment extends Fragment {
         statsRecyclerView = view.findViewById(R.id.stats_recycler_view);
         quickActionsRecyclerView = view.findViewById(R.id.quick_actions_recycler_view);
         activityRecyclerView = view.findViewById(R.id.activity_recycler_view);
+        resolutionRecyclerView = view.findViewById(R.id.resolution_recycler_view);
+        riskMatrixSection = view.findViewById(R.id.risk_matrix_section);
+        activityMore = view.findViewById(R.id.activity_more);
         
         // Setup RecyclerViews
         setupStatsRecyclerView();
         setupQuickActionsRecyclerView();
         setupActivityRecyclerView();
+        setupResolutionRecyclerView();
+        setupRiskMatrix(view.findViewById(R.id.risk_matrix_recycler_view));
         
         // Load data
         loadDashboardData();
@@ -52,16 +74,32 @@ public class DashboardFragment extends Fragment {
 
     private void setupStatsRecyclerView() {
         statsRecyclerView.setLayoutManager(new GridLayoutManager(getContext(), 2));
-        List<StatCard> stats = new ArrayList<>();
-        stats.add(new StatCard("Brukere", "128", R.drawable.ic_person_group, R.color.blue));
-        stats.add(new StatCard("Avvik", "14", R.drawable.ic_warning, R.color.orange));
-        stats.add(new StatCard("Dokumenter", "37", R.drawable.ic_document, R.color.teal));
-        stats.add(new StatCard("Skift", "9", R.drawable.ic_calendar, R.color.green));
+        stats.clear();
+        countCards.clear();
+        addCountCard(DashboardCounts.USERS, new StatCard("Brukere", "–", R.drawable.ic_person_group, R.color.blue));
+        addCountCard(OPEN_DEVIATIONS, new StatCard("Åpne avvik", "–", R.drawable.ic_warning, R.color.orange));
+        addCountCard(DashboardCounts.DOCUMENTS, new StatCard("Dokumenter", "–", R.drawable.ic_document, R.color.teal));
+        // Shifts are counted for the signed-in user only
+        if (mAuth.getCurrentUser() != null) {
+            addCountCard(DashboardCounts.SHIFTS, new StatCard("Skift", "–", R.drawable.ic_calendar, R.color.green));
+        }
         
         statsAdapter = new StatsAdapter(stats);
         statsRecyclerView.setAdapter(statsAdapter);
     }
 
+    private void addCountCard(String key, StatCard card) {
+        stats.add(card);
+        countCards.put(key, card);
+    }
+
+    private void showCount(String key, long count) {
+        StatCard card = countCards.get(key);
+        if (!isAdded() || card == null) return;
+        card.value = String.valueOf(count);
+        statsAdapter.notifyItemChanged(stats.indexOf(card));
+    }
+
     private void setupQuickActionsRecyclerView() {
         quickActionsRecyclerView.setLayoutManager(new GridLayoutManager(getContext(), 3));
         List<QuickAction> actions = new ArrayList<>();
@@ -77,18 +115,168 @@ public class DashboardFragment extends Fragment {
 
     private void setupActivityRecyclerView() {
         activityRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
-        List<ActivityItem> activities = new ArrayList<>();
-        activities.add(new ActivityItem("Nytt avvik rapportert", "Avvik #1234 - 2 min siden", R.drawable.ic_warning, R.color.orange));
-        activities.add(new ActivityItem("Skift opprettet", "Dagvakt - 1 time siden", R.drawable.ic_calendar, R.color.green));
-        activities.add(new ActivityItem("Dokument lastet opp", "Sikkerhetsrutine.pdf - 3 timer siden", R.drawable.ic_document, R.color.teal));
-        
+        activities.clear();
         activityAdapter = new ActivityAdapter(activities);
         activityRecyclerView.setAdapter(activityAdapter);
+        activityMore.setOnClickListener(v -> loadMoreActivity());
+    }
+
+    private void loadMoreActivity() {
+        if (activityFeed == null) return;
+        activityFeed.loadNextPage(items -> {
+            if (!isAdded()) return;
+            int start = activities.size();
+            long now = System.currentTimeMillis();
+            for (ActivityFeed.Item item : items) {
+                String subtitle = (item.subtitle != null ? item.subtitle + " - " : "") + formatAgo(now - item.at.getTime());
+                activities.add(new ActivityItem(item.title, subtitle, item.iconRes, item.colorRes));
+            }
+            activityAdapter.notifyItemRangeInserted(start, items.size());
+            activityMore.setVisibility(activityFeed.hasMore() ? View.VISIBLE : View.GONE);
+        });
+    }
+
+    private void setupResolutionRecyclerView() {
+        resolutionRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        resolutionAdapter = new ActivityAdapter(resolutionRows);
+        resolutionRecyclerView.setAdapter(resolutionAdapter);
+    }
+
+    private void setupRiskMatrix(RecyclerView recyclerView) {
+        recyclerView.setLayoutManager(new GridLayoutManager(getContext(), RiskMatrixEngine.CONSEQUENCE_LEVELS));
+        riskMatrixAdapter = new RiskMatrixAdapter(cell -> {
+            Intent intent = new Intent(getActivity(), RiskCellActivity.class);
+            intent.putExtra(RiskCellActivity.EXTRA_LIKELIHOOD, cell.likelihood);
+            intent.putExtra(RiskCellActivity.EXTRA_CONSEQUENCE, cell.consequence);
+            startActivity(intent);
+        });
+        recyclerView.setAdapter(riskMatrixAdapter);
+    }
+
+    // The matrix is only built, and its listener only attached, for companies that use risk analysis.
+    // The same settings decide whether old closed deviations are archived.
+    private void loadCompanySettings() {
+        db.collection("companies").document("company1").get() // Replace with actual company ID
+            .addOnSuccessListener(documentSnapshot -> {
+                // The observer is removed in onDestroyView, so never add one after it
+                if (getView() == null) return;
+                Object settings = documentSnapshot.get("settings");
+                CompanySettings companySettings = CompanySettings.fromMap(
+                        settings instanceof Map ? (Map<String, Object>) settings : null);
+                scheduleAdminWork(companySettings);
+                if (!companySettings.isEnableRiskAnalysis()) return;
+                riskMatrixSection.setVisibility(View.VISIBLE);
+                RiskMatrixEngine.getInstance().addObserver(db, "company1", riskMatrixObserver); // Replace with actual company ID
+            });
+    }
+
+    // Archiving and the one-off migrations move and rewrite other users' deviations, so only an
+    // administrator's device runs them; anyone else cancels an archive schedule left from an
+    // earlier sign-in
+    private void scheduleAdminWork(CompanySettings companySettings) {
+        if (mAuth.getCurrentUser() == null) return;
+        Context context = requireContext().getApplicationContext();
+        db.collection("users").document(mAuth.getCurrentUser().getUid()).get()
+            .addOnSuccessListener(documentSnapshot -> {
+                User.UserRole role = User.UserRole.fromString(documentSnapshot.getString("role"));
+                if (role != User.UserRole.ADMIN && role != User.UserRole.SUPER_ADMIN) {
+                    DeviationArchiveWorker.cancel(context);
+                    return;
+                }
+                DeviationMigrationWorker.schedule(context, "company1"); // Replace with actual company ID
+                if (companySettings.getArchiveAfterMonths() > 0) {
+                    DeviationArchiveWorker.schedule(context, "company1", // Replace with actual company ID
+                            companySettings.getArchiveAfterMonths());
+                } else {
+                    DeviationArchiveWorker.cancel(context);
+                }
+            });
+    }
+
+    private void showRiskMatrix() {
+        if (!isAdded()) return;
+        riskMatrixAdapter.updateCells(RiskMatrixEngine.getInstance().getCells());
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        RiskMatrixEngine.getInstance().removeObserver(riskMatrixObserver);
     }
 
     private void loadDashboardData() {
-        // Load real data from Firestore here
-        // For now using mock data
+        loadCompanySettings();
+
+        String userId = mAuth.getCurrentUser() != null ? mAuth.getCurrentUser().getUid() : null;
+        activityFeed = new ActivityFeed(db, "company1", userId); // Replace with actual company ID
+        loadMoreActivity();
+
+        // Cached counts show at once; the ones past their TTL are counted again on the server
+        DashboardCounts.getInstance(requireContext()).load(db, "company1", userId, this::showCount); // Replace with actual company ID
+
+        // Kept up to date by every deviation write, so one document read gives the open count
+        DeviationStats.load(DeviationStats.companyDocument(db, "company1"), new DeviationStats.LoadCallback() { // Replace with actual company ID
+            @Override
+            public void onLoaded(DeviationStats deviationStats) {
+                showCount(OPEN_DEVIATIONS, deviationStats.getOpenCount());
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // Keep the placeholder
+            }
+        });
+
+        // Cached sketches show at once; only deviations resolved since the last visit are read
+        ResolutionAnalytics.getInstance(requireContext()).refresh("company1", new ResolutionAnalytics.RefreshCallback() { // Replace with actual company ID
+            @Override
+            public void onRefreshed(ResolutionAnalytics.Result result) {
+                if (!isAdded()) return;
+                showResolutionTimes(result);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // The rows above already show what was cached
+            }
+        });
+    }
+
+    private void showResolutionTimes(ResolutionAnalytics.Result result) {
+        List<String> months = ResolutionAnalytics.lastMonths(3);
+        resolutionRows.clear();
+        addResolutionRow("Alle avvik", result.sketch(ResolutionAnalytics.GROUP_ALL, months), R.color.blue);
+        for (Deviation.DeviationSeverity severity : Deviation.DeviationSeverity.values()) {
+            ResolutionTimeSketch sketch = result.sketch(ResolutionAnalytics.groupFor(severity), months);
+            if (sketch.getCount() > 0) {
+                addResolutionRow(severity.getDisplayName(), sketch, R.color.orange);
+            }
+        }
+        resolutionAdapter.notifyDataSetChanged();
+    }
+
+    private void addResolutionRow(String title, ResolutionTimeSketch sketch, int colorRes) {
+        String subtitle = sketch.getCount() == 0
+                ? "Ingen løste avvik"
+                : "Median " + formatMinutes(sketch.quantile(0.5)) + " · 90 % innen "
+                        + formatMinutes(sketch.quantile(0.9)) + " · " + sketch.getCount() + " løst";
+        resolutionRows.add(new ActivityItem(title, subtitle, R.drawable.ic_clock, colorRes));
+    }
+
+    private static String formatMinutes(double minutes) {
+        if (minutes < 60) return Math.round(minutes) + " min";
+        if (minutes < 24 * 60) return String.format(Locale.getDefault(), "%.1f t", minutes / 60);
+        return String.format(Locale.getDefault(), "%.1f d", minutes / (24 * 60));
+    }
+
+    private static String formatAgo(long millis) {
+        long minutes = Math.max(0, millis) / 60000;
+        if (minutes < 1) return "nå nettopp";
+        if (minutes < 60) return minutes + " min siden";
+        long hours = minutes / 60;
+        if (hours < 24) return hours + (hours == 1 ? " time siden" : " timer siden");
+        long days = hours / 24;
+        return days + (days == 1 ? " dag siden" : " dager siden");
     }
 
     private void openNewDeviation() {
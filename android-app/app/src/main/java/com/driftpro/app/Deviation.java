@@ -2,6 +2,7 @@ package com.driftpro.app;
 
 import com.google.firebase.Timestamp;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,12 +17,23 @@ public class Deviation {
     private String assignedTo;
     private String companyId;
     private String location;
+    // Where the deviation was reported, when the device had a position; geohash is derived
+    // from the two so deviations can be searched by distance
+    private Double latitude;
+    private Double longitude;
+    private String geohash;
     private List<String> mediaURLs;
     private Date createdAt;
     private Date updatedAt;
     private Date resolvedAt;
-    private List<DeviationComment> comments;
+    // Comments live in deviations/{id}/comments; only their count is kept on the deviation
+    private int commentCount;
+    // Number of entries in the events subcollection; see DeviationHistory
+    private long eventCount;
     private List<String> tags;
+    // Only on deviations read from their summary, which carries no tags and a cut description;
+    // see DeviationSummary
+    private List<String> searchTokens;
 
     public enum DeviationCategory {
         SAFETY("safety", "Sikkerhet", "shield.fill"),
@@ -155,6 +167,11 @@ public class Deviation {
         deviation.setAssignedTo((String) map.get("assignedTo"));
         deviation.setCompanyId((String) map.get("companyId"));
         deviation.setLocation((String) map.get("location"));
+        if (map.get("latitude") instanceof Number && map.get("longitude") instanceof Number) {
+            deviation.latitude = ((Number) map.get("latitude")).doubleValue();
+            deviation.longitude = ((Number) map.get("longitude")).doubleValue();
+            deviation.geohash = (String) map.get("geohash");
+        }
         
         if (map.get("mediaURLs") != null) {
             deviation.setMediaURLs((List<String>) map.get("mediaURLs"));
@@ -179,6 +196,18 @@ public class Deviation {
             deviation.setTags((List<String>) map.get("tags"));
         }
         
+        if (map.get(DeviationSummary.SEARCH_TOKENS) != null) {
+            deviation.setSearchTokens((List<String>) map.get(DeviationSummary.SEARCH_TOKENS));
+        }
+        
+        if (map.get("commentCount") != null) {
+            deviation.setCommentCount(((Number) map.get("commentCount")).intValue());
+        }
+        
+        if (map.get("eventCount") != null) {
+            deviation.setEventCount(((Number) map.get("eventCount")).longValue());
+        }
+        
         return deviation;
     }
 
@@ -225,9 +254,54 @@ public class Deviation {
     public Date getResolvedAt() { return resolvedAt; }
     public void setResolvedAt(Date resolvedAt) { this.resolvedAt = resolvedAt; }
     
-    public List<DeviationComment> getComments() { return comments; }
-    public void setComments(List<DeviationComment> comments) { this.comments = comments; }
+    public Double getLatitude() { return latitude; }
+    public Double getLongitude() { return longitude; }
+    public String getGeohash() { return geohash; }
+
+    public boolean hasCoordinates() {
+        return latitude != null && longitude != null;
+    }
+
+    public void setCoordinates(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.geohash = Geohash.encode(latitude, longitude);
+    }
+
+    public int getCommentCount() { return commentCount; }
+    public void setCommentCount(int commentCount) { this.commentCount = commentCount; }
+
+    public long getEventCount() { return eventCount; }
+    public void setEventCount(long eventCount) { this.eventCount = eventCount; }
     
     public List<String> getTags() { return tags; }
     public void setTags(List<String> tags) { this.tags = tags; }
-} 
\ No newline at end of file
+
+    public List<String> getSearchTokens() { return searchTokens; }
+    public void setSearchTokens(List<String> searchTokens) { this.searchTokens = searchTokens; }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("title", title);
+        map.put("description", description);
+        if (category != null) map.put("category", category.getValue());
+        if (severity != null) map.put("severity", severity.getValue());
+        if (status != null) map.put("status", status.getValue());
+        map.put("reportedBy", reportedBy);
+        map.put("assignedTo", assignedTo);
+        map.put("companyId", companyId);
+        map.put("location", location);
+        if (hasCoordinates()) {
+            map.put("latitude", latitude);
+            map.put("longitude", longitude);
+            map.put("geohash", geohash);
+        }
+        map.put("mediaURLs", mediaURLs);
+        if (createdAt != null) map.put("createdAt", new Timestamp(createdAt));
+        if (updatedAt != null) map.put("updatedAt", new Timestamp(updatedAt));
+        if (resolvedAt != null) map.put("resolvedAt", new Timestamp(resolvedAt));
+        map.put("tags", tags);
+        map.put("commentCount", commentCount);
+        return map;
+    }
+}
@@ -0,0 +1,63 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import com.google.firebase.firestore.FirebaseFirestore;
+import java.util.concurrent.TimeUnit;
+
+// Archives old closed deviations once a day, on unmetered networks while charging
+public class DeviationArchiveWorker extends Worker {
+    public static final String KEY_COMPANY_ID = "companyId";
+    public static final String KEY_MONTHS = "months";
+    public static final String KEY_ARCHIVED = "archived";
+    private static final String WORK_NAME = "deviation-archive";
+    private static final long INTERVAL_HOURS = 24;
+
+    public DeviationArchiveWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    // Replaces the schedule's input, so a changed archiveAfterMonths applies from the next run
+    public static void schedule(Context context, String companyId, int months) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                DeviationArchiveWorker.class, INTERVAL_HOURS, TimeUnit.HOURS)
+            .setConstraints(new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .build())
+            .setInputData(new Data.Builder()
+                .putString(KEY_COMPANY_ID, companyId)
+                .putInt(KEY_MONTHS, months)
+                .build())
+            .build();
+        WorkManager.getInstance(context)
+            .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.UPDATE, request);
+    }
+
+    public static void cancel(Context context) {
+        WorkManager.getInstance(context).cancelUniqueWork(WORK_NAME);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String companyId = getInputData().getString(KEY_COMPANY_ID);
+        int months = getInputData().getInt(KEY_MONTHS, 0);
+        if (companyId == null || months <= 0) {
+            return Result.failure();
+        }
+        int archived = new DeviationArchiver(FirebaseFirestore.getInstance()).archiveBlocking(companyId, months);
+        if (archived < 0) {
+            return Result.retry();
+        }
+        return Result.success(new Data.Builder().putInt(KEY_ARCHIVED, archived).build());
+    }
+}
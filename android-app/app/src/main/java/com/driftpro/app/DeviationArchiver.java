@@ -0,0 +1,132 @@
+package com.driftpro.app;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+// Moves deviations closed more than a given number of months ago out of the hot set. The full
+// document is copied to deviationArchive/{id}, its list summary is deleted, and
+// deviations/{id} is cut down to a stub. The stub keeps the fields that stats rebuilds and
+// resolution analytics read, and its comments, events and snapshots subcollections stay where
+// they are. The list screens only ever see summaries, so their cost does not grow with
+// history. Archive searches read the cold collection through DeviationPager.setArchived.
+public class DeviationArchiver {
+    public static final String ARCHIVE_COLLECTION = "deviationArchive";
+    // Three writes per deviation, well under the 500 write limit
+    private static final int PAGE_SIZE = 100;
+    // What stays behind in deviations/{id}
+    private static final List<String> STUB_FIELDS = Arrays.asList(
+            "companyId", "status", "category", "severity", "reportedBy", "createdAt", "resolvedAt");
+
+    private final FirebaseFirestore db;
+
+    public DeviationArchiver(FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    public static CollectionReference archive(FirebaseFirestore db) {
+        return db.collection(ARCHIVE_COLLECTION);
+    }
+
+    public static boolean isStub(DocumentSnapshot snapshot) {
+        return Boolean.TRUE.equals(snapshot.getBoolean("archived"));
+    }
+
+    // Runs on a worker thread. Returns the number of deviations archived, or -1 if a page
+    // failed and the rest should be retried later.
+    public int archiveBlocking(String companyId, int months) {
+        Calendar cutoff = Calendar.getInstance();
+        cutoff.add(Calendar.MONTH, -months);
+        Timestamp before = new Timestamp(cutoff.getTime());
+        int archived = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            // Summaries of archived deviations are gone, so a later run starts with new work
+            Query query = DeviationSummary.collection(db)
+                .whereEqualTo("companyId", companyId)
+                .whereEqualTo("status", Deviation.DeviationStatus.CLOSED.getValue())
+                .whereLessThan("resolvedAt", before)
+                .orderBy("resolvedAt", Query.Direction.ASCENDING)
+                .limit(PAGE_SIZE);
+            if (last != null) {
+                query = query.startAfter(last);
+            }
+            try {
+                QuerySnapshot page = Tasks.await(query.get());
+                if (page.isEmpty()) return archived;
+                List<String> ids = new ArrayList<>();
+                for (DocumentSnapshot summary : page.getDocuments()) {
+                    ids.add(summary.getId());
+                }
+                last = page.getDocuments().get(page.size() - 1);
+                archived += Tasks.await(move(ids, before));
+                if (page.size() < PAGE_SIZE) return archived;
+            } catch (ExecutionException | InterruptedException e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+        }
+    }
+
+    // One transaction per page, so a deviation reopened in the meantime is left alone and a
+    // deviation is never half moved
+    private Task<Integer> move(List<String> ids, Timestamp before) {
+        return db.runTransaction(transaction -> {
+            List<DocumentSnapshot> snapshots = new ArrayList<>();
+            for (String id : ids) {
+                snapshots.add(transaction.get(db.collection("deviations").document(id)));
+            }
+            int moved = 0;
+            for (DocumentSnapshot snapshot : snapshots) {
+                DocumentReference summary = DeviationSummary.document(db, snapshot.getId());
+                if (!snapshot.exists() || isStub(snapshot)) {
+                    // Left over from an earlier run or a deleted deviation
+                    transaction.delete(summary);
+                    continue;
+                }
+                Timestamp resolvedAt = snapshot.getTimestamp("resolvedAt");
+                if (!Deviation.DeviationStatus.CLOSED.getValue().equals(snapshot.getString("status"))
+                        || resolvedAt == null || resolvedAt.compareTo(before) >= 0) {
+                    continue;
+                }
+
+                Map<String, Object> full = new HashMap<>(snapshot.getData());
+                full.put("archivedAt", FieldValue.serverTimestamp());
+                transaction.set(archive(db).document(snapshot.getId()), full);
+                transaction.set(snapshot.getReference(), stub(snapshot));
+                transaction.delete(summary);
+                moved++;
+            }
+            return moved;
+        });
+    }
+
+    private static Map<String, Object> stub(DocumentSnapshot snapshot) {
+        Map<String, Object> stub = new HashMap<>();
+        for (String field : STUB_FIELDS) {
+            Object value = snapshot.get(field);
+            if (value != null) {
+                stub.put(field, value);
+            }
+        }
+        stub.put("archived", true);
+        stub.put("archivedAt", FieldValue.serverTimestamp());
+        return stub;
+    }
+}
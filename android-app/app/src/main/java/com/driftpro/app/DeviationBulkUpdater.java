@@ -0,0 +1,262 @@
+package com.driftpro.app;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Applies one change (status, assignee or tags) to many deviations at once. The selection is
+// split into chunks that commit in parallel, each carrying its own stats increments and
+// history events, so a chunk either lands with its counts and audit trail or not at all.
+// Status and assignee changes run as transactions; tag changes are plain batches. The change
+// is applied to the Deviation objects straight away; a chunk that fails puts its deviations
+// back as they were.
+public class DeviationBulkUpdater {
+    // Leaves room under the 500 write limit
+    private static final int MAX_WRITES_PER_BATCH = 450;
+    // The deviation, its list summary, its history event, and at most one history snapshot
+    private static final int MAX_WRITES_PER_TRACKED_CHANGE = 4;
+    // The deviation and its list summary
+    private static final int MAX_WRITES_PER_CHANGE = 2;
+
+    private final FirebaseFirestore db;
+
+    public interface Callback {
+        // The deviations have been restored to their earlier values
+        void onChunkFailed(List<Deviation> rolledBack, Exception e);
+        void onFinished(int updated, int failed);
+    }
+
+    public static class Change {
+        Deviation.DeviationStatus status;
+        boolean changesAssignee;
+        String assignedTo;
+        List<String> addTags;
+
+        // Status and assignee changes go into the deviation's history
+        boolean isTracked() {
+            return status != null || changesAssignee;
+        }
+
+        public static Change status(Deviation.DeviationStatus status) {
+            Change change = new Change();
+            change.status = status;
+            return change;
+        }
+
+        // null removes the assignee
+        public static Change assign(String userId) {
+            Change change = new Change();
+            change.changesAssignee = true;
+            change.assignedTo = userId;
+            return change;
+        }
+
+        public static Change addTags(List<String> tags) {
+            Change change = new Change();
+            change.addTags = tags;
+            return change;
+        }
+    }
+
+    // What a deviation looked like before the optimistic change
+    private static class Previous {
+        final Deviation deviation;
+        final Deviation.DeviationStatus status;
+        final String assignedTo;
+        final List<String> tags;
+        final List<String> searchTokens;
+        final Date resolvedAt;
+
+        Previous(Deviation deviation) {
+            this.deviation = deviation;
+            status = deviation.getStatus();
+            assignedTo = deviation.getAssignedTo();
+            tags = deviation.getTags() != null ? new ArrayList<>(deviation.getTags()) : null;
+            searchTokens = deviation.getSearchTokens();
+            resolvedAt = deviation.getResolvedAt();
+        }
+
+        void restore() {
+            deviation.setStatus(status);
+            deviation.setAssignedTo(assignedTo);
+            deviation.setTags(tags);
+            deviation.setSearchTokens(searchTokens);
+            deviation.setResolvedAt(resolvedAt);
+        }
+    }
+
+    public DeviationBulkUpdater(FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    // Call on the main thread and refresh the list right after; callbacks also run there
+    public void apply(List<Deviation> deviations, Change change, Callback callback) {
+        int writesPerDeviation = change.isTracked() ? MAX_WRITES_PER_TRACKED_CHANGE : MAX_WRITES_PER_CHANGE;
+        List<List<Previous>> chunks = new ArrayList<>();
+        List<Previous> chunk = new ArrayList<>();
+        Set<String> statsDocuments = new HashSet<>();
+        for (Deviation deviation : deviations) {
+            Set<String> own = statsDocumentsFor(deviation);
+            Set<String> withThis = new HashSet<>(statsDocuments);
+            withThis.addAll(own);
+            // Writes per deviation plus one per stats document the chunk touches
+            if (!chunk.isEmpty() && (chunk.size() + 1) * writesPerDeviation + withThis.size() > MAX_WRITES_PER_BATCH) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                withThis = own;
+            }
+            chunk.add(new Previous(deviation));
+            statsDocuments = withThis;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        for (List<Previous> previous : chunks) {
+            for (Previous entry : previous) {
+                applyLocally(entry.deviation, change);
+            }
+        }
+
+        int[] remaining = { chunks.size() };
+        int[] updated = { 0 };
+        int[] failed = { 0 };
+        if (chunks.isEmpty()) {
+            callback.onFinished(0, 0);
+            return;
+        }
+        for (List<Previous> previous : chunks) {
+            commit(previous, change)
+                .addOnSuccessListener(unused -> updated[0] += previous.size())
+                .addOnFailureListener(e -> {
+                    List<Deviation> rolledBack = new ArrayList<>();
+                    for (Previous entry : previous) {
+                        entry.restore();
+                        rolledBack.add(entry.deviation);
+                    }
+                    failed[0] += previous.size();
+                    callback.onChunkFailed(rolledBack, e);
+                })
+                .addOnCompleteListener(task -> {
+                    if (--remaining[0] == 0) {
+                        callback.onFinished(updated[0], failed[0]);
+                    }
+                });
+        }
+    }
+
+    private Task<Void> commit(List<Previous> chunk, Change change) {
+        if (!change.isTracked()) {
+            WriteBatch batch = db.batch();
+            for (Previous entry : chunk) {
+                Map<String, Object> update = fieldUpdate(change);
+                batch.update(reference(entry.deviation), update);
+                DeviationSummary.update(batch, db, entry.deviation.getId(), update, change.addTags);
+            }
+            return batch.commit();
+        }
+
+        // Stats and history continue from what is stored, which may differ from what this
+        // device last saw, so the chunk is read and written in one transaction. A concurrent
+        // status change makes it retry, so event numbers are never reused and the counts
+        // never drift.
+        return db.runTransaction(transaction -> {
+            List<DocumentSnapshot> snapshots = new ArrayList<>();
+            for (Previous entry : chunk) {
+                snapshots.add(transaction.get(reference(entry.deviation)));
+            }
+            DeviationStats.Delta delta = new DeviationStats.Delta(db);
+            for (DocumentSnapshot snapshot : snapshots) {
+                if (!snapshot.exists() || DeviationArchiver.isStub(snapshot)) continue;
+                Deviation stored = Deviation.fromMap(snapshot.getData());
+                stored.setId(snapshot.getId());
+                DeviationHistory.Recorder history = new DeviationHistory.Recorder(db, stored);
+                Map<String, Object> update = new HashMap<>();
+                if (change.status != null && stored.getStatus() != change.status) {
+                    update.putAll(DeviationStatusUpdater.statusUpdate(stored, change.status));
+                    delta.statusChanged(stored, stored.getStatus(), change.status);
+                    history.change(DeviationHistory.FIELD_STATUS,
+                            stored.getStatus() != null ? stored.getStatus().getValue() : null, change.status.getValue());
+                }
+                if (change.changesAssignee) {
+                    history.change(DeviationHistory.FIELD_ASSIGNEE, stored.getAssignedTo(), change.assignedTo);
+                    update.putAll(fieldUpdate(change));
+                }
+                if (history.isEmpty()) continue;
+                update.put("updatedAt", FieldValue.serverTimestamp());
+                history.addTo(update);
+                transaction.update(snapshot.getReference(), update);
+                DeviationSummary.update(transaction, db, stored, update);
+                history.apply(transaction);
+            }
+            delta.apply(transaction);
+            return null;
+        });
+    }
+
+    private static Map<String, Object> fieldUpdate(Change change) {
+        Map<String, Object> update = new HashMap<>();
+        if (change.changesAssignee) {
+            update.put("assignedTo", change.assignedTo);
+        }
+        if (change.addTags != null && !change.addTags.isEmpty()) {
+            update.put("tags", FieldValue.arrayUnion(change.addTags.toArray()));
+        }
+        update.put("updatedAt", FieldValue.serverTimestamp());
+        return update;
+    }
+
+    private static void applyLocally(Deviation deviation, Change change) {
+        if (change.status != null) {
+            if (DeviationStatusUpdater.isResolved(change.status)) {
+                if (deviation.getResolvedAt() == null) {
+                    deviation.setResolvedAt(new Date());
+                }
+            } else {
+                deviation.setResolvedAt(null);
+            }
+            deviation.setStatus(change.status);
+        }
+        if (change.changesAssignee) {
+            deviation.setAssignedTo(change.assignedTo);
+        }
+        if (change.addTags != null) {
+            List<String> tags = deviation.getTags() != null ? new ArrayList<>(deviation.getTags()) : new ArrayList<>();
+            for (String tag : change.addTags) {
+                if (!tags.contains(tag)) {
+                    tags.add(tag);
+                }
+            }
+            deviation.setTags(tags);
+            if (deviation.getSearchTokens() != null) {
+                Set<String> tokens = new LinkedHashSet<>(deviation.getSearchTokens());
+                tokens.addAll(DeviationSummary.tokensOf(change.addTags));
+                deviation.setSearchTokens(new ArrayList<>(tokens));
+            }
+        }
+    }
+
+    private static Set<String> statsDocumentsFor(Deviation deviation) {
+        Set<String> documents = new HashSet<>();
+        documents.add("company:" + deviation.getCompanyId());
+        if (deviation.getReportedBy() != null) {
+            documents.add("user:" + deviation.getReportedBy());
+        }
+        return documents;
+    }
+
+    private DocumentReference reference(Deviation deviation) {
+        return db.collection("deviations").document(deviation.getId());
+    }
+}
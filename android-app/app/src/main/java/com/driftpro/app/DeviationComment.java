@@ -2,6 +2,7 @@ package com.driftpro.app;
 
 import com.google.firebase.Timestamp;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -62,4 +63,15 @@ public class DeviationComment {
     
     public List<String> getMediaURLs() { return mediaURLs; }
     public void setMediaURLs(List<String> mediaURLs) { this.mediaURLs = mediaURLs; }
-} 
\ No newline at end of file
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", id);
+        map.put("text", text);
+        map.put("authorId", authorId);
+        map.put("authorName", authorName);
+        if (createdAt != null) map.put("createdAt", new Timestamp(createdAt));
+        map.put("mediaURLs", mediaURLs);
+        return map;
+    }
+}
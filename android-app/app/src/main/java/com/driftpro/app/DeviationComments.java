@@ -0,0 +1,156 @@
+package com.driftpro.app;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.WriteBatch;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Comments of one deviation, stored in deviations/{id}/comments and read newest first a
+// page at a time. The parent only carries commentCount, kept in step in the same batch.
+public class DeviationComments {
+    public static final int PAGE_SIZE = 20;
+    private static final int MAX_WRITES_PER_BATCH = 450;
+
+    private final FirebaseFirestore db;
+    private final DocumentReference deviation;
+    private DocumentSnapshot lastSnapshot;
+    private boolean hasMore = true;
+    private boolean loading;
+
+    public interface PageCallback {
+        void onPage(List<DeviationComment> comments, boolean firstPage);
+        void onError(Exception e);
+    }
+
+    public interface WriteCallback {
+        void onSuccess();
+        void onError(Exception e);
+    }
+
+    public DeviationComments(FirebaseFirestore db, String deviationId) {
+        this.db = db;
+        this.deviation = db.collection("deviations").document(deviationId);
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public void loadNextPage(PageCallback callback) {
+        if (loading || !hasMore) return;
+        loading = true;
+
+        boolean firstPage = lastSnapshot == null;
+        Query query = deviation.collection("comments")
+            .orderBy("createdAt", Query.Direction.DESCENDING)
+            .limit(PAGE_SIZE);
+        if (lastSnapshot != null) {
+            query = query.startAfter(lastSnapshot);
+        }
+
+        query.get()
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                List<DeviationComment> page = new ArrayList<>();
+                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                    DeviationComment comment = DeviationComment.fromMap(document.getData());
+                    comment.setId(document.getId());
+                    page.add(comment);
+                }
+                if (!queryDocumentSnapshots.isEmpty()) {
+                    lastSnapshot = queryDocumentSnapshots.getDocuments().get(queryDocumentSnapshots.size() - 1);
+                }
+                hasMore = queryDocumentSnapshots.size() == PAGE_SIZE;
+                loading = false;
+                callback.onPage(page, firstPage);
+            })
+            .addOnFailureListener(e -> {
+                loading = false;
+                callback.onError(e);
+            });
+    }
+
+    // The comment and the parent's count go in one batch so the two can never drift apart
+    public void addComment(DeviationComment comment, WriteCallback callback) {
+        WriteBatch batch = db.batch();
+        batch.set(deviation.collection("comments").document(comment.getId()), comment.toMap());
+        Map<String, Object> update = new HashMap<>();
+        update.put("commentCount", FieldValue.increment(1));
+        update.put("updatedAt", FieldValue.serverTimestamp());
+        batch.update(deviation, update);
+        DeviationSummary.update(batch, db, deviation.getId(), update);
+        batch.commit()
+            .addOnSuccessListener(unused -> callback.onSuccess())
+            .addOnFailureListener(callback::onError);
+    }
+
+    // Deviations written before comments moved keep them in an inline "comments" array.
+    // Moves them into the subcollection once, the first time such a deviation is opened. Ids
+    // are stable, so an interrupted migration simply runs again.
+    public void migrateInlineComments(DocumentSnapshot snapshot, WriteCallback callback) {
+        Object inline = snapshot.get("comments");
+        if (!(inline instanceof List) || ((List<?>) inline).isEmpty()) {
+            callback.onSuccess();
+            return;
+        }
+
+        List<?> comments = (List<?>) inline;
+        List<Task<Void>> commits = new ArrayList<>();
+        WriteBatch batch = db.batch();
+        int inBatch = 0;
+        int migrated = 0;
+        for (int i = 0; i < comments.size(); i++) {
+            if (!(comments.get(i) instanceof Map)) continue;
+            DeviationComment comment = DeviationComment.fromMap((Map<String, Object>) comments.get(i));
+            if (comment.getId() == null) {
+                comment.setId("inline_" + i);
+            }
+            batch.set(deviation.collection("comments").document(comment.getId()), comment.toMap());
+            migrated++;
+            if (++inBatch == MAX_WRITES_PER_BATCH) {
+                commits.add(batch.commit());
+                batch = db.batch();
+                inBatch = 0;
+            }
+        }
+        if (inBatch > 0) {
+            commits.add(batch.commit());
+        }
+
+        int count = migrated;
+        Tasks.whenAll(commits)
+            .onSuccessTask(unused -> cleanUpInlineComments(count))
+            .addOnSuccessListener(unused -> callback.onSuccess())
+            .addOnFailureListener(callback::onError);
+    }
+
+    // The inline copy is only dropped once every comment is safely in the subcollection. Two
+    // devices may migrate the same deviation at once; reading the parent in the transaction
+    // lets only the first one drop the array and count the comments.
+    private Task<Void> cleanUpInlineComments(int count) {
+        return db.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(deviation);
+            if (!snapshot.exists() || snapshot.get("comments") == null) return null;
+            Deviation stored = Deviation.fromMap(snapshot.getData());
+            stored.setId(snapshot.getId());
+            Map<String, Object> update = new HashMap<>();
+            update.put("comments", FieldValue.delete());
+            update.put("commentCount", stored.getCommentCount() + count);
+            transaction.update(deviation, update);
+            DeviationSummary.update(transaction, db, stored, update);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,57 @@
+package com.driftpro.app;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+public class DeviationCommentsAdapter extends RecyclerView.Adapter<DeviationCommentsAdapter.CommentViewHolder> {
+    private final List<DeviationComment> comments;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy HH:mm", Locale.getDefault());
+
+    public DeviationCommentsAdapter(List<DeviationComment> comments) {
+        this.comments = comments;
+    }
+
+    @NonNull
+    @Override
+    public CommentViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_deviation_comment, parent, false);
+        return new CommentViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull CommentViewHolder holder, int position) {
+        holder.bind(comments.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return comments.size();
+    }
+
+    class CommentViewHolder extends RecyclerView.ViewHolder {
+        private TextView author;
+        private TextView date;
+        private TextView text;
+
+        public CommentViewHolder(@NonNull View itemView) {
+            super(itemView);
+            author = itemView.findViewById(R.id.comment_author);
+            date = itemView.findViewById(R.id.comment_date);
+            text = itemView.findViewById(R.id.comment_text);
+        }
+
+        public void bind(DeviationComment comment) {
+            author.setText(comment.getAuthorName() != null ? comment.getAuthorName() : "Ukjent");
+            date.setText(comment.getCreatedAt() != null ? dateFormat.format(comment.getCreatedAt()) : "");
+            text.setText(comment.getText());
+        }
+    }
+}
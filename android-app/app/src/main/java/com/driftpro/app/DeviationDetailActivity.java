@@ -0,0 +1,469 @@
+package com.driftpro.app;
+
+import android.app.Dialog;
+import android.graphics.Color;
+import android.os.Bundle;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.MenuItem;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.google.android.material.appbar.MaterialToolbar;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// One deviation with its comments. Only the deviation document is read up front; comments
+// come from the subcollection a page at a time as the list is scrolled.
+public class DeviationDetailActivity extends AppCompatActivity {
+    public static final String EXTRA_DEVIATION_ID = "deviationId";
+    private static final String TAG = "DeviationDetail";
+    private static final int PREFETCH_THRESHOLD = 5;
+    // Up to this many photos fit one row of the gallery; more get a second row
+    private static final int SINGLE_ROW_PHOTOS = 4;
+    private static final float MAX_PHOTO_ZOOM = 3f;
+    // The original is decoded for twice the screen; sharper than that is not worth the memory
+    private static final float FULL_DECODE_SCALE = 2f;
+
+    private FirebaseFirestore db;
+    private DeviationComments comments;
+    private Deviation deviation;
+    // Archived deviations are shown from the archive copy and can no longer be changed
+    private boolean archived;
+    private final List<DeviationComment> commentList = new ArrayList<>();
+    private DeviationCommentsAdapter commentsAdapter;
+    private final List<String> photoURLs = new ArrayList<>();
+    private EvidenceGalleryAdapter galleryAdapter;
+    private RecyclerView galleryRecyclerView;
+    private GridLayoutManager galleryLayoutManager;
+    private LinearLayoutManager layoutManager;
+    private TextView titleText;
+    private TextView statusText;
+    private TextView descriptionText;
+    private TextView categoryText;
+    private TextView severityText;
+    private TextView commentCountText;
+    private EditText messageInput;
+    private final SimpleDateFormat historyDateFormat = new SimpleDateFormat("dd.MM.yyyy HH:mm", Locale.getDefault());
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_deviation_detail);
+
+        String deviationId = getIntent().getStringExtra(EXTRA_DEVIATION_ID);
+        if (deviationId == null) {
+            finish();
+            return;
+        }
+        db = FirebaseFirestore.getInstance();
+        comments = new DeviationComments(db, deviationId);
+
+        // Setup toolbar
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setTitle("Avvik");
+        }
+
+        titleText = findViewById(R.id.deviation_title);
+        statusText = findViewById(R.id.deviation_status);
+        descriptionText = findViewById(R.id.deviation_description);
+        categoryText = findViewById(R.id.deviation_category);
+        severityText = findViewById(R.id.deviation_severity);
+        commentCountText = findViewById(R.id.deviation_comment_count);
+        messageInput = findViewById(R.id.message_input);
+
+        // Photos from the deviation and its comments, as a horizontally scrolling grid
+        galleryRecyclerView = findViewById(R.id.evidence_recycler_view);
+        galleryLayoutManager = new GridLayoutManager(this, 1, GridLayoutManager.HORIZONTAL, false);
+        galleryRecyclerView.setLayoutManager(galleryLayoutManager);
+        galleryAdapter = new EvidenceGalleryAdapter(photoURLs, this::showPhoto);
+        galleryRecyclerView.setAdapter(galleryAdapter);
+
+        RecyclerView commentsRecyclerView = findViewById(R.id.comments_recycler_view);
+        layoutManager = new LinearLayoutManager(this);
+        commentsRecyclerView.setLayoutManager(layoutManager);
+        commentsAdapter = new DeviationCommentsAdapter(commentList);
+        commentsRecyclerView.setAdapter(commentsAdapter);
+        commentsRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0) return;
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= commentList.size() - PREFETCH_THRESHOLD) {
+                    loadMoreComments();
+                }
+            }
+        });
+
+        findViewById(R.id.send_button).setOnClickListener(v -> sendComment());
+        statusText.setOnClickListener(v -> showStatusOptions());
+        severityText.setOnClickListener(v -> showSeverityOptions());
+        findViewById(R.id.deviation_history).setOnClickListener(v -> showHistory(new ArrayList<>(), null));
+
+        loadDeviation(deviationId);
+    }
+
+    private void loadDeviation(String deviationId) {
+        db.collection("deviations").document(deviationId).get()
+            .addOnSuccessListener(snapshot -> {
+                if (!snapshot.exists()) {
+                    Toast.makeText(this, "Avviket finnes ikke lenger", Toast.LENGTH_SHORT).show();
+                    finish();
+                    return;
+                }
+                if (DeviationArchiver.isStub(snapshot)) {
+                    loadArchived(deviationId);
+                    return;
+                }
+                deviation = Deviation.fromMap(snapshot.getData());
+                deviation.setId(snapshot.getId());
+                bindHeader();
+                addPhotos(deviation.getMediaURLs());
+                migrateAndLoad(snapshot);
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error loading deviation", e);
+                Toast.makeText(this, "Kunne ikke laste avviket", Toast.LENGTH_SHORT).show();
+            });
+    }
+
+    // The stub only links to the archive; comments, events and snapshots stay under deviations/{id}
+    private void loadArchived(String deviationId) {
+        DeviationArchiver.archive(db).document(deviationId).get()
+            .addOnSuccessListener(snapshot -> {
+                if (!snapshot.exists()) {
+                    Toast.makeText(this, "Avviket finnes ikke lenger", Toast.LENGTH_SHORT).show();
+                    finish();
+                    return;
+                }
+                archived = true;
+                deviation = Deviation.fromMap(snapshot.getData());
+                deviation.setId(snapshot.getId());
+                if (getSupportActionBar() != null) {
+                    getSupportActionBar().setTitle("Arkivert avvik");
+                }
+                messageInput.setEnabled(false);
+                findViewById(R.id.send_button).setEnabled(false);
+                bindHeader();
+                addPhotos(deviation.getMediaURLs());
+                loadMoreComments();
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error loading archived deviation", e);
+                Toast.makeText(this, "Kunne ikke laste avviket", Toast.LENGTH_SHORT).show();
+            });
+    }
+
+    // Older deviations still carry their comments inline; move them before the first page
+    // is read so the subcollection is complete
+    private void migrateAndLoad(DocumentSnapshot snapshot) {
+        comments.migrateInlineComments(snapshot, new DeviationComments.WriteCallback() {
+            @Override
+            public void onSuccess() {
+                Object inline = snapshot.get("comments");
+                if (inline instanceof List && deviation.getCommentCount() == 0) {
+                    deviation.setCommentCount(((List<?>) inline).size());
+                    bindCommentCount();
+                }
+                loadMoreComments();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // The inline copy is untouched; show what the subcollection already has
+                Log.e(TAG, "Error migrating comments", e);
+                loadMoreComments();
+            }
+        });
+    }
+
+    private void loadMoreComments() {
+        if (comments.isLoading() || !comments.hasMore()) return;
+        comments.loadNextPage(new DeviationComments.PageCallback() {
+            @Override
+            public void onPage(List<DeviationComment> page, boolean firstPage) {
+                int start = commentList.size();
+                commentList.addAll(page);
+                commentsAdapter.notifyItemRangeInserted(start, page.size());
+                for (DeviationComment comment : page) {
+                    addPhotos(comment.getMediaURLs());
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error loading comments", e);
+                Toast.makeText(DeviationDetailActivity.this, "Kunne ikke laste kommentarer", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void sendComment() {
+        String text = messageInput.getText().toString().trim();
+        if (text.isEmpty() || deviation == null || archived) return;
+
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        DeviationComment comment = new DeviationComment(text,
+                user != null ? user.getUid() : null,
+                user != null ? user.getDisplayName() : null);
+
+        // Shown right away; newest comments are at the top
+        commentList.add(0, comment);
+        commentsAdapter.notifyItemInserted(0);
+        layoutManager.scrollToPosition(0);
+        deviation.setCommentCount(deviation.getCommentCount() + 1);
+        bindCommentCount();
+        messageInput.setText("");
+
+        comments.addComment(comment, new DeviationComments.WriteCallback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error adding comment", e);
+                int index = commentList.indexOf(comment);
+                if (index >= 0) {
+                    commentList.remove(index);
+                    commentsAdapter.notifyItemRemoved(index);
+                }
+                deviation.setCommentCount(Math.max(0, deviation.getCommentCount() - 1));
+                bindCommentCount();
+                messageInput.setText(text);
+                Toast.makeText(DeviationDetailActivity.this, "Kunne ikke sende kommentaren", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void addPhotos(List<String> urls) {
+        if (urls == null || urls.isEmpty()) return;
+        List<String> added = new ArrayList<>();
+        for (String url : urls) {
+            if (url != null && !url.isEmpty() && !photoURLs.contains(url)) {
+                added.add(url);
+            }
+        }
+        if (added.isEmpty()) return;
+        int start = photoURLs.size();
+        photoURLs.addAll(added);
+        galleryLayoutManager.setSpanCount(photoURLs.size() > SINGLE_ROW_PHOTOS ? 2 : 1);
+        galleryAdapter.notifyItemRangeInserted(start, added.size());
+        galleryRecyclerView.setVisibility(View.VISIBLE);
+        // Cells on screen are bound first and outrank this; the rest land in the disk cache
+        // so scrolling the gallery doesn't wait on the network
+        EvidenceImageLoader.getInstance(this).prefetchThumbnails(added);
+    }
+
+    // Opening a photo is what fetches the original: the thumbnail is shown scaled up until
+    // the full image replaces it
+    private void showPhoto(String url) {
+        Dialog dialog = new Dialog(this, android.R.style.Theme_Black_NoTitleBar_Fullscreen);
+        ImageView imageView = new ImageView(this);
+        imageView.setBackgroundColor(Color.BLACK);
+        imageView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+        dialog.setContentView(imageView, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+        ScaleGestureDetector scaleDetector = new ScaleGestureDetector(this,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        float scale = imageView.getScaleX() * detector.getScaleFactor();
+                        scale = Math.max(1f, Math.min(MAX_PHOTO_ZOOM, scale));
+                        imageView.setScaleX(scale);
+                        imageView.setScaleY(scale);
+                        return true;
+                    }
+                });
+        imageView.setOnTouchListener((v, event) -> {
+            scaleDetector.onTouchEvent(event);
+            if (event.getPointerCount() == 1 && event.getActionMasked() == MotionEvent.ACTION_UP
+                    && !scaleDetector.isInProgress() && imageView.getScaleX() == 1f) {
+                dialog.dismiss();
+            }
+            return true;
+        });
+
+        EvidenceImageLoader loader = EvidenceImageLoader.getInstance(this);
+        dialog.setOnDismissListener(d -> loader.cancel(imageView));
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int maxPx = (int) (Math.max(metrics.widthPixels, metrics.heightPixels) * FULL_DECODE_SCALE);
+        int thumbnailSize = getResources().getDimensionPixelSize(R.dimen.evidence_thumbnail_size);
+        loader.loadFull(url, imageView, thumbnailSize, maxPx);
+        dialog.show();
+    }
+
+    private void showStatusOptions() {
+        if (deviation == null) return;
+        if (archived) {
+            Toast.makeText(this, "Arkiverte avvik kan ikke endres", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Deviation.DeviationStatus[] statuses = Deviation.DeviationStatus.values();
+        String[] options = new String[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            options[i] = statuses[i].getDisplayName();
+        }
+        new AlertDialog.Builder(this)
+            .setTitle("Endre status")
+            .setItems(options, (dialog, which) -> updateStatus(statuses[which]))
+            .show();
+    }
+
+    private void updateStatus(Deviation.DeviationStatus status) {
+        if (status == deviation.getStatus()) return;
+        new DeviationStatusUpdater(db).update(deviation.getId(), status, new DeviationStatusUpdater.Callback() {
+            @Override
+            public void onUpdated(Deviation updated) {
+                deviation.setStatus(updated.getStatus());
+                bindHeader();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error updating status", e);
+                Toast.makeText(DeviationDetailActivity.this, "Kunne ikke endre status", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void showSeverityOptions() {
+        if (deviation == null) return;
+        if (archived) {
+            Toast.makeText(this, "Arkiverte avvik kan ikke endres", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Deviation.DeviationSeverity[] severities = Deviation.DeviationSeverity.values();
+        String[] options = new String[severities.length];
+        for (int i = 0; i < severities.length; i++) {
+            options[i] = severities[i].getDisplayName();
+        }
+        new AlertDialog.Builder(this)
+            .setTitle("Endre alvorlighetsgrad")
+            .setItems(options, (dialog, which) -> updateSeverity(severities[which]))
+            .show();
+    }
+
+    private void updateSeverity(Deviation.DeviationSeverity severity) {
+        if (severity == deviation.getSeverity()) return;
+        new DeviationStatusUpdater(db).updateSeverity(deviation.getId(), severity, new DeviationStatusUpdater.Callback() {
+            @Override
+            public void onUpdated(Deviation updated) {
+                deviation.setSeverity(updated.getSeverity());
+                bindHeader();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error updating severity", e);
+                Toast.makeText(DeviationDetailActivity.this, "Kunne ikke endre alvorlighetsgrad", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    // Newest first, one page of the event log at a time; older pages are only read on request
+    private void showHistory(List<String> shown, DocumentSnapshot after) {
+        if (deviation == null) return;
+        new DeviationHistory(db).loadEvents(deviation.getId(), after, new DeviationHistory.EventsCallback() {
+            @Override
+            public void onLoaded(List<DeviationHistory.Event> events, DocumentSnapshot last) {
+                if (isFinishing()) return;
+                for (DeviationHistory.Event event : events) {
+                    shown.add(formatEvent(event));
+                }
+                if (last == null && deviation.getCreatedAt() != null) {
+                    shown.add(historyDateFormat.format(deviation.getCreatedAt()) + "  Meldt");
+                }
+                List<String> items = new ArrayList<>(shown);
+                if (last != null) {
+                    items.add("Vis eldre...");
+                }
+                new AlertDialog.Builder(DeviationDetailActivity.this)
+                    .setTitle("Historikk")
+                    .setItems(items.toArray(new String[0]), (dialog, which) -> {
+                        if (last != null && which == items.size() - 1) {
+                            showHistory(shown, last);
+                        }
+                    })
+                    .setPositiveButton("Lukk", null)
+                    .show();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error loading history", e);
+                Toast.makeText(DeviationDetailActivity.this, "Kunne ikke laste historikk", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private String formatEvent(DeviationHistory.Event event) {
+        String when = event.at != null ? historyDateFormat.format(event.at) : "";
+        if (DeviationHistory.FIELD_STATUS.equals(event.field)) {
+            return when + "  Status: " + statusName(event.from) + " → " + statusName(event.to);
+        } else if (DeviationHistory.FIELD_SEVERITY.equals(event.field)) {
+            return when + "  Alvorlighetsgrad: " + severityName(event.from) + " → " + severityName(event.to);
+        }
+        return when + "  Tildelt: " + assigneeName(event.from) + " → " + assigneeName(event.to);
+    }
+
+    private static String statusName(String value) {
+        return value != null ? Deviation.DeviationStatus.fromString(value).getDisplayName() : "–";
+    }
+
+    private static String severityName(String value) {
+        return value != null ? Deviation.DeviationSeverity.fromString(value).getDisplayName() : "–";
+    }
+
+    private static String assigneeName(String userId) {
+        if (userId == null) return "ingen";
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        return user != null && userId.equals(user.getUid()) ? "meg" : userId;
+    }
+
+    private void bindHeader() {
+        titleText.setText(deviation.getTitle());
+        descriptionText.setText(deviation.getDescription());
+        statusText.setText(deviation.getStatus() != null ? deviation.getStatus().getDisplayName() : "");
+        statusText.setBackgroundResource(deviation.getStatus() == Deviation.DeviationStatus.REPORTED
+                ? R.drawable.status_reported_background : R.drawable.status_resolved_background);
+        categoryText.setText(deviation.getCategory() != null ? deviation.getCategory().getDisplayName() : "");
+        severityText.setText(deviation.getSeverity() != null ? deviation.getSeverity().getDisplayName() : "");
+        bindCommentCount();
+    }
+
+    private void bindCommentCount() {
+        int count = deviation.getCommentCount();
+        commentCountText.setText(count == 1 ? "1 kommentar" : count + " kommentarer");
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
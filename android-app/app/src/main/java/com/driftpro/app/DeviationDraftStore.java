@@ -0,0 +1,72 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+// The deviation report being filled in. Every field is saved on its own as it changes, so
+// the form survives the app being killed without rewriting the whole draft on each keystroke.
+public class DeviationDraftStore {
+    private static final String PREFS_NAME = "deviation_draft";
+    public static final String FIELD_TITLE = "title";
+    public static final String FIELD_DESCRIPTION = "description";
+    public static final String FIELD_LOCATION = "location";
+    public static final String FIELD_CATEGORY = "category";
+    public static final String FIELD_SEVERITY = "severity";
+    public static final String FIELD_LATITUDE = "latitude";
+    public static final String FIELD_LONGITUDE = "longitude";
+    private static final String FIELD_PHOTOS = "photos";
+    private static final String FIELD_UPDATED_AT = "updatedAt";
+
+    private final SharedPreferences prefs;
+
+    public DeviationDraftStore(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public boolean hasDraft() {
+        return prefs.contains(FIELD_UPDATED_AT);
+    }
+
+    public String get(String field) {
+        return prefs.getString(field, null);
+    }
+
+    public void put(String field, String value) {
+        prefs.edit()
+            .putString(field, value)
+            .putLong(FIELD_UPDATED_AT, System.currentTimeMillis())
+            .apply();
+    }
+
+    // Local copies of the photos attached so far, in the order they were added
+    public List<String> getPhotoPaths() {
+        List<String> paths = new ArrayList<>();
+        try {
+            JSONArray array = new JSONArray(prefs.getString(FIELD_PHOTOS, "[]"));
+            for (int i = 0; i < array.length(); i++) {
+                paths.add(array.getString(i));
+            }
+        } catch (JSONException e) {
+            // A corrupt list only loses the photo references, not the rest of the draft
+        }
+        return paths;
+    }
+
+    public void addPhotoPath(String path) {
+        List<String> paths = getPhotoPaths();
+        paths.add(path);
+        prefs.edit()
+            .putString(FIELD_PHOTOS, new JSONArray(paths).toString())
+            .putLong(FIELD_UPDATED_AT, System.currentTimeMillis())
+            .apply();
+    }
+
+    // Called after submit, when the photos have moved into the outbox
+    public void clear() {
+        prefs.edit().clear().apply();
+    }
+}
@@ -0,0 +1,90 @@
+package com.driftpro.app;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Bitmap index over the loaded deviations; see FacetIndex. createdAt is indexed as cumulative
+// age buckets so "last 30 days" is a single bitset.
+public class DeviationFilterIndex {
+    public static final String FACET_CATEGORY = "category";
+    public static final String FACET_SEVERITY = "severity";
+    public static final String FACET_STATUS = "status";
+    public static final String FACET_ASSIGNEE = "assignee";
+    public static final String FACET_REPORTER = "reporter";
+    public static final String FACET_CREATED = "created";
+    public static final String CREATED_LAST_7_DAYS = "7d";
+    public static final String CREATED_LAST_30_DAYS = "30d";
+    public static final String CREATED_LAST_90_DAYS = "90d";
+
+    private static final String[] FACETS = {
+        FACET_CATEGORY, FACET_SEVERITY, FACET_STATUS, FACET_ASSIGNEE, FACET_REPORTER, FACET_CREATED
+    };
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private final FacetIndex<Deviation> index;
+
+    public static class Result {
+        public final List<Deviation> deviations;
+        // Only filled for the facets asked for; facet -> value -> matches if that value were selected
+        public final Map<String, Map<String, Integer>> counts;
+        public final long elapsedNanos;
+
+        Result(FacetIndex.Result<Deviation> result) {
+            this.deviations = result.items;
+            this.counts = result.counts;
+            this.elapsedNanos = result.elapsedNanos;
+        }
+    }
+
+    public DeviationFilterIndex(List<Deviation> deviations) {
+        this(deviations, System.currentTimeMillis());
+    }
+
+    DeviationFilterIndex(List<Deviation> deviations, long now) {
+        index = new FacetIndex<>(deviations, FACETS);
+        for (int i = 0; i < index.size(); i++) {
+            Deviation deviation = index.get(i);
+            // Rows loaded from summaries carry their search tokens; deviations still in the
+            // outbox are complete and are tokenized here
+            List<String> tokens = deviation.getSearchTokens() != null
+                    ? deviation.getSearchTokens() : DeviationSummary.tokensOf(deviation);
+            StringBuilder text = new StringBuilder();
+            for (String token : tokens) {
+                text.append(token).append('\n');
+            }
+            index.setSearchText(i, text.toString());
+
+            if (deviation.getCategory() != null) {
+                index.add(FACET_CATEGORY, deviation.getCategory().getValue(), i);
+            }
+            if (deviation.getSeverity() != null) {
+                index.add(FACET_SEVERITY, deviation.getSeverity().getValue(), i);
+            }
+            if (deviation.getStatus() != null) {
+                index.add(FACET_STATUS, deviation.getStatus().getValue(), i);
+            }
+            if (deviation.getAssignedTo() != null && !deviation.getAssignedTo().isEmpty()) {
+                index.add(FACET_ASSIGNEE, deviation.getAssignedTo(), i);
+            }
+            if (deviation.getReportedBy() != null && !deviation.getReportedBy().isEmpty()) {
+                index.add(FACET_REPORTER, deviation.getReportedBy(), i);
+            }
+            if (deviation.getCreatedAt() != null) {
+                long age = now - deviation.getCreatedAt().getTime();
+                if (age <= 7 * DAY_MS) index.add(FACET_CREATED, CREATED_LAST_7_DAYS, i);
+                if (age <= 30 * DAY_MS) index.add(FACET_CREATED, CREATED_LAST_30_DAYS, i);
+                if (age <= 90 * DAY_MS) index.add(FACET_CREATED, CREATED_LAST_90_DAYS, i);
+            }
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    // selections: facet -> selected values; an empty or missing set means no filter on that facet
+    public Result query(Map<String, Set<String>> selections, String text, String... countFacets) {
+        return new Result(index.query(selections, text, countFacets));
+    }
+}
@@ -0,0 +1,300 @@
+package com.driftpro.app;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Audit trail for status, assignee and severity. Every change is appended to
+// deviations/{id}/events as its own document, numbered by the deviation's eventCount, and
+// never edited afterwards. Every SNAPSHOT_INTERVAL events the state after that event is also
+// written to deviations/{id}/snapshots, plus one snapshot of the state before the first event,
+// so the state at any moment is the nearest earlier snapshot plus fewer than
+// SNAPSHOT_INTERVAL events.
+public class DeviationHistory {
+    public static final String FIELD_STATUS = "status";
+    public static final String FIELD_ASSIGNEE = "assignedTo";
+    public static final String FIELD_SEVERITY = "severity";
+    static final int SNAPSHOT_INTERVAL = 20;
+    public static final int PAGE_SIZE = 30;
+
+    private final FirebaseFirestore db;
+
+    public interface EventsCallback {
+        // last is the cursor for the next (older) page, null when there is none
+        void onLoaded(List<Event> events, DocumentSnapshot last);
+        void onError(Exception e);
+    }
+
+    public interface StateCallback {
+        // state is null when the deviation did not exist yet at that time
+        void onLoaded(State state);
+        void onError(Exception e);
+    }
+
+    public static class Event {
+        public long seq;
+        public String field;
+        public String from;
+        public String to;
+        public String by;
+        public Date at;
+
+        static Event fromSnapshot(DocumentSnapshot snapshot) {
+            Event event = new Event();
+            Long seq = snapshot.getLong("seq");
+            event.seq = seq != null ? seq : 0;
+            event.field = snapshot.getString("field");
+            event.from = snapshot.getString("from");
+            event.to = snapshot.getString("to");
+            event.by = snapshot.getString("by");
+            Timestamp at = snapshot.getTimestamp("at");
+            event.at = at != null ? at.toDate() : null;
+            return event;
+        }
+    }
+
+    // The tracked fields as stored, plus how far into the event log they reach
+    public static class State {
+        public String status;
+        public String assignedTo;
+        public String severity;
+        public long seq;
+
+        static State of(Deviation deviation) {
+            State state = new State();
+            state.status = deviation.getStatus() != null ? deviation.getStatus().getValue() : null;
+            state.assignedTo = deviation.getAssignedTo();
+            state.severity = deviation.getSeverity() != null ? deviation.getSeverity().getValue() : null;
+            state.seq = deviation.getEventCount();
+            return state;
+        }
+
+        static State fromSnapshot(DocumentSnapshot snapshot) {
+            State state = new State();
+            state.status = snapshot.getString(FIELD_STATUS);
+            state.assignedTo = snapshot.getString(FIELD_ASSIGNEE);
+            state.severity = snapshot.getString(FIELD_SEVERITY);
+            Long seq = snapshot.getLong("seq");
+            state.seq = seq != null ? seq : 0;
+            return state;
+        }
+
+        void apply(Event event) {
+            if (FIELD_STATUS.equals(event.field)) {
+                status = event.to;
+            } else if (FIELD_ASSIGNEE.equals(event.field)) {
+                assignedTo = event.to;
+            } else if (FIELD_SEVERITY.equals(event.field)) {
+                severity = event.to;
+            }
+            seq = event.seq;
+        }
+
+        State copy() {
+            State copy = new State();
+            copy.status = status;
+            copy.assignedTo = assignedTo;
+            copy.severity = severity;
+            copy.seq = seq;
+            return copy;
+        }
+
+        Map<String, Object> toMap(Object at) {
+            Map<String, Object> map = new HashMap<>();
+            map.put(FIELD_STATUS, status);
+            map.put(FIELD_ASSIGNEE, assignedTo);
+            map.put(FIELD_SEVERITY, severity);
+            map.put("seq", seq);
+            map.put("at", at);
+            return map;
+        }
+    }
+
+    // The event and snapshot writes for one update of one deviation. Built from the deviation as
+    // read in the same transaction (or just before the batch), since the numbering continues
+    // from its stored eventCount.
+    public static class Recorder {
+        private final FirebaseFirestore db;
+        private final Deviation stored;
+        private final State state;
+        private final String userId;
+        private final Map<DocumentReference, Map<String, Object>> writes = new LinkedHashMap<>();
+
+        public Recorder(FirebaseFirestore db, Deviation stored) {
+            this.db = db;
+            this.stored = stored;
+            this.state = State.of(stored);
+            FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+            this.userId = user != null ? user.getUid() : null;
+        }
+
+        public void change(String field, String from, String to) {
+            if (from == null ? to == null : from.equals(to)) return;
+            if (state.seq == 0 && writes.isEmpty()) {
+                // Deviations start without history; keep what they looked like before the first change
+                Date createdAt = stored.getCreatedAt();
+                writes.put(snapshots(db, stored.getId()).document(key(0)),
+                        state.toMap(createdAt != null ? new Timestamp(createdAt) : FieldValue.serverTimestamp()));
+            }
+
+            Event event = new Event();
+            event.seq = state.seq + 1;
+            event.field = field;
+            event.from = from;
+            event.to = to;
+            state.apply(event);
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("seq", event.seq);
+            data.put("field", field);
+            data.put("from", from);
+            data.put("to", to);
+            data.put("by", userId);
+            data.put("at", FieldValue.serverTimestamp());
+            writes.put(events(db, stored.getId()).document(key(event.seq)), data);
+
+            if (event.seq % SNAPSHOT_INTERVAL == 0) {
+                writes.put(snapshots(db, stored.getId()).document(key(event.seq)),
+                        state.copy().toMap(FieldValue.serverTimestamp()));
+            }
+        }
+
+        public boolean isEmpty() {
+            return writes.isEmpty();
+        }
+
+        // Writes apply() adds, not counting the deviation's own update
+        public int size() {
+            return writes.size();
+        }
+
+        // The new eventCount goes into the deviation's own update
+        public void addTo(Map<String, Object> deviationUpdate) {
+            if (!isEmpty()) {
+                deviationUpdate.put("eventCount", state.seq);
+            }
+        }
+
+        public void apply(Transaction transaction) {
+            for (Map.Entry<DocumentReference, Map<String, Object>> write : writes.entrySet()) {
+                transaction.set(write.getKey(), write.getValue());
+            }
+        }
+
+        public void apply(WriteBatch batch) {
+            for (Map.Entry<DocumentReference, Map<String, Object>> write : writes.entrySet()) {
+                batch.set(write.getKey(), write.getValue());
+            }
+        }
+    }
+
+    public DeviationHistory(FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    // Newest first; pass the previous page's cursor to continue further back
+    public void loadEvents(String deviationId, DocumentSnapshot after, EventsCallback callback) {
+        Query query = events(db, deviationId)
+            .orderBy("seq", Query.Direction.DESCENDING)
+            .limit(PAGE_SIZE);
+        if (after != null) {
+            query = query.startAfter(after);
+        }
+        query.get()
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                List<Event> events = new ArrayList<>();
+                for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
+                    events.add(Event.fromSnapshot(document));
+                }
+                DocumentSnapshot last = queryDocumentSnapshots.size() < PAGE_SIZE ? null
+                        : queryDocumentSnapshots.getDocuments().get(queryDocumentSnapshots.size() - 1);
+                callback.onLoaded(events, last);
+            })
+            .addOnFailureListener(callback::onError);
+    }
+
+    // State at the given time, or the latest state when time is null. Reads one snapshot and
+    // at most SNAPSHOT_INTERVAL events, however long the log is.
+    public void loadState(String deviationId, Date time, StateCallback callback) {
+        Query query = snapshots(db, deviationId);
+        if (time != null) {
+            query = query.whereLessThanOrEqualTo("at", new Timestamp(time));
+        }
+        query.orderBy("at", Query.Direction.DESCENDING).limit(1).get()
+            .addOnSuccessListener(snapshots -> {
+                if (snapshots.isEmpty()) {
+                    // No history yet, so the document itself is the only state there has been
+                    loadUnchanged(deviationId, time, callback);
+                    return;
+                }
+                State state = State.fromSnapshot(snapshots.getDocuments().get(0));
+                events(db, deviationId)
+                    .whereGreaterThan("seq", state.seq)
+                    .orderBy("seq", Query.Direction.ASCENDING)
+                    .limit(SNAPSHOT_INTERVAL)
+                    .get()
+                    .addOnSuccessListener(tail -> {
+                        List<Event> events = new ArrayList<>();
+                        for (DocumentSnapshot document : tail.getDocuments()) {
+                            events.add(Event.fromSnapshot(document));
+                        }
+                        callback.onLoaded(replay(state, events, time));
+                    })
+                    .addOnFailureListener(callback::onError);
+            })
+            .addOnFailureListener(callback::onError);
+    }
+
+    // Moves a snapshot's state forward through the events after it, in seq order, up to and
+    // including the last one at or before time; through all of them when time is null
+    static State replay(State snapshot, List<Event> tail, Date time) {
+        for (Event event : tail) {
+            if (time != null && (event.at == null || event.at.after(time))) break;
+            snapshot.apply(event);
+        }
+        return snapshot;
+    }
+
+    private void loadUnchanged(String deviationId, Date time, StateCallback callback) {
+        db.collection("deviations").document(deviationId).get()
+            .addOnSuccessListener(snapshot -> {
+                if (!snapshot.exists()) {
+                    callback.onLoaded(null);
+                    return;
+                }
+                Deviation deviation = Deviation.fromMap(snapshot.getData());
+                deviation.setId(snapshot.getId());
+                boolean existed = time == null || deviation.getCreatedAt() == null || !deviation.getCreatedAt().after(time);
+                callback.onLoaded(existed ? State.of(deviation) : null);
+            })
+            .addOnFailureListener(callback::onError);
+    }
+
+    static CollectionReference events(FirebaseFirestore db, String deviationId) {
+        return db.collection("deviations").document(deviationId).collection("events");
+    }
+
+    static CollectionReference snapshots(FirebaseFirestore db, String deviationId) {
+        return db.collection("deviations").document(deviationId).collection("snapshots");
+    }
+
+    // Zero-padded so document ids sort like the sequence numbers
+    private static String key(long seq) {
+        return String.format(Locale.ROOT, "%010d", seq);
+    }
+}
@@ -0,0 +1,129 @@
+package com.driftpro.app;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Deviations within a radius of a point. The circle is covered by a few geohash ranges (see
+// Geohash.coveringRanges); each range is paged on its own cursor, and the documents read are
+// filtered by exact distance. Each page is sorted nearest first. Needs a composite index on
+// companyId + geohash.
+public class DeviationLocationSearch {
+    public static final int PAGE_SIZE = 25;
+
+    private final FirebaseFirestore db;
+    private final String companyId;
+    private final double latitude;
+    private final double longitude;
+    private final double radiusM;
+    private final List<RangeCursor> cursors = new ArrayList<>();
+    private boolean loading;
+    private int generation;
+    private long documentsRead;
+
+    private static class RangeCursor {
+        final Geohash.Range range;
+        DocumentSnapshot last;
+        boolean exhausted;
+
+        RangeCursor(Geohash.Range range) {
+            this.range = range;
+        }
+    }
+
+    public DeviationLocationSearch(FirebaseFirestore db, String companyId, double latitude, double longitude, double radiusM) {
+        this.db = db;
+        this.companyId = companyId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusM = radiusM;
+        for (Geohash.Range range : Geohash.coveringRanges(latitude, longitude, radiusM)) {
+            cursors.add(new RangeCursor(range));
+        }
+    }
+
+    public boolean hasMore() {
+        for (RangeCursor cursor : cursors) {
+            if (!cursor.exhausted) return true;
+        }
+        return false;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public double distanceTo(Deviation deviation) {
+        return Geohash.distanceMeters(latitude, longitude, deviation.getLatitude(), deviation.getLongitude());
+    }
+
+    // Reads the next PAGE_SIZE documents of every open range. Rounds whose documents all fall
+    // outside the circle (the corners of the covering cells) are skipped without a callback.
+    public void loadNextPage(DeviationPager.PageCallback callback) {
+        if (loading || !hasMore()) return;
+        load(callback, documentsRead == 0);
+    }
+
+    private void load(DeviationPager.PageCallback callback, boolean firstPage) {
+        loading = true;
+        int requestGeneration = generation;
+
+        List<RangeCursor> open = new ArrayList<>();
+        List<Task<QuerySnapshot>> reads = new ArrayList<>();
+        for (RangeCursor cursor : cursors) {
+            if (cursor.exhausted) continue;
+            Query query = DeviationSummary.collection(db)
+                .whereEqualTo("companyId", companyId)
+                .orderBy("geohash");
+            query = cursor.last != null ? query.startAfter(cursor.last) : query.startAt(cursor.range.start);
+            open.add(cursor);
+            reads.add(query.endAt(cursor.range.end).limit(PAGE_SIZE).get());
+        }
+
+        Tasks.whenAllSuccess(reads)
+            .addOnSuccessListener(results -> {
+                if (requestGeneration != generation) return;
+                List<Deviation> page = new ArrayList<>();
+                for (int i = 0; i < results.size(); i++) {
+                    QuerySnapshot snapshot = (QuerySnapshot) results.get(i);
+                    RangeCursor cursor = open.get(i);
+                    documentsRead += snapshot.size();
+                    if (!snapshot.isEmpty()) {
+                        cursor.last = snapshot.getDocuments().get(snapshot.size() - 1);
+                    }
+                    cursor.exhausted = snapshot.size() < PAGE_SIZE;
+                    for (DocumentSnapshot document : snapshot.getDocuments()) {
+                        Deviation deviation = Deviation.fromMap(document.getData());
+                        deviation.setId(document.getId());
+                        if (deviation.hasCoordinates() && distanceTo(deviation) <= radiusM) {
+                            page.add(deviation);
+                        }
+                    }
+                }
+                Collections.sort(page, (a, b) -> Double.compare(distanceTo(a), distanceTo(b)));
+                loading = false;
+                if (page.isEmpty() && hasMore()) {
+                    load(callback, firstPage);
+                    return;
+                }
+                callback.onPage(page, firstPage);
+            })
+            .addOnFailureListener(e -> {
+                if (requestGeneration != generation) return;
+                loading = false;
+                callback.onError(e);
+            });
+    }
+
+    // Drops any page still in flight, e.g. when the user leaves the near-me filter
+    public void cancel() {
+        generation++;
+        loading = false;
+    }
+}
@@ -0,0 +1,89 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+// One-off migrations for deviations written before the list summaries and the stats documents
+// existed. Each step runs once per company: when it finishes it leaves a marker in
+// companies/{id}/migrations/{step}, and later runs from any device read the marker and skip
+// the step. Started from an administrator's dashboard, on unmetered networks; a failed step
+// is retried from the start.
+public class DeviationMigrationWorker extends Worker {
+    public static final String KEY_COMPANY_ID = "companyId";
+    private static final String WORK_NAME = "deviation-migration";
+    private static final String STEP_SUMMARIES = "deviationSummaries";
+    private static final String STEP_STATS = "deviationStats";
+
+    public DeviationMigrationWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    // A run already queued or in progress is kept
+    public static void schedule(Context context, String companyId) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(DeviationMigrationWorker.class)
+            .setConstraints(new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .build())
+            .setInputData(new Data.Builder().putString(KEY_COMPANY_ID, companyId).build())
+            .build();
+        WorkManager.getInstance(context)
+            .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String companyId = getInputData().getString(KEY_COMPANY_ID);
+        if (companyId == null) {
+            return Result.failure();
+        }
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        try {
+            if (!isDone(db, companyId, STEP_SUMMARIES)) {
+                DeviationSummary.backfillBlocking(db, companyId);
+                markDone(db, companyId, STEP_SUMMARIES);
+            }
+            if (!isDone(db, companyId, STEP_STATS)) {
+                DeviationStats.rebuildBlocking(db, companyId);
+                markDone(db, companyId, STEP_STATS);
+            }
+            return Result.success();
+        } catch (ExecutionException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return Result.retry();
+        }
+    }
+
+    private static DocumentReference marker(FirebaseFirestore db, String companyId, String step) {
+        return db.collection("companies").document(companyId).collection("migrations").document(step);
+    }
+
+    private static boolean isDone(FirebaseFirestore db, String companyId, String step)
+            throws ExecutionException, InterruptedException {
+        return Tasks.await(marker(db, companyId, step).get()).exists();
+    }
+
+    private static void markDone(FirebaseFirestore db, String companyId, String step)
+            throws ExecutionException, InterruptedException {
+        Map<String, Object> marker = new HashMap<>();
+        marker.put("completedAt", FieldValue.serverTimestamp());
+        Tasks.await(marker(db, companyId, step).set(marker));
+    }
+}
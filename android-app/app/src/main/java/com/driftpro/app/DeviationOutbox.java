@@ -0,0 +1,378 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageReference;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Deviations reported on this device that have not reached Firestore yet. Each report gets
+// its document id when it is queued, and photos go to a fixed path under that id, so a
+// retried flush finds its own earlier attempt instead of creating a second report.
+public class DeviationOutbox {
+    public static final String STATE_PENDING = "pending";
+    public static final String STATE_SYNCING = "syncing";
+    public static final String STATE_FAILED = "failed";
+    // Leaves room under the 500 write limit
+    private static final int MAX_WRITES_PER_BATCH = 400;
+    // Each report writes its list summary and can also touch its reporter's stats document,
+    // plus one company document; the transaction also reads every report once
+    private static final int MAX_REPORTS_PER_BATCH = MAX_WRITES_PER_BATCH / 3 - 1;
+    private static DeviationOutbox instance;
+
+    private final File file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Context context;
+
+    public static class Entry {
+        public final Deviation deviation;
+        public final List<String> photoPaths;
+        // Download URL per photo, null until that photo is uploaded
+        public final List<String> photoURLs;
+        public String state = STATE_PENDING;
+        public int attempts;
+
+        Entry(Deviation deviation, List<String> photoPaths, List<String> photoURLs) {
+            this.deviation = deviation;
+            this.photoPaths = photoPaths;
+            this.photoURLs = photoURLs;
+        }
+
+        public String getId() {
+            return deviation.getId();
+        }
+    }
+
+    // Notified on the main thread
+    public interface Listener {
+        void onOutboxChanged(List<Entry> entries);
+    }
+
+    private DeviationOutbox(Context context) {
+        this.context = context;
+        this.file = new File(context.getFilesDir(), "deviation_outbox.json");
+        readFromDisk();
+    }
+
+    public static synchronized DeviationOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviationOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    // Assigns the Firestore id up front and schedules a flush for when the network is available
+    public void enqueue(Deviation deviation, List<String> photoPaths) {
+        if (deviation.getId() == null) {
+            deviation.setId(FirebaseFirestore.getInstance().collection("deviations").document().getId());
+        }
+        List<String> photoURLs = new ArrayList<>();
+        for (int i = 0; i < photoPaths.size(); i++) {
+            photoURLs.add(null);
+        }
+        synchronized (this) {
+            entries.put(deviation.getId(), new Entry(deviation, new ArrayList<>(photoPaths), photoURLs));
+            writeToDisk();
+        }
+        notifyChanged();
+        DeviationOutboxWorker.enqueue(context);
+    }
+
+    // Runs on a worker thread. Uploads missing photos, then writes the reports in batches.
+    // Returns false if anything is left for a retry.
+    public boolean flushBlocking() {
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        StorageReference root = FirebaseStorage.getInstance().getReference();
+        boolean allSucceeded = true;
+
+        List<Entry> ready = new ArrayList<>();
+        for (Entry entry : getEntries()) {
+            setState(entry, STATE_SYNCING);
+            if (uploadPhotos(root, entry)) {
+                ready.add(entry);
+            } else {
+                setState(entry, STATE_FAILED);
+                allSucceeded = false;
+            }
+        }
+
+        for (int start = 0; start < ready.size(); start += MAX_REPORTS_PER_BATCH) {
+            List<Entry> chunk = new ArrayList<>(ready.subList(start, Math.min(start + MAX_REPORTS_PER_BATCH, ready.size())));
+            for (Entry entry : chunk) {
+                List<String> mediaURLs = new ArrayList<>();
+                for (String url : entry.photoURLs) {
+                    if (url != null && !url.isEmpty()) mediaURLs.add(url);
+                }
+                entry.deviation.setMediaURLs(mediaURLs.isEmpty() ? null : mediaURLs);
+            }
+
+            try {
+                Tasks.await(create(db, chunk));
+                for (Entry entry : chunk) {
+                    remove(entry);
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                for (Entry entry : chunk) {
+                    entry.attempts++;
+                    setState(entry, STATE_FAILED);
+                }
+                allSucceeded = false;
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return allSucceeded;
+    }
+
+    private boolean uploadPhotos(StorageReference root, Entry entry) {
+        for (int i = 0; i < entry.photoPaths.size(); i++) {
+            if (entry.photoURLs.get(i) != null) continue;
+            File photo = new File(entry.photoPaths.get(i));
+            if (!photo.exists()) {
+                // Lost local copy; submit the report without it rather than blocking it forever
+                entry.photoURLs.set(i, "");
+                continue;
+            }
+            StorageReference reference = root.child("deviations/" + entry.deviation.getCompanyId()
+                    + "/" + entry.getId() + "/photo_" + i + ".jpg");
+            try {
+                uploadThumbnail(reference, photo);
+                Tasks.await(reference.putFile(Uri.fromFile(photo)));
+                String url = Tasks.await(reference.getDownloadUrl()).toString();
+                synchronized (this) {
+                    entry.photoURLs.set(i, url);
+                    writeToDisk();
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                entry.attempts++;
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Small rendition next to the photo for the evidence gallery. Best effort: without it the
+    // gallery falls back to the original, so a failure here must not hold the report back.
+    private void uploadThumbnail(StorageReference photoReference, File photo) throws InterruptedException {
+        File thumbnail = new File(context.getCacheDir(), photo.getName() + "_thumb.jpg");
+        try {
+            if (EvidenceImageLoader.createThumbnail(photo, thumbnail)) {
+                StorageReference parent = photoReference.getParent();
+                if (parent != null) {
+                    Tasks.await(parent.child(EvidenceImageLoader.thumbnailName(photoReference.getName()))
+                            .putFile(Uri.fromFile(thumbnail)));
+                }
+            }
+        } catch (IOException | ExecutionException e) {
+            // Left without a thumbnail
+        } finally {
+            thumbnail.delete();
+        }
+    }
+
+    // Creates the reports that are not in Firestore yet, with their summaries and stats, in one
+    // transaction. A report can already be there even on a first attempt: the process may have
+    // died after a commit was sent but before its entry was removed, and Firestore re-sends
+    // pending writes on its own. Such a report may have been triaged since, so it is neither
+    // overwritten nor counted again.
+    private static Task<Void> create(FirebaseFirestore db, List<Entry> chunk) {
+        return db.runTransaction(transaction -> {
+            List<DocumentReference> references = new ArrayList<>();
+            List<Boolean> existing = new ArrayList<>();
+            for (Entry entry : chunk) {
+                DocumentReference reference = db.collection("deviations").document(entry.getId());
+                references.add(reference);
+                existing.add(transaction.get(reference).exists());
+            }
+            DeviationStats.Delta stats = new DeviationStats.Delta(db);
+            for (int i = 0; i < chunk.size(); i++) {
+                if (existing.get(i)) continue;
+                Deviation deviation = chunk.get(i).deviation;
+                transaction.set(references.get(i), deviation.toMap());
+                transaction.set(DeviationSummary.document(db, deviation.getId()), DeviationSummary.of(deviation));
+                stats.created(deviation);
+            }
+            // Counted in the same commit, so a report is in the stats exactly when it exists
+            stats.apply(transaction);
+            return null;
+        });
+    }
+
+    private void setState(Entry entry, String state) {
+        synchronized (this) {
+            entry.state = state;
+            writeToDisk();
+        }
+        notifyChanged();
+    }
+
+    private void remove(Entry entry) {
+        synchronized (this) {
+            entries.remove(entry.getId());
+            writeToDisk();
+        }
+        for (String path : entry.photoPaths) {
+            new File(path).delete();
+        }
+        notifyChanged();
+    }
+
+    private void notifyChanged() {
+        List<Entry> snapshot = getEntries();
+        mainHandler.post(() -> {
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onOutboxChanged(snapshot);
+            }
+        });
+    }
+
+    private void readFromDisk() {
+        if (!file.exists()) return;
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) break;
+                offset += read;
+            }
+            JSONArray array = new JSONArray(new String(bytes, 0, offset, StandardCharsets.UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                Entry entry = fromJson(array.getJSONObject(i));
+                // A flush interrupted by process death is simply pending again
+                if (STATE_SYNCING.equals(entry.state)) {
+                    entry.state = STATE_PENDING;
+                }
+                entries.put(entry.getId(), entry);
+            }
+        } catch (IOException | JSONException e) {
+            // Unreadable queue; nothing can be recovered from it
+        }
+    }
+
+    private void writeToDisk() {
+        try {
+            JSONArray array = new JSONArray();
+            for (Entry entry : entries.values()) {
+                array.put(toJson(entry));
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(array.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException | JSONException e) {
+            // Keep the in-memory queue; the next change will try to persist again
+        }
+    }
+
+    private static JSONObject toJson(Entry entry) throws JSONException {
+        Deviation deviation = entry.deviation;
+        JSONObject json = new JSONObject();
+        json.put("id", deviation.getId());
+        json.put("title", deviation.getTitle());
+        json.put("description", deviation.getDescription());
+        if (deviation.getCategory() != null) json.put("category", deviation.getCategory().getValue());
+        if (deviation.getSeverity() != null) json.put("severity", deviation.getSeverity().getValue());
+        json.put("reportedBy", deviation.getReportedBy());
+        json.put("companyId", deviation.getCompanyId());
+        json.put("location", deviation.getLocation());
+        if (deviation.hasCoordinates()) {
+            json.put("latitude", deviation.getLatitude());
+            json.put("longitude", deviation.getLongitude());
+        }
+        if (deviation.getCreatedAt() != null) json.put("createdAt", deviation.getCreatedAt().getTime());
+        json.put("photoPaths", new JSONArray(entry.photoPaths));
+        JSONArray urls = new JSONArray();
+        for (String url : entry.photoURLs) {
+            urls.put(url != null ? url : JSONObject.NULL);
+        }
+        json.put("photoURLs", urls);
+        json.put("state", entry.state);
+        json.put("attempts", entry.attempts);
+        return json;
+    }
+
+    private static Entry fromJson(JSONObject json) throws JSONException {
+        Deviation deviation = new Deviation();
+        deviation.setId(json.getString("id"));
+        deviation.setTitle(json.optString("title", null));
+        deviation.setDescription(json.optString("description", null));
+        if (json.has("category")) {
+            deviation.setCategory(Deviation.DeviationCategory.fromString(json.getString("category")));
+        }
+        if (json.has("severity")) {
+            deviation.setSeverity(Deviation.DeviationSeverity.fromString(json.getString("severity")));
+        }
+        deviation.setStatus(Deviation.DeviationStatus.REPORTED);
+        deviation.setReportedBy(json.optString("reportedBy", null));
+        deviation.setCompanyId(json.optString("companyId", null));
+        deviation.setLocation(json.optString("location", null));
+        if (json.has("latitude") && json.has("longitude")) {
+            deviation.setCoordinates(json.getDouble("latitude"), json.getDouble("longitude"));
+        }
+        if (json.has("createdAt")) {
+            Date createdAt = new Date(json.getLong("createdAt"));
+            deviation.setCreatedAt(createdAt);
+            deviation.setUpdatedAt(createdAt);
+        }
+
+        List<String> photoPaths = new ArrayList<>();
+        JSONArray paths = json.optJSONArray("photoPaths");
+        if (paths != null) {
+            for (int i = 0; i < paths.length(); i++) {
+                photoPaths.add(paths.getString(i));
+            }
+        }
+        List<String> photoURLs = new ArrayList<>();
+        JSONArray urls = json.optJSONArray("photoURLs");
+        for (int i = 0; i < photoPaths.size(); i++) {
+            photoURLs.add(urls != null && !urls.isNull(i) ? urls.optString(i, null) : null);
+        }
+
+        Entry entry = new Entry(deviation, photoPaths, photoURLs);
+        entry.state = json.optString("state", STATE_PENDING);
+        entry.attempts = json.optInt("attempts", 0);
+        return entry;
+    }
+}
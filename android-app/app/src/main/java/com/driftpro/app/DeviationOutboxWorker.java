@@ -0,0 +1,44 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import java.util.concurrent.TimeUnit;
+
+// Flushes the deviation outbox as soon as any network is available, backing off on failure
+public class DeviationOutboxWorker extends Worker {
+    private static final String WORK_NAME = "deviation-outbox";
+
+    public DeviationOutboxWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    public static void enqueue(Context context) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(DeviationOutboxWorker.class)
+            .setConstraints(new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build())
+            .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 30, TimeUnit.SECONDS)
+            .build();
+        // Appended so reports queued during a running flush get a flush of their own
+        WorkManager.getInstance(context)
+            .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        DeviationOutbox outbox = DeviationOutbox.getInstance(getApplicationContext());
+        if (outbox.getEntries().isEmpty()) {
+            return Result.success();
+        }
+        return outbox.flushBlocking() ? Result.success() : Result.retry();
+    }
+}
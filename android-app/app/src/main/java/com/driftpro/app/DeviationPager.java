@@ -0,0 +1,127 @@
+package com.driftpro.app;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import java.util.ArrayList;
+import java.util.List;
+
+// Pages through a company's deviations newest first, filtered on the server by category,
+// severity and status. Each page costs PAGE_SIZE reads; the cursor is the last snapshot seen.
+// Every filter combination needs a composite index on (companyId, <filters>, createdAt desc).
+// Rows are read from the compact summaries (see DeviationSummary), not the full documents.
+public class DeviationPager {
+    public static final int PAGE_SIZE = 25;
+
+    private final FirebaseFirestore db;
+    private final String companyId;
+    private Deviation.DeviationCategory category;
+    private Deviation.DeviationSeverity severity;
+    private Deviation.DeviationStatus status;
+    private boolean archived;
+    private DocumentSnapshot lastSnapshot;
+    private boolean hasMore = true;
+    private boolean loading;
+    // Bumped on every reset so pages requested under old filters are dropped
+    private int generation;
+
+    public interface PageCallback {
+        void onPage(List<Deviation> deviations, boolean firstPage);
+        void onError(Exception e);
+    }
+
+    public DeviationPager(FirebaseFirestore db, String companyId) {
+        this.db = db;
+        this.companyId = companyId;
+    }
+
+    // Null clears a filter; call loadNextPage afterwards to fetch the first page
+    public void setFilters(Deviation.DeviationCategory category, Deviation.DeviationSeverity severity,
+                           Deviation.DeviationStatus status) {
+        this.category = category;
+        this.severity = severity;
+        this.status = status;
+        reset();
+    }
+
+    // Archived deviations are full documents in their own collection; only explicit archive
+    // searches read it. Call loadNextPage afterwards to fetch the first page.
+    public void setArchived(boolean archived) {
+        if (this.archived == archived) return;
+        this.archived = archived;
+        reset();
+    }
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public Deviation.DeviationStatus getStatus() {
+        return status;
+    }
+
+    public void reset() {
+        generation++;
+        lastSnapshot = null;
+        hasMore = true;
+        loading = false;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public Query baseQuery() {
+        Query query = (archived ? DeviationArchiver.archive(db) : DeviationSummary.collection(db))
+            .whereEqualTo("companyId", companyId);
+        if (category != null) {
+            query = query.whereEqualTo("category", category.getValue());
+        }
+        if (severity != null) {
+            query = query.whereEqualTo("severity", severity.getValue());
+        }
+        if (status != null) {
+            query = query.whereEqualTo("status", status.getValue());
+        }
+        return query.orderBy("createdAt", Query.Direction.DESCENDING);
+    }
+
+    public void loadNextPage(PageCallback callback) {
+        if (loading || !hasMore) return;
+        loading = true;
+
+        int requestGeneration = generation;
+        boolean firstPage = lastSnapshot == null;
+        Query query = baseQuery().limit(PAGE_SIZE);
+        if (lastSnapshot != null) {
+            query = query.startAfter(lastSnapshot);
+        }
+
+        query.get()
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                if (requestGeneration != generation) return;
+                List<Deviation> page = new ArrayList<>();
+                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                    Deviation deviation = Deviation.fromMap(document.getData());
+                    deviation.setId(document.getId());
+                    page.add(deviation);
+                }
+                if (!queryDocumentSnapshots.isEmpty()) {
+                    lastSnapshot = queryDocumentSnapshots.getDocuments().get(queryDocumentSnapshots.size() - 1);
+                }
+                hasMore = queryDocumentSnapshots.size() == PAGE_SIZE;
+                loading = false;
+                callback.onPage(page, firstPage);
+            })
+            .addOnFailureListener(e -> {
+                if (requestGeneration != generation) return;
+                loading = false;
+                callback.onError(e);
+            });
+    }
+}
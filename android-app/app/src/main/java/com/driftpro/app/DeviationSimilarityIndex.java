@@ -0,0 +1,258 @@
+package com.driftpro.app;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Finds open deviations that look like the one being reported. Each deviation is reduced to a
+// set of features (word stems of title and description, location words, and the geohash cell
+// when it has coordinates) and a MinHash signature of that set. Signatures are split into
+// bands, and deviations sharing a band end up in the same bucket, so a lookup only compares
+// against the few deviations that collide with it instead of every open one. With 20 bands of
+// 3 rows, pairs whose features overlap by half are found about 93% of the time, and pairs
+// below 10% almost never.
+public class DeviationSimilarityIndex {
+    public static final double MIN_SIMILARITY = 0.3;
+    private static final int BANDS = 20;
+    private static final int ROWS = 3;
+    private static final int NUM_HASHES = BANDS * ROWS;
+    private static final int STEM_LENGTH = 6;
+    // Roughly 1.2 x 0.6 km at Norwegian latitudes
+    private static final int GEOHASH_CELL = 6;
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "og", "i", "på", "er", "en", "et", "ei", "til", "av", "med", "for", "det", "den", "som",
+            "har", "ved", "fra", "ikke", "om", "var", "kan", "må", "seg", "der", "the", "and"));
+    private static final long[] SEEDS = new long[NUM_HASHES];
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    // One map per band from the band's hash to the deviations in that bucket
+    private final List<Map<Long, Set<String>>> buckets = new ArrayList<>();
+    private ListenerRegistration registration;
+
+    public static class Match {
+        public final Deviation deviation;
+        public final double similarity;
+
+        Match(Deviation deviation, double similarity) {
+            this.deviation = deviation;
+            this.similarity = similarity;
+        }
+    }
+
+    private static class Entry {
+        final Deviation deviation;
+        final long[] signature;
+        final long[] bands;
+
+        Entry(Deviation deviation, long[] signature) {
+            this.deviation = deviation;
+            this.signature = signature;
+            this.bands = bandHashes(signature);
+        }
+    }
+
+    public DeviationSimilarityIndex() {
+        for (int i = 0; i < BANDS; i++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    // Keeps the index in step with the company's open deviations; resolved and closed ones
+    // leave the query and so leave the index. onUpdated runs after each batch of changes.
+    public void listen(FirebaseFirestore db, String companyId, Runnable onUpdated) {
+        stop();
+        registration = DeviationSummary.collection(db)
+            .whereEqualTo("companyId", companyId)
+            .whereIn("status", Arrays.asList(
+                    Deviation.DeviationStatus.REPORTED.getValue(),
+                    Deviation.DeviationStatus.UNDER_REVIEW.getValue(),
+                    Deviation.DeviationStatus.IN_PROGRESS.getValue()))
+            .addSnapshotListener((snapshots, e) -> {
+                if (e != null || snapshots == null) return;
+                for (DocumentChange change : snapshots.getDocumentChanges()) {
+                    DocumentSnapshot document = change.getDocument();
+                    if (change.getType() == DocumentChange.Type.REMOVED) {
+                        remove(document.getId());
+                    } else {
+                        Deviation deviation = Deviation.fromMap(document.getData());
+                        deviation.setId(document.getId());
+                        put(deviation);
+                    }
+                }
+                onUpdated.run();
+            });
+    }
+
+    public void stop() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+    }
+
+    public void put(Deviation deviation) {
+        remove(deviation.getId());
+        // A summary cuts the description short, but its search tokens hold all of its words
+        String description = deviation.getDescription();
+        if (deviation.getSearchTokens() != null) {
+            StringBuilder words = new StringBuilder();
+            for (String token : deviation.getSearchTokens()) {
+                words.append(token).append(' ');
+            }
+            description = words.toString();
+        }
+        Set<String> features = features(deviation.getTitle(), description,
+                deviation.getLocation(), deviation.getGeohash());
+        if (features.isEmpty()) return;
+        Entry entry = new Entry(deviation, signature(features));
+        entries.put(deviation.getId(), entry);
+        for (int band = 0; band < BANDS; band++) {
+            Map<Long, Set<String>> bucketMap = buckets.get(band);
+            Set<String> bucket = bucketMap.get(entry.bands[band]);
+            if (bucket == null) {
+                bucket = new HashSet<>();
+                bucketMap.put(entry.bands[band], bucket);
+            }
+            bucket.add(deviation.getId());
+        }
+    }
+
+    public void remove(String deviationId) {
+        Entry entry = entries.remove(deviationId);
+        if (entry == null) return;
+        for (int band = 0; band < BANDS; band++) {
+            Set<String> bucket = buckets.get(band).get(entry.bands[band]);
+            if (bucket != null) {
+                bucket.remove(deviationId);
+                if (bucket.isEmpty()) {
+                    buckets.get(band).remove(entry.bands[band]);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Most similar first. geohash may be null when the report has no position.
+    public List<Match> findSimilar(String title, String description, String location, String geohash, int limit) {
+        Set<String> features = features(title, description, location, geohash);
+        if (features.isEmpty()) return Collections.emptyList();
+        long[] signature = signature(features);
+        long[] bands = bandHashes(signature);
+
+        Set<String> candidates = new HashSet<>();
+        for (int band = 0; band < BANDS; band++) {
+            Set<String> bucket = buckets.get(band).get(bands[band]);
+            if (bucket != null) {
+                candidates.addAll(bucket);
+            }
+        }
+
+        List<Match> matches = new ArrayList<>();
+        for (String id : candidates) {
+            Entry entry = entries.get(id);
+            double similarity = estimate(signature, entry.signature);
+            if (similarity >= MIN_SIMILARITY) {
+                matches.add(new Match(entry.deviation, similarity));
+            }
+        }
+        Collections.sort(matches, (a, b) -> Double.compare(b.similarity, a.similarity));
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    static Set<String> features(String title, String description, String location, String geohash) {
+        Set<String> features = new HashSet<>();
+        addWords(features, title, "");
+        addWords(features, description, "");
+        addWords(features, location, "loc:");
+        if (geohash != null && geohash.length() >= GEOHASH_CELL) {
+            features.add("geo:" + geohash.substring(0, GEOHASH_CELL));
+        }
+        return features;
+    }
+
+    // Lower-cased words without stop words, cut to a common stem so "rekkverk" and
+    // "rekkverket" count as the same feature
+    private static void addWords(Set<String> features, String text, String prefix) {
+        if (text == null) return;
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() < 3 || STOP_WORDS.contains(word)) continue;
+            features.add(prefix + (word.length() > STEM_LENGTH ? word.substring(0, STEM_LENGTH) : word));
+        }
+    }
+
+    private static long[] signature(Set<String> features) {
+        long[] signature = new long[NUM_HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (String feature : features) {
+            long base = hash(feature);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                long value = mix(base ^ SEEDS[i]);
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private static long[] bandHashes(long[] signature) {
+        long[] bands = new long[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            long value = band;
+            for (int row = 0; row < ROWS; row++) {
+                value = mix(value * 31 + signature[band * ROWS + row]);
+            }
+            bands[band] = value;
+        }
+        return bands;
+    }
+
+    // Share of equal minimums, an unbiased estimate of the features' Jaccard similarity
+    private static double estimate(long[] a, long[] b) {
+        int equal = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / NUM_HASHES;
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Finalizer from MurmurHash3
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93fe53ec353L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
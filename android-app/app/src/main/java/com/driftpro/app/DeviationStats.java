@@ -0,0 +1,272 @@
+package com.driftpro.app;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+// Deviation counts by status, severity and category, kept in one document per company
+// (companies/{companyId}/stats/deviations) and one per reporter (users/{uid}/stats/deviations).
+// They are not recomputed in normal use: every create and status change adds its increments to the same
+// batch or transaction as the deviation write, so screens read one document instead of
+// scanning the collection.
+public class DeviationStats {
+    private static final String FIELD_TOTAL = "total";
+    private static final String FIELD_BY_STATUS = "byStatus";
+    private static final String FIELD_BY_SEVERITY = "bySeverity";
+    private static final String FIELD_BY_CATEGORY = "byCategory";
+    private static final int REBUILD_PAGE_SIZE = 500;
+
+    private long total;
+    private final Map<String, Long> byStatus = new HashMap<>();
+    private final Map<String, Long> bySeverity = new HashMap<>();
+    private final Map<String, Long> byCategory = new HashMap<>();
+
+    public interface LoadCallback {
+        void onLoaded(DeviationStats stats);
+        void onError(Exception e);
+    }
+
+    public static DocumentReference companyDocument(FirebaseFirestore db, String companyId) {
+        return db.collection("companies").document(companyId).collection("stats").document("deviations");
+    }
+
+    public static DocumentReference userDocument(FirebaseFirestore db, String userId) {
+        return db.collection("users").document(userId).collection("stats").document("deviations");
+    }
+
+    public static void load(DocumentReference reference, LoadCallback callback) {
+        reference.get()
+            .addOnSuccessListener(snapshot -> callback.onLoaded(fromSnapshot(snapshot)))
+            .addOnFailureListener(callback::onError);
+    }
+
+    static DeviationStats fromSnapshot(DocumentSnapshot snapshot) {
+        DeviationStats stats = new DeviationStats();
+        if (!snapshot.exists()) return stats;
+        Long total = snapshot.getLong(FIELD_TOTAL);
+        stats.total = total != null ? total : 0;
+        readCounts(snapshot.get(FIELD_BY_STATUS), stats.byStatus);
+        readCounts(snapshot.get(FIELD_BY_SEVERITY), stats.bySeverity);
+        readCounts(snapshot.get(FIELD_BY_CATEGORY), stats.byCategory);
+        return stats;
+    }
+
+    private static void readCounts(Object value, Map<String, Long> target) {
+        if (!(value instanceof Map)) return;
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            if (entry.getValue() instanceof Number) {
+                target.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).longValue());
+            }
+        }
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getCount(Deviation.DeviationStatus status) {
+        Long count = byStatus.get(status.getValue());
+        return count != null ? count : 0;
+    }
+
+    public long getCount(Deviation.DeviationSeverity severity) {
+        Long count = bySeverity.get(severity.getValue());
+        return count != null ? count : 0;
+    }
+
+    public long getCount(Deviation.DeviationCategory category) {
+        Long count = byCategory.get(category.getValue());
+        return count != null ? count : 0;
+    }
+
+    // Everything not yet resolved or closed
+    public long getOpenCount() {
+        return total - getCount(Deviation.DeviationStatus.RESOLVED) - getCount(Deviation.DeviationStatus.CLOSED);
+    }
+
+    // One-off backfill for deviations created before the aggregates existed, run once per
+    // company by DeviationMigrationWorker. Pages through the company's deviations by id, counts
+    // them, and overwrites its stats documents. A deviation reported while it runs can be lost
+    // from the counts, which is why it runs once rather than on every start. Runs on a worker thread.
+    public static void rebuildBlocking(FirebaseFirestore db, String companyId)
+            throws ExecutionException, InterruptedException {
+        Delta delta = new Delta(db);
+        DocumentSnapshot last = null;
+        while (true) {
+            Query query = db.collection("deviations")
+                .whereEqualTo("companyId", companyId)
+                .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING)
+                .limit(REBUILD_PAGE_SIZE);
+            if (last != null) {
+                query = query.startAfter(last);
+            }
+            QuerySnapshot page = Tasks.await(query.get());
+            for (DocumentSnapshot document : page.getDocuments()) {
+                Deviation deviation = Deviation.fromMap(document.getData());
+                deviation.setCompanyId(companyId);
+                delta.created(deviation);
+            }
+            if (page.size() < REBUILD_PAGE_SIZE) break;
+            last = page.getDocuments().get(page.size() - 1);
+        }
+
+        WriteBatch batch = db.batch();
+        int inBatch = 0;
+        for (Map.Entry<DocumentReference, Map<String, Object>> update : delta.absolute().entrySet()) {
+            batch.set(update.getKey(), update.getValue());
+            if (++inBatch == 450) {
+                Tasks.await(batch.commit());
+                batch = db.batch();
+                inBatch = 0;
+            }
+        }
+        if (inBatch > 0) {
+            Tasks.await(batch.commit());
+        }
+    }
+
+    // Increments for several deviations, summed per stats document so a batch carries one
+    // write per document however many deviations it touches
+    public static class Delta {
+        private final FirebaseFirestore db;
+        private final Map<DocumentReference, Map<String, Map<String, Long>>> changes = new LinkedHashMap<>();
+
+        public Delta(FirebaseFirestore db) {
+            this.db = db;
+        }
+
+        public void created(Deviation deviation) {
+            for (DocumentReference reference : documentsFor(deviation)) {
+                add(reference, FIELD_TOTAL, FIELD_TOTAL, 1);
+                if (deviation.getStatus() != null) {
+                    add(reference, FIELD_BY_STATUS, deviation.getStatus().getValue(), 1);
+                }
+                if (deviation.getSeverity() != null) {
+                    add(reference, FIELD_BY_SEVERITY, deviation.getSeverity().getValue(), 1);
+                }
+                if (deviation.getCategory() != null) {
+                    add(reference, FIELD_BY_CATEGORY, deviation.getCategory().getValue(), 1);
+                }
+            }
+        }
+
+        public void statusChanged(Deviation deviation, Deviation.DeviationStatus from, Deviation.DeviationStatus to) {
+            if (from == to) return;
+            for (DocumentReference reference : documentsFor(deviation)) {
+                if (from != null) add(reference, FIELD_BY_STATUS, from.getValue(), -1);
+                if (to != null) add(reference, FIELD_BY_STATUS, to.getValue(), 1);
+            }
+        }
+
+        public void severityChanged(Deviation deviation, Deviation.DeviationSeverity from, Deviation.DeviationSeverity to) {
+            if (from == to) return;
+            for (DocumentReference reference : documentsFor(deviation)) {
+                if (from != null) add(reference, FIELD_BY_SEVERITY, from.getValue(), -1);
+                if (to != null) add(reference, FIELD_BY_SEVERITY, to.getValue(), 1);
+            }
+        }
+
+        // Number of writes apply() will add to a batch
+        public int size() {
+            return changes.size();
+        }
+
+        public void apply(WriteBatch batch) {
+            for (Map.Entry<DocumentReference, Map<String, Object>> update : updates().entrySet()) {
+                // Merge creates the document on first use and leaves the other counters alone
+                batch.set(update.getKey(), update.getValue(), SetOptions.merge());
+            }
+        }
+
+        public void apply(Transaction transaction) {
+            for (Map.Entry<DocumentReference, Map<String, Object>> update : updates().entrySet()) {
+                transaction.set(update.getKey(), update.getValue(), SetOptions.merge());
+            }
+        }
+
+        private Map<DocumentReference, Map<String, Object>> updates() {
+            Map<DocumentReference, Map<String, Object>> updates = new LinkedHashMap<>();
+            for (Map.Entry<DocumentReference, Map<String, Map<String, Long>>> document : changes.entrySet()) {
+                Map<String, Object> update = new HashMap<>();
+                for (Map.Entry<String, Map<String, Long>> field : document.getValue().entrySet()) {
+                    if (field.getKey().equals(FIELD_TOTAL)) {
+                        update.put(FIELD_TOTAL, FieldValue.increment(field.getValue().get(FIELD_TOTAL)));
+                        continue;
+                    }
+                    Map<String, Object> counts = new HashMap<>();
+                    for (Map.Entry<String, Long> count : field.getValue().entrySet()) {
+                        if (count.getValue() != 0) {
+                            counts.put(count.getKey(), FieldValue.increment(count.getValue()));
+                        }
+                    }
+                    if (!counts.isEmpty()) {
+                        update.put(field.getKey(), counts);
+                    }
+                }
+                update.put("updatedAt", FieldValue.serverTimestamp());
+                updates.put(document.getKey(), update);
+            }
+            return updates;
+        }
+
+        // The summed counts as plain values, for overwriting a document instead of adding to it
+        private Map<DocumentReference, Map<String, Object>> absolute() {
+            Map<DocumentReference, Map<String, Object>> documents = new LinkedHashMap<>();
+            for (Map.Entry<DocumentReference, Map<String, Map<String, Long>>> document : changes.entrySet()) {
+                Map<String, Object> values = new HashMap<>();
+                for (Map.Entry<String, Map<String, Long>> field : document.getValue().entrySet()) {
+                    if (field.getKey().equals(FIELD_TOTAL)) {
+                        values.put(FIELD_TOTAL, field.getValue().get(FIELD_TOTAL));
+                    } else {
+                        values.put(field.getKey(), new HashMap<String, Object>(field.getValue()));
+                    }
+                }
+                values.put("updatedAt", FieldValue.serverTimestamp());
+                documents.put(document.getKey(), values);
+            }
+            return documents;
+        }
+
+        // Without a companyId there is no company to count it for, so only the reporter's
+        // document is touched
+        private List<DocumentReference> documentsFor(Deviation deviation) {
+            List<DocumentReference> documents = new ArrayList<>(2);
+            if (deviation.getCompanyId() != null && !deviation.getCompanyId().isEmpty()) {
+                documents.add(companyDocument(db, deviation.getCompanyId()));
+            }
+            if (deviation.getReportedBy() != null && !deviation.getReportedBy().isEmpty()) {
+                documents.add(userDocument(db, deviation.getReportedBy()));
+            }
+            return documents;
+        }
+
+        private void add(DocumentReference reference, String field, String key, long amount) {
+            Map<String, Map<String, Long>> fields = changes.get(reference);
+            if (fields == null) {
+                fields = new LinkedHashMap<>();
+                changes.put(reference, fields);
+            }
+            Map<String, Long> counts = fields.get(field);
+            if (counts == null) {
+                counts = new HashMap<>();
+                fields.put(field, counts);
+            }
+            Long current = counts.get(key);
+            counts.put(key, (current != null ? current : 0) + amount);
+        }
+    }
+}
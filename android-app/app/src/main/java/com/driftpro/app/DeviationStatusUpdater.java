@@ -0,0 +1,102 @@
+package com.driftpro.app;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Moves a deviation to a new status or severity. Runs as a transaction because the stats
+// decrement and the history numbering depend on what is actually stored, not on what this
+// device last saw; two people closing the same deviation must not count it twice.
+public class DeviationStatusUpdater {
+    private final FirebaseFirestore db;
+
+    public interface Callback {
+        void onUpdated(Deviation deviation);
+        void onError(Exception e);
+    }
+
+    public DeviationStatusUpdater(FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    public void update(String deviationId, Deviation.DeviationStatus newStatus, Callback callback) {
+        change(deviationId, newStatus, null, callback);
+    }
+
+    public void updateSeverity(String deviationId, Deviation.DeviationSeverity newSeverity, Callback callback) {
+        change(deviationId, null, newSeverity, callback);
+    }
+
+    private void change(String deviationId, Deviation.DeviationStatus newStatus,
+                        Deviation.DeviationSeverity newSeverity, Callback callback) {
+        DocumentReference reference = db.collection("deviations").document(deviationId);
+        db.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(reference);
+            // A deleted deviation must not be recreated by the update, nor an archived one
+            // rebuilt from its stub
+            if (!snapshot.exists()) {
+                throw new FirebaseFirestoreException("Avviket finnes ikke lenger",
+                        FirebaseFirestoreException.Code.NOT_FOUND);
+            }
+            if (DeviationArchiver.isStub(snapshot)) {
+                throw new FirebaseFirestoreException("Arkiverte avvik kan ikke endres",
+                        FirebaseFirestoreException.Code.FAILED_PRECONDITION);
+            }
+            Deviation deviation = Deviation.fromMap(snapshot.getData());
+            deviation.setId(snapshot.getId());
+            Deviation.DeviationStatus oldStatus = deviation.getStatus();
+            Deviation.DeviationSeverity oldSeverity = deviation.getSeverity();
+            boolean statusChanges = newStatus != null && newStatus != oldStatus;
+            boolean severityChanges = newSeverity != null && newSeverity != oldSeverity;
+            if (!statusChanges && !severityChanges) return deviation;
+
+            Map<String, Object> update = new HashMap<>();
+            DeviationStats.Delta delta = new DeviationStats.Delta(db);
+            DeviationHistory.Recorder history = new DeviationHistory.Recorder(db, deviation);
+            if (statusChanges) {
+                update.putAll(statusUpdate(deviation, newStatus));
+                delta.statusChanged(deviation, oldStatus, newStatus);
+                history.change(DeviationHistory.FIELD_STATUS,
+                        oldStatus != null ? oldStatus.getValue() : null, newStatus.getValue());
+            }
+            if (severityChanges) {
+                update.put("severity", newSeverity.getValue());
+                delta.severityChanged(deviation, oldSeverity, newSeverity);
+                history.change(DeviationHistory.FIELD_SEVERITY,
+                        oldSeverity != null ? oldSeverity.getValue() : null, newSeverity.getValue());
+            }
+            update.put("updatedAt", FieldValue.serverTimestamp());
+            history.addTo(update);
+            transaction.update(reference, update);
+            DeviationSummary.update(transaction, db, deviation, update);
+            delta.apply(transaction);
+            history.apply(transaction);
+
+            if (statusChanges) deviation.setStatus(newStatus);
+            if (severityChanges) deviation.setSeverity(newSeverity);
+            return deviation;
+        })
+            .addOnSuccessListener(callback::onUpdated)
+            .addOnFailureListener(callback::onError);
+    }
+
+    // The status fields to write when moving `current`, as stored, to newStatus
+    static Map<String, Object> statusUpdate(Deviation current, Deviation.DeviationStatus newStatus) {
+        Map<String, Object> update = new HashMap<>();
+        update.put("status", newStatus.getValue());
+        if (isResolved(newStatus) && current.getResolvedAt() == null) {
+            update.put("resolvedAt", FieldValue.serverTimestamp());
+        } else if (!isResolved(newStatus)) {
+            update.put("resolvedAt", null);
+        }
+        return update;
+    }
+
+    static boolean isResolved(Deviation.DeviationStatus status) {
+        return status == Deviation.DeviationStatus.RESOLVED || status == Deviation.DeviationStatus.CLOSED;
+    }
+}
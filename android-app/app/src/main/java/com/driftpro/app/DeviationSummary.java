@@ -0,0 +1,173 @@
+package com.driftpro.app;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+// The fields a deviation row needs, kept in deviationSummaries/{id} next to the full document.
+// List screens page and listen on the summaries, so they never download media URLs, tags,
+// history counters or long descriptions; the detail screen reads the full document. Every
+// deviation write puts the matching summary fields in the same batch or transaction.
+// Free-text search still covers the whole description and the tags through searchTokens, the
+// distinct lowercased words of title, description, location and tags.
+public class DeviationSummary {
+    public static final String COLLECTION = "deviationSummaries";
+    public static final String SEARCH_TOKENS = "searchTokens";
+    // Rows show two lines of description at most
+    static final int DESCRIPTION_LENGTH = 160;
+    // One batch per page, under the 500 write limit
+    private static final int BACKFILL_PAGE_SIZE = 400;
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList(
+            "title", "description", "category", "severity", "status", "reportedBy", "assignedTo",
+            "companyId", "location", "latitude", "longitude", "geohash", "createdAt", "updatedAt",
+            "resolvedAt", "commentCount"));
+
+    public static CollectionReference collection(FirebaseFirestore db) {
+        return db.collection(COLLECTION);
+    }
+
+    public static DocumentReference document(FirebaseFirestore db, String deviationId) {
+        return collection(db).document(deviationId);
+    }
+
+    // The whole summary of a deviation, for creating or overwriting it
+    public static Map<String, Object> of(Deviation deviation) {
+        Map<String, Object> summary = fieldsOf(deviation.toMap());
+        summary.put(SEARCH_TOKENS, tokensOf(deviation));
+        return summary;
+    }
+
+    public static List<String> tokensOf(Deviation deviation) {
+        Set<String> tokens = new LinkedHashSet<>();
+        addTokens(tokens, deviation.getTitle());
+        addTokens(tokens, deviation.getDescription());
+        addTokens(tokens, deviation.getLocation());
+        if (deviation.getTags() != null) {
+            for (String tag : deviation.getTags()) {
+                addTokens(tokens, tag);
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    public static List<String> tokensOf(Collection<String> texts) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String text : texts) {
+            addTokens(tokens, text);
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    private static void addTokens(Set<String> tokens, String text) {
+        if (text == null) return;
+        for (String token : text.toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+    }
+
+    // Only the summary fields of a deviation write; values such as server timestamps and
+    // increments are passed through unchanged
+    public static Map<String, Object> fieldsOf(Map<String, Object> deviationData) {
+        Map<String, Object> summary = new HashMap<>();
+        for (Map.Entry<String, Object> entry : deviationData.entrySet()) {
+            if (FIELDS.contains(entry.getKey())) {
+                summary.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Object description = summary.get("description");
+        if (description instanceof String && ((String) description).length() > DESCRIPTION_LENGTH) {
+            summary.put("description", ((String) description).substring(0, DESCRIPTION_LENGTH));
+        }
+        return summary;
+    }
+
+    // Merged so an update touches only its own fields; adds nothing when it has none
+    public static void update(WriteBatch batch, FirebaseFirestore db, String deviationId,
+                              Map<String, Object> deviationUpdate) {
+        update(batch, db, deviationId, deviationUpdate, null);
+    }
+
+    // addedTags are the tags an arrayUnion in deviationUpdate adds, whose words join the
+    // search tokens the same way
+    public static void update(WriteBatch batch, FirebaseFirestore db, String deviationId,
+                              Map<String, Object> deviationUpdate, Collection<String> addedTags) {
+        Map<String, Object> fields = fieldsOf(deviationUpdate);
+        if (addedTags != null && !addedTags.isEmpty()) {
+            fields.put(SEARCH_TOKENS, FieldValue.arrayUnion(tokensOf(addedTags).toArray()));
+        }
+        if (fields.isEmpty()) return;
+        batch.set(document(db, deviationId), fields, SetOptions.merge());
+    }
+
+    // When the stored deviation has just been read, the whole summary is written. That also
+    // repairs a summary that is missing or has drifted.
+    public static void update(Transaction transaction, FirebaseFirestore db, Deviation stored,
+                              Map<String, Object> deviationUpdate) {
+        transaction.set(document(db, stored.getId()), merged(stored, deviationUpdate));
+    }
+
+    private static Map<String, Object> merged(Deviation stored, Map<String, Object> deviationUpdate) {
+        Map<String, Object> summary = of(stored);
+        summary.putAll(fieldsOf(deviationUpdate));
+        return summary;
+    }
+
+    // One-off backfill for deviations reported before the summaries existed, run once per
+    // company by DeviationMigrationWorker. Pages through the company's deviations by id and
+    // commits one batch of summaries per page, overwritten from the full documents, so a run
+    // that fails part way can simply start over. Stubs left by DeviationArchiver are skipped,
+    // since their summaries were removed on purpose. Runs on a worker thread and returns the
+    // number of summaries written.
+    public static int backfillBlocking(FirebaseFirestore db, String companyId)
+            throws ExecutionException, InterruptedException {
+        int written = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            Query query = db.collection("deviations")
+                .whereEqualTo("companyId", companyId)
+                .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING)
+                .limit(BACKFILL_PAGE_SIZE);
+            if (last != null) {
+                query = query.startAfter(last);
+            }
+            QuerySnapshot page = Tasks.await(query.get());
+            WriteBatch batch = db.batch();
+            int inBatch = 0;
+            for (DocumentSnapshot document : page.getDocuments()) {
+                if (DeviationArchiver.isStub(document)) continue;
+                Map<String, Object> summary = fieldsOf(document.getData());
+                summary.put(SEARCH_TOKENS, tokensOf(Deviation.fromMap(document.getData())));
+                batch.set(document(db, document.getId()), summary);
+                inBatch++;
+            }
+            if (inBatch > 0) {
+                Tasks.await(batch.commit());
+                written += inBatch;
+            }
+            if (page.size() < BACKFILL_PAGE_SIZE) return written;
+            last = page.getDocuments().get(page.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.driftpro.app;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import java.util.Date;
+
+// Listens to the slice of the deviation list around the viewport, bounded by the createdAt
+// of its first and last rows. A window starting at the top has no upper bound so newly
+// reported deviations arrive too. Because the range is closed rather than limited, a
+// REMOVED change always means the deviation was deleted or stopped matching the filters.
+public class DeviationWindowListener {
+    private final ChangeHandler handler;
+    private ListenerRegistration registration;
+    private Date windowTop;
+    private Date windowBottom;
+    private boolean initialSnapshot;
+
+    public interface ChangeHandler {
+        // isNew is false for documents delivered by the initial snapshot of a window
+        void onDeviationAdded(Deviation deviation, boolean isNew);
+        void onDeviationModified(Deviation deviation);
+        void onDeviationRemoved(String deviationId);
+    }
+
+    public DeviationWindowListener(ChangeHandler handler) {
+        this.handler = handler;
+    }
+
+    // top == null listens from the newest deviation; bottom is inclusive
+    public void attach(Query baseQuery, Date top, Date bottom) {
+        if (bottom == null) return;
+        if (registration != null && equal(top, windowTop) && bottom.equals(windowBottom)) return;
+        detach();
+        windowTop = top;
+        windowBottom = bottom;
+        initialSnapshot = true;
+
+        Query query = baseQuery;
+        if (top != null) {
+            query = query.startAt(new Timestamp(top));
+        }
+        query = query.endAt(new Timestamp(bottom));
+
+        registration = query.addSnapshotListener((snapshots, e) -> {
+            if (e != null || snapshots == null) return;
+            boolean initial = initialSnapshot;
+            initialSnapshot = false;
+            for (DocumentChange change : snapshots.getDocumentChanges()) {
+                Deviation deviation = Deviation.fromMap(change.getDocument().getData());
+                deviation.setId(change.getDocument().getId());
+                switch (change.getType()) {
+                    case ADDED:
+                        handler.onDeviationAdded(deviation, !initial);
+                        break;
+                    case MODIFIED:
+                        handler.onDeviationModified(deviation);
+                        break;
+                    case REMOVED:
+                        handler.onDeviationRemoved(deviation.getId());
+                        break;
+                }
+            }
+        });
+    }
+
+    public void detach() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+    }
+
+    private static boolean equal(Date a, Date b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
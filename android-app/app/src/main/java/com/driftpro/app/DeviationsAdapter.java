@@ -1,22 +1,45 @@
 package com.driftpro.app;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.cardview.widget.CardView;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class DeviationsAdapter extends RecyclerView.Adapter<DeviationsAdapter.DeviationViewHolder> {
     private List<Deviation> deviations;
     private OnDeviationClickListener listener;
+    private static final long HIGHLIGHT_DURATION_MS = 4000;
+    // Deviations that just arrived through the live feed
+    private final Set<String> highlightedIds = new HashSet<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Outbox state of reports made on this device that have not reached the server yet
+    private Map<String, String> syncStates = new HashMap<>();
+    // Multi-select for bulk triage; starts with a long press
+    private final Set<String> selectedIds = new LinkedHashSet<>();
+    private OnSelectionChangedListener selectionListener;
 
     public interface OnDeviationClickListener {
         void onDeviationClick(Deviation deviation);
     }
 
+    public interface OnSelectionChangedListener {
+        void onSelectionChanged(int count);
+    }
+
     public DeviationsAdapter(List<Deviation> deviations, OnDeviationClickListener listener) {
         this.deviations = deviations;
         this.listener = listener;
@@ -46,6 +69,106 @@ public class DeviationsAdapter extends RecyclerView.Adapter<DeviationsAdapter.De
         notifyDataSetChanged();
     }
 
+    public Deviation getItem(int position) {
+        return deviations.get(position);
+    }
+
+    public List<Deviation> getDeviations() {
+        return deviations;
+    }
+
+    public void setOnSelectionChangedListener(OnSelectionChangedListener selectionListener) {
+        this.selectionListener = selectionListener;
+    }
+
+    public boolean isSelecting() {
+        return !selectedIds.isEmpty();
+    }
+
+    // Selected deviations among those shown, in list order
+    public List<Deviation> getSelected() {
+        List<Deviation> selected = new ArrayList<>();
+        for (Deviation deviation : deviations) {
+            if (selectedIds.contains(deviation.getId())) {
+                selected.add(deviation);
+            }
+        }
+        return selected;
+    }
+
+    public void selectAll() {
+        for (Deviation deviation : deviations) {
+            // Reports still in the outbox have no document to update yet
+            if (!syncStates.containsKey(deviation.getId())) {
+                selectedIds.add(deviation.getId());
+            }
+        }
+        notifyDataSetChanged();
+        notifySelectionChanged();
+    }
+
+    public void clearSelection() {
+        if (selectedIds.isEmpty()) return;
+        selectedIds.clear();
+        notifyDataSetChanged();
+        notifySelectionChanged();
+    }
+
+    private void toggleSelection(Deviation deviation, int position) {
+        if (syncStates.containsKey(deviation.getId())) return;
+        if (!selectedIds.remove(deviation.getId())) {
+            selectedIds.add(deviation.getId());
+        }
+        notifyItemChanged(position);
+        notifySelectionChanged();
+    }
+
+    private void notifySelectionChanged() {
+        if (selectionListener != null) {
+            selectionListener.onSelectionChanged(selectedIds.size());
+        }
+    }
+
+    public void highlight(String deviationId) {
+        highlightedIds.add(deviationId);
+        handler.postDelayed(() -> {
+            highlightedIds.remove(deviationId);
+            int position = indexOf(deviationId);
+            if (position >= 0) {
+                notifyItemChanged(position);
+            }
+        }, HIGHLIGHT_DURATION_MS);
+    }
+
+    public void setSyncStates(Map<String, String> states) {
+        Set<String> changed = new HashSet<>(syncStates.keySet());
+        changed.addAll(states.keySet());
+        Map<String, String> previous = syncStates;
+        syncStates = new HashMap<>(states);
+        for (String deviationId : changed) {
+            String before = previous.get(deviationId);
+            String after = syncStates.get(deviationId);
+            if (before == null ? after == null : before.equals(after)) continue;
+            int position = indexOf(deviationId);
+            if (position >= 0) {
+                notifyItemChanged(position);
+            }
+        }
+    }
+
+    private int indexOf(String deviationId) {
+        for (int i = 0; i < deviations.size(); i++) {
+            if (deviationId.equals(deviations.get(i).getId())) return i;
+        }
+        return -1;
+    }
+
+    // The list passed in must already contain the new items at its end
+    public void notifyAppended(List<Deviation> newDeviations, int count) {
+        this.deviations = newDeviations;
+        notifyItemRangeInserted(newDeviations.size() - count, count);
+    }
+
     class DeviationViewHolder extends RecyclerView.ViewHolder {
         private ImageView statusIcon;
         private TextView title;
@@ -53,6 +176,7 @@ public class DeviationsAdapter extends RecyclerView.Adapter<DeviationsAdapter.De
         private TextView status;
         private TextView category;
         private TextView severity;
+        private TextView commentCount;
 
         public DeviationViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -62,24 +186,60 @@ public class DeviationsAdapter extends RecyclerView.Adapter<DeviationsAdapter.De
             status = itemView.findViewById(R.id.deviation_status);
             category = itemView.findViewById(R.id.deviation_category);
             severity = itemView.findViewById(R.id.deviation_severity);
+            commentCount = itemView.findViewById(R.id.deviation_comment_count);
 
             itemView.setOnClickListener(v -> {
                 int position = getAdapterPosition();
-                if (position != RecyclerView.NO_POSITION && listener != null) {
+                if (position == RecyclerView.NO_POSITION) return;
+                if (isSelecting()) {
+                    toggleSelection(deviations.get(position), position);
+                } else if (listener != null) {
                     listener.onDeviationClick(deviations.get(position));
                 }
             });
+
+            itemView.setOnLongClickListener(v -> {
+                int position = getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION || selectionListener == null) return false;
+                toggleSelection(deviations.get(position), position);
+                return true;
+            });
         }
 
         public void bind(Deviation deviation) {
             title.setText(deviation.getTitle());
             description.setText(deviation.getDescription());
-            status.setText(deviation.getStatusDisplayName());
-            category.setText(deviation.getCategoryDisplayName());
-            severity.setText(deviation.getSeverityDisplayName());
+            status.setText(deviation.getStatus() != null ? deviation.getStatus().getDisplayName() : "");
+            category.setText(deviation.getCategory() != null ? deviation.getCategory().getDisplayName() : "");
+            severity.setText(deviation.getSeverity() != null ? deviation.getSeverity().getDisplayName() : "");
+            commentCount.setText(String.valueOf(deviation.getCommentCount()));
+            commentCount.setVisibility(deviation.getCommentCount() > 0 ? View.VISIBLE : View.GONE);
+            int background = R.color.white;
+            if (selectedIds.contains(deviation.getId())) {
+                background = R.color.selected;
+            } else if (highlightedIds.contains(deviation.getId())) {
+                background = R.color.highlight_new;
+            }
+            ((CardView) itemView).setCardBackgroundColor(ContextCompat.getColor(itemView.getContext(), background));
+
+            // Reports still in the outbox show their sync progress instead of a status
+            String syncState = syncStates.get(deviation.getId());
+            if (syncState != null) {
+                if (DeviationOutbox.STATE_SYNCING.equals(syncState)) {
+                    status.setText("Sender...");
+                } else if (DeviationOutbox.STATE_FAILED.equals(syncState)) {
+                    status.setText("Ikke sendt");
+                } else {
+                    status.setText("Venter på nett");
+                }
+                statusIcon.setImageResource(R.drawable.ic_clock);
+                statusIcon.setColorFilter(itemView.getContext().getResources().getColor(R.color.gray));
+                status.setBackgroundResource(R.drawable.status_reported_background);
+                return;
+            }
 
             // Set status icon and color
-            if ("reported".equals(deviation.getStatus())) {
+            if (deviation.getStatus() == Deviation.DeviationStatus.REPORTED) {
                 statusIcon.setImageResource(R.drawable.ic_warning);
                 statusIcon.setColorFilter(itemView.getContext().getResources().getColor(R.color.orange));
                 status.setBackgroundResource(R.drawable.status_reported_background);
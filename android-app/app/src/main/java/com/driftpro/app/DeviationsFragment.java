@@ -1,14 +1,26 @@
 package com.driftpro.app;
 
+import android.Manifest;
 import android.content.Intent;
+import android.location.Location;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -16,12 +28,27 @@ import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class DeviationsFragment extends Fragment {
+    private static final String TAG = "DeviationsFragment";
+    // Start fetching the next page while this many loaded rows are still below the viewport
+    private static final int PREFETCH_THRESHOLD = 10;
+    // Pages fetched on their own while a search has no matches, so a miss can't read the whole history
+    private static final int MAX_SEARCH_PAGES = 8;
+    private static final double NEAR_ME_RADIUS_M = 500;
+    private static final int MENU_STATUS = 1;
+    private static final int MENU_ASSIGN = 2;
+    private static final int MENU_TAG = 3;
+    private static final int MENU_SELECT_ALL = 4;
     private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private RecyclerView deviationsRecyclerView;
@@ -29,11 +56,31 @@ public class DeviationsFragment extends Fragment {
     private List<Deviation> deviations = new ArrayList<>();
     private EditText searchInput;
     private ChipGroup filterChipGroup;
+    private ChipGroup facetChipGroup;
+    // In-memory filters on top of the server query; rebuilt lazily after the list changes
+    private DeviationFilterIndex filterIndex;
+    private final Map<String, Set<String>> selections = new HashMap<>();
     private TextView emptyStateText;
     private View emptyStateView;
     private View loadingView;
-    private String selectedCategory = null;
-    private String selectedSeverity = null;
+    private DeviationPager pager;
+    // Set while the "Nær meg" chip is selected; replaces the pager as the source of pages
+    private DeviationLocationSearch nearMe;
+    private Chip nearMeChip;
+    // Set while the "Arkiv" chip is selected; the pager then reads archived deviations
+    private Chip archiveChip;
+    private ActionMode actionMode;
+    private final ActivityResultLauncher<String> locationPermission =
+            registerForActivityResult(new ActivityResultContracts.RequestPermission(), granted -> startNearMe());
+    private DeviationWindowListener windowListener;
+    private DeviationOutbox outbox;
+    private final DeviationOutbox.Listener outboxListener = this::mergeOutbox;
+    private LinearLayoutManager layoutManager;
+    // Rows kept live above and below the viewport
+    private static final int WINDOW_MARGIN = 5;
+    private Deviation.DeviationCategory selectedCategory = null;
+    private Deviation.DeviationSeverity selectedSeverity = null;
+    private int searchPages;
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -42,25 +89,63 @@ public class DeviationsFragment extends Fragment {
         // Initialize Firebase
         db = FirebaseFirestore.getInstance();
         mAuth = FirebaseAuth.getInstance();
+        pager = new DeviationPager(db, "company1"); // Replace with actual company ID
+        outbox = DeviationOutbox.getInstance(requireContext());
+        outbox.addListener(outboxListener);
+        windowListener = new DeviationWindowListener(new DeviationWindowListener.ChangeHandler() {
+            @Override
+            public void onDeviationAdded(Deviation deviation, boolean isNew) {
+                applyAdded(deviation, isNew);
+            }
+
+            @Override
+            public void onDeviationModified(Deviation deviation) {
+                applyModified(deviation);
+            }
+
+            @Override
+            public void onDeviationRemoved(String deviationId) {
+                applyRemoved(deviationId);
+            }
+        });
         
         // Initialize views
         deviationsRecyclerView = view.findViewById(R.id.deviations_recycler_view);
         searchInput = view.findViewById(R.id.search_input);
         filterChipGroup = view.findViewById(R.id.filter_chip_group);
+        facetChipGroup = view.findViewById(R.id.facet_chip_group);
         emptyStateView = view.findViewById(R.id.empty_state);
         emptyStateText = view.findViewById(R.id.empty_state_text);
         loadingView = view.findViewById(R.id.loading_view);
         FloatingActionButton fab = view.findViewById(R.id.fab_add_deviation);
         
         // Setup RecyclerView
-        deviationsRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        layoutManager = new LinearLayoutManager(getContext());
+        deviationsRecyclerView.setLayoutManager(layoutManager);
         deviationsAdapter = new DeviationsAdapter(deviations, deviation -> {
-            // TODO: Navigate to deviation detail
-            // Intent intent = new Intent(getActivity(), DeviationDetailActivity.class);
-            // intent.putExtra("deviationId", deviation.getId());
-            // startActivity(intent);
+            Intent intent = new Intent(getActivity(), DeviationDetailActivity.class);
+            intent.putExtra(DeviationDetailActivity.EXTRA_DEVIATION_ID, deviation.getId());
+            startActivity(intent);
         });
+        deviationsAdapter.setOnSelectionChangedListener(this::onSelectionChanged);
         deviationsRecyclerView.setAdapter(deviationsAdapter);
+        deviationsRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0) return;
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= deviationsAdapter.getItemCount() - PREFETCH_THRESHOLD) {
+                    loadNextPage();
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    updateLiveWindow();
+                }
+            }
+        });
         
         // Setup search
         searchInput.addTextChangedListener(new TextWatcher() {
@@ -69,6 +154,7 @@ public class DeviationsFragment extends Fragment {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
+                searchPages = 0;
                 filterDeviations();
             }
 
@@ -78,9 +164,11 @@ public class DeviationsFragment extends Fragment {
         
         // Setup filters
         setupFilterChips();
+        setupFacetChips();
         
         // Setup FAB
         fab.setOnClickListener(v -> openNewDeviation());
+        view.findViewById(R.id.btn_add_deviation).setOnClickListener(v -> openNewDeviation());
         
         // Load deviations
         loadDeviations();
@@ -100,82 +188,500 @@ public class DeviationsFragment extends Fragment {
             if (isChecked) {
                 selectedCategory = null;
                 selectedSeverity = null;
-                filterDeviations();
+                loadDeviations();
             }
         });
         filterChipGroup.addView(allChip);
         
-        // Add category chips
-        String[] categories = {"Sikkerhet", "Kvalitet", "Miljø", "Utstyr", "Prosess", "Annet"};
-        for (String category : categories) {
+        // Reads only the geohash ranges around the current position
+        nearMeChip = new Chip(getContext());
+        nearMeChip.setText("Nær meg (500 m)");
+        nearMeChip.setCheckable(true);
+        nearMeChip.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                selectedCategory = null;
+                selectedSeverity = null;
+                if (DeviceLocation.hasPermission(requireContext())) {
+                    startNearMe();
+                } else {
+                    locationPermission.launch(Manifest.permission.ACCESS_FINE_LOCATION);
+                }
+            }
+        });
+        filterChipGroup.addView(nearMeChip);
+        
+        // Closed deviations older than the company's archive limit are only found here
+        archiveChip = new Chip(getContext());
+        archiveChip.setText("Arkiv");
+        archiveChip.setCheckable(true);
+        archiveChip.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                selectedCategory = null;
+                selectedSeverity = null;
+                loadDeviations();
+            }
+        });
+        filterChipGroup.addView(archiveChip);
+        
+        // Category and severity chips carry the stored enum values; filtering happens on the server
+        for (Deviation.DeviationCategory category : Deviation.DeviationCategory.values()) {
             Chip chip = new Chip(getContext());
-            chip.setText(category);
+            chip.setText(category.getDisplayName());
             chip.setCheckable(true);
             chip.setOnCheckedChangeListener((buttonView, isChecked) -> {
                 if (isChecked) {
                     selectedCategory = category;
                     selectedSeverity = null;
-                    filterDeviations();
+                    loadDeviations();
                 }
             });
             filterChipGroup.addView(chip);
         }
+        
+        for (Deviation.DeviationSeverity severity : Deviation.DeviationSeverity.values()) {
+            Chip chip = new Chip(getContext());
+            chip.setText(severity.getDisplayName());
+            chip.setCheckable(true);
+            chip.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                if (isChecked) {
+                    selectedCategory = null;
+                    selectedSeverity = severity;
+                    loadDeviations();
+                }
+            });
+            filterChipGroup.addView(chip);
+        }
+    }
+
+    private void setupFacetChips() {
+        if (getContext() == null || facetChipGroup == null) return;
+        
+        for (Deviation.DeviationStatus status : Deviation.DeviationStatus.values()) {
+            addFacetChip(status.getDisplayName(), DeviationFilterIndex.FACET_STATUS, status.getValue());
+        }
+        FirebaseUser user = mAuth.getCurrentUser();
+        if (user != null) {
+            addFacetChip("Tildelt meg", DeviationFilterIndex.FACET_ASSIGNEE, user.getUid());
+            addFacetChip("Meldt av meg", DeviationFilterIndex.FACET_REPORTER, user.getUid());
+        }
+        addFacetChip("Siste 7 dager", DeviationFilterIndex.FACET_CREATED, DeviationFilterIndex.CREATED_LAST_7_DAYS);
+        addFacetChip("Siste 30 dager", DeviationFilterIndex.FACET_CREATED, DeviationFilterIndex.CREATED_LAST_30_DAYS);
+        addFacetChip("Siste 90 dager", DeviationFilterIndex.FACET_CREATED, DeviationFilterIndex.CREATED_LAST_90_DAYS);
+    }
+
+    private void addFacetChip(String label, String facet, String value) {
+        Chip chip = new Chip(getContext());
+        chip.setText(label);
+        chip.setCheckable(true);
+        chip.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            Set<String> current = selections.get(facet);
+            if (current == null) {
+                current = new HashSet<>();
+                selections.put(facet, current);
+            }
+            if (isChecked) {
+                current.add(value);
+            } else {
+                current.remove(value);
+            }
+            searchPages = 0;
+            if (DeviationFilterIndex.FACET_STATUS.equals(facet) && nearMe == null
+                    && selectedStatus() != pager.getStatus()) {
+                loadDeviations();
+            } else {
+                filterDeviations();
+            }
+        });
+        facetChipGroup.addView(chip);
+    }
+
+    // A single selected status is also filtered on the server, so pages hold only matching
+    // rows; several statuses are filtered locally
+    private Deviation.DeviationStatus selectedStatus() {
+        Set<String> statuses = selections.get(DeviationFilterIndex.FACET_STATUS);
+        if (statuses == null || statuses.size() != 1) return null;
+        return Deviation.DeviationStatus.fromString(statuses.iterator().next());
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (actionMode != null) {
+            actionMode.finish();
+        }
+        windowListener.detach();
+        outbox.removeListener(outboxListener);
+    }
+
+    private void onSelectionChanged(int count) {
+        if (count > 0 && pager.isArchived()) {
+            deviationsAdapter.clearSelection();
+            Toast.makeText(getContext(), "Arkiverte avvik kan ikke endres", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (count == 0) {
+            if (actionMode != null) {
+                actionMode.finish();
+            }
+            return;
+        }
+        if (actionMode == null) {
+            actionMode = ((AppCompatActivity) requireActivity()).startSupportActionMode(bulkActions);
+        }
+        if (actionMode != null) {
+            actionMode.setTitle(count + " valgt");
+        }
+    }
+
+    private final ActionMode.Callback bulkActions = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            menu.add(Menu.NONE, MENU_STATUS, Menu.NONE, "Endre status");
+            menu.add(Menu.NONE, MENU_ASSIGN, Menu.NONE, "Tildel");
+            menu.add(Menu.NONE, MENU_TAG, Menu.NONE, "Legg til stikkord");
+            menu.add(Menu.NONE, MENU_SELECT_ALL, Menu.NONE, "Velg alle");
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+                case MENU_STATUS:
+                    showBulkStatusDialog();
+                    return true;
+                case MENU_ASSIGN:
+                    showBulkAssignDialog();
+                    return true;
+                case MENU_TAG:
+                    showBulkTagDialog();
+                    return true;
+                case MENU_SELECT_ALL:
+                    deviationsAdapter.selectAll();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            actionMode = null;
+            deviationsAdapter.clearSelection();
+        }
+    };
+
+    private void showBulkStatusDialog() {
+        Deviation.DeviationStatus[] statuses = Deviation.DeviationStatus.values();
+        String[] options = new String[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            options[i] = statuses[i].getDisplayName();
+        }
+        new AlertDialog.Builder(requireContext())
+            .setTitle("Endre status")
+            .setItems(options, (dialog, which) -> applyBulk(DeviationBulkUpdater.Change.status(statuses[which])))
+            .show();
+    }
+
+    private void showBulkAssignDialog() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        String[] options = { "Tildel meg", "Fjern tildeling" };
+        new AlertDialog.Builder(requireContext())
+            .setTitle("Tildel")
+            .setItems(options, (dialog, which) -> {
+                if (which == 0 && user == null) return;
+                applyBulk(DeviationBulkUpdater.Change.assign(which == 0 ? user.getUid() : null));
+            })
+            .show();
+    }
+
+    private void showBulkTagDialog() {
+        EditText input = new EditText(requireContext());
+        input.setHint("Stikkord, skilt med komma");
+        new AlertDialog.Builder(requireContext())
+            .setTitle("Legg til stikkord")
+            .setView(input)
+            .setPositiveButton("Legg til", (dialog, which) -> {
+                List<String> tags = new ArrayList<>();
+                for (String tag : input.getText().toString().split(",")) {
+                    if (!tag.trim().isEmpty()) {
+                        tags.add(tag.trim());
+                    }
+                }
+                if (!tags.isEmpty()) {
+                    applyBulk(DeviationBulkUpdater.Change.addTags(tags));
+                }
+            })
+            .setNegativeButton("Avbryt", null)
+            .show();
+    }
+
+    // The list shows the change at once; chunks that fail are put back and reported
+    private void applyBulk(DeviationBulkUpdater.Change change) {
+        List<Deviation> selected = deviationsAdapter.getSelected();
+        if (actionMode != null) {
+            actionMode.finish();
+        }
+        if (selected.isEmpty()) return;
+
+        new DeviationBulkUpdater(db).apply(selected, change, new DeviationBulkUpdater.Callback() {
+            @Override
+            public void onChunkFailed(List<Deviation> rolledBack, Exception e) {
+                Log.e(TAG, "Bulk update failed for " + rolledBack.size() + " deviations", e);
+                refreshAfterBulk();
+            }
+
+            @Override
+            public void onFinished(int updated, int failed) {
+                if (!isAdded()) return;
+                String message = failed == 0
+                        ? updated + " avvik oppdatert"
+                        : failed + " av " + (updated + failed) + " avvik kunne ikke oppdateres";
+                Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+            }
+        });
+        refreshAfterBulk();
+    }
+
+    private void refreshAfterBulk() {
+        if (!isAdded()) return;
+        filterIndex = null;
+        if (isShowingAll()) {
+            deviationsAdapter.notifyDataSetChanged();
+        } else {
+            filterDeviations();
+        }
     }
 
+    // Starts over from the first page with the current chip selection
     private void loadDeviations() {
         showLoading(true);
+        windowListener.detach();
+        deviations.clear();
+        filterIndex = null;
+        if (nearMe != null && !nearMeChip.isChecked()) {
+            nearMe.cancel();
+            nearMe = null;
+        }
+        pager.setArchived(archiveChip != null && archiveChip.isChecked());
+        pager.setFilters(selectedCategory, selectedSeverity, selectedStatus());
+        loadNextPage();
+    }
+
+    private void startNearMe() {
+        if (!isAdded() || !nearMeChip.isChecked()) return;
+        Location location = DeviceLocation.lastKnown(requireContext());
+        if (location == null) {
+            Toast.makeText(getContext(), "Fant ingen posisjon. Slå på posisjon og prøv igjen.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (nearMe != null) {
+            nearMe.cancel();
+        }
+        nearMe = new DeviationLocationSearch(db, "company1", // Replace with actual company ID
+                location.getLatitude(), location.getLongitude(), NEAR_ME_RADIUS_M);
+        loadDeviations();
+    }
+
+    private void loadNextPage() {
+        if (nearMe != null) {
+            if (nearMe.isLoading() || !nearMe.hasMore()) return;
+            nearMe.loadNextPage(pageCallback());
+            return;
+        }
+        if (pager.isLoading() || !pager.hasMore()) return;
         
-        db.collection("deviations")
-            .whereEqualTo("companyId", "company1") // Replace with actual company ID
-            .get()
-            .addOnSuccessListener(queryDocumentSnapshots -> {
-                deviations.clear();
-                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Deviation deviation = Deviation.fromMap(document.getData());
-                    deviation.setId(document.getId());
-                    deviations.add(deviation);
+        pager.loadNextPage(pageCallback());
+    }
+
+    private DeviationPager.PageCallback pageCallback() {
+        return new DeviationPager.PageCallback() {
+            @Override
+            public void onPage(List<Deviation> page, boolean firstPage) {
+                deviations.addAll(page);
+                filterIndex = null;
+                if (firstPage) {
+                    showLoading(false);
                 }
-                
-                showLoading(false);
-                filterDeviations();
-            })
-            .addOnFailureListener(e -> {
+                if (!firstPage && !isFiltering()) {
+                    deviationsAdapter.notifyAppended(deviations, page.size());
+                } else {
+                    filterDeviations();
+                }
+                if (firstPage) {
+                    mergeOutbox(outbox.getEntries());
+                    deviationsRecyclerView.post(() -> updateLiveWindow());
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
                 showLoading(false);
-                showEmptyState("Feil ved lasting av avvik");
-            });
+                if (deviations.isEmpty()) {
+                    showEmptyState("Feil ved lasting av avvik");
+                }
+            }
+        };
     }
 
+    // Chips in the first row are applied by the query; text and the second row filter the
+    // pages loaded so far through the bitmap index
     private void filterDeviations() {
         if (deviationsAdapter == null) return;
         
-        List<Deviation> filtered = new ArrayList<>();
-        String searchText = searchInput.getText().toString().toLowerCase();
-        
-        for (Deviation deviation : deviations) {
-            boolean matchesSearch = searchText.isEmpty() ||
-                    deviation.getTitle().toLowerCase().contains(searchText) ||
-                    deviation.getDescription().toLowerCase().contains(searchText);
-            
-            boolean matchesCategory = selectedCategory == null ||
-                    deviation.getCategory().equals(selectedCategory);
-            
-            boolean matchesSeverity = selectedSeverity == null ||
-                    deviation.getSeverity().equals(selectedSeverity);
-            
-            if (matchesSearch && matchesCategory && matchesSeverity) {
-                filtered.add(deviation);
+        String searchText = searchInput.getText().toString();
+        List<Deviation> filtered;
+        if (!isFiltering()) {
+            filtered = deviations;
+        } else {
+            if (filterIndex == null) {
+                filterIndex = new DeviationFilterIndex(deviations);
             }
+            filtered = filterIndex.query(selections, searchText).deviations;
         }
         
         deviationsAdapter.updateDeviations(filtered);
         
         if (filtered.isEmpty()) {
-            showEmptyState(searchText.isEmpty() ? "Ingen avvik funnet" : "Ingen avvik matcher søket");
+            boolean hasMore = nearMe != null ? nearMe.hasMore() : pager.hasMore();
+            if (isFiltering() && hasMore && searchPages < MAX_SEARCH_PAGES) {
+                // Nothing matched in the loaded pages yet; keep looking further back
+                searchPages++;
+                loadNextPage();
+            }
+            showEmptyState(isFiltering() ? "Ingen avvik matcher søket" : "Ingen avvik funnet");
         } else {
             hideEmptyState();
         }
     }
 
+    private boolean isFiltering() {
+        if (!searchInput.getText().toString().trim().isEmpty()) return true;
+        for (Set<String> values : selections.values()) {
+            if (!values.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // Shows reports still waiting in the outbox at the top, with their sync state
+    private void mergeOutbox(List<DeviationOutbox.Entry> entries) {
+        Map<String, String> states = new HashMap<>();
+        for (DeviationOutbox.Entry entry : entries) {
+            states.put(entry.getId(), entry.state);
+            Deviation deviation = entry.deviation;
+            // Near-me results are ordered by distance and come from the server only
+            boolean matchesQuery = nearMe == null && !pager.isArchived()
+                    && (selectedCategory == null || selectedCategory == deviation.getCategory())
+                    && (selectedSeverity == null || selectedSeverity == deviation.getSeverity())
+                    && (pager.getStatus() == null || pager.getStatus() == deviation.getStatus());
+            if (matchesQuery && indexOf(entry.getId()) < 0) {
+                applyAdded(deviation, false);
+            }
+        }
+        deviationsAdapter.setSyncStates(states);
+    }
+
+    // Re-targets the snapshot listener at the rows around the viewport
+    private void updateLiveWindow() {
+        // The window is a createdAt range, which means nothing for a list ordered by distance;
+        // archived deviations no longer change
+        if (layoutManager == null || deviationsAdapter.getItemCount() == 0 || nearMe != null
+                || pager.isArchived()) return;
+        
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            first = 0;
+            last = Math.min(DeviationPager.PAGE_SIZE, deviationsAdapter.getItemCount()) - 1;
+        }
+        int top = first - WINDOW_MARGIN;
+        int bottom = Math.min(last + WINDOW_MARGIN, deviationsAdapter.getItemCount() - 1);
+        windowListener.attach(pager.baseQuery(),
+                top <= 0 ? null : deviationsAdapter.getItem(top).getCreatedAt(),
+                deviationsAdapter.getItem(bottom).getCreatedAt());
+    }
+
+    private void applyAdded(Deviation deviation, boolean isNew) {
+        int existing = indexOf(deviation.getId());
+        if (existing >= 0) {
+            // A window's first snapshot repeats rows already on screen; only rebind real changes
+            Date before = deviations.get(existing).getUpdatedAt();
+            if (before == null || !before.equals(deviation.getUpdatedAt())) {
+                applyModified(deviation);
+            }
+            return;
+        }
+        
+        // Newest first; anything past the loaded pages will come with a later page instead
+        int position = 0;
+        long createdAt = time(deviation);
+        while (position < deviations.size() && time(deviations.get(position)) >= createdAt) {
+            position++;
+        }
+        if (position == deviations.size() && pager.hasMore()) return;
+        
+        deviations.add(position, deviation);
+        filterIndex = null;
+        if (isNew) {
+            deviationsAdapter.highlight(deviation.getId());
+        }
+        if (isShowingAll()) {
+            deviationsAdapter.notifyItemInserted(position);
+            hideEmptyState();
+        } else {
+            filterDeviations();
+        }
+    }
+
+    private void applyModified(Deviation deviation) {
+        int position = indexOf(deviation.getId());
+        if (position < 0) return;
+        
+        deviations.set(position, deviation);
+        filterIndex = null;
+        if (isShowingAll()) {
+            deviationsAdapter.notifyItemChanged(position);
+        } else {
+            filterDeviations();
+        }
+    }
+
+    private void applyRemoved(String deviationId) {
+        int position = indexOf(deviationId);
+        if (position < 0) return;
+        
+        deviations.remove(position);
+        filterIndex = null;
+        if (isShowingAll()) {
+            deviationsAdapter.notifyItemRemoved(position);
+            if (deviations.isEmpty()) {
+                showEmptyState("Ingen avvik funnet");
+            }
+        } else {
+            filterDeviations();
+        }
+    }
+
+    // True when the adapter shows the loaded list itself, so positions can be notified directly
+    private boolean isShowingAll() {
+        return deviationsAdapter.getDeviations() == deviations;
+    }
+
+    private int indexOf(String deviationId) {
+        for (int i = 0; i < deviations.size(); i++) {
+            if (deviationId.equals(deviations.get(i).getId())) return i;
+        }
+        return -1;
+    }
+
+    private static long time(Deviation deviation) {
+        return deviation.getCreatedAt() != null ? deviation.getCreatedAt().getTime() : 0;
+    }
+
     private void showLoading(boolean show) {
         if (loadingView == null || deviationsRecyclerView == null || emptyStateView == null) return;
         
@@ -202,8 +708,8 @@ public class DeviationsFragment extends Fragment {
     }
 
     private void openNewDeviation() {
-        // TODO: Open new deviation form
-        // Intent intent = new Intent(getActivity(), NewDeviationActivity.class);
-        // startActivity(intent);
+        Intent intent = new Intent(getActivity(), NewDeviationActivity.class);
+        intent.putExtra(NewDeviationActivity.EXTRA_COMPANY_ID, "company1"); // Replace with actual company ID
+        startActivity(intent);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,43 @@
+package com.driftpro.app;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationManager;
+import androidx.core.content.ContextCompat;
+
+// Best recent fix the system already has. Deviations are reported standing at the spot, so a
+// position from the last few minutes is good enough and no location updates are started.
+public class DeviceLocation {
+    private static final long MAX_AGE_MS = 10 * 60 * 1000;
+
+    public static boolean hasPermission(Context context) {
+        return ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED
+                || ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    // Null without permission or without a fix newer than MAX_AGE_MS
+    public static Location lastKnown(Context context) {
+        if (!hasPermission(context)) return null;
+        LocationManager manager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        if (manager == null) return null;
+        Location best = null;
+        try {
+            for (String provider : manager.getProviders(true)) {
+                Location location = manager.getLastKnownLocation(provider);
+                if (location == null) continue;
+                if (best == null || location.getTime() > best.getTime()
+                        || (location.getTime() == best.getTime() && location.getAccuracy() < best.getAccuracy())) {
+                    best = location;
+                }
+            }
+        } catch (SecurityException e) {
+            return null;
+        }
+        if (best == null || System.currentTimeMillis() - best.getTime() > MAX_AGE_MS) return null;
+        return best;
+    }
+}
@@ -2,6 +2,7 @@ package com.driftpro.app;
 
 import com.google.firebase.Timestamp;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -11,10 +12,12 @@ public class Document {
     private String description;
     private DocumentCategory category;
     private String fileURL;
+    private String thumbnailURL;
     private String fileName;
     private long fileSize;
     private String fileType;
     private String version;
+    private String contentHash;
     private String uploadedBy;
     private String uploadedByName;
     private String companyId;
@@ -25,6 +28,7 @@ public class Document {
     private Date updatedAt;
     private int downloadCount;
     private boolean isActive;
+    private boolean pinnedOffline;
 
     public enum DocumentCategory {
         PROCEDURES("procedures", "Rutiner", "doc.text.fill"),
@@ -93,9 +97,11 @@ public class Document {
         }
         
         document.setFileURL((String) map.get("fileURL"));
+        document.setThumbnailURL((String) map.get("thumbnailURL"));
         document.setFileName((String) map.get("fileName"));
         document.setFileType((String) map.get("fileType"));
         document.setVersion((String) map.get("version"));
+        document.setContentHash((String) map.get("contentHash"));
         document.setUploadedBy((String) map.get("uploadedBy"));
         document.setUploadedByName((String) map.get("uploadedByName"));
         document.setCompanyId((String) map.get("companyId"));
@@ -131,6 +137,11 @@ public class Document {
             document.setTags((List<String>) map.get("tags"));
         }
         
+        // Set by admins for documents every device should keep offline
+        if (map.get("pinnedOffline") != null) {
+            document.setPinnedOffline((Boolean) map.get("pinnedOffline"));
+        }
+        
         return document;
     }
 
@@ -150,6 +161,9 @@ public class Document {
     public String getFileURL() { return fileURL; }
     public void setFileURL(String fileURL) { this.fileURL = fileURL; }
     
+    public String getThumbnailURL() { return thumbnailURL; }
+    public void setThumbnailURL(String thumbnailURL) { this.thumbnailURL = thumbnailURL; }
+    
     public String getFileName() { return fileName; }
     public void setFileName(String fileName) { this.fileName = fileName; }
     
@@ -162,6 +176,9 @@ public class Document {
     public String getVersion() { return version; }
     public void setVersion(String version) { this.version = version; }
     
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+    
     public String getUploadedBy() { return uploadedBy; }
     public void setUploadedBy(String uploadedBy) { this.uploadedBy = uploadedBy; }
     
@@ -191,6 +208,35 @@ public class Document {
     
     public boolean isActive() { return isActive; }
     public void setActive(boolean active) { isActive = active; }
+    
+    public boolean isPinnedOffline() { return pinnedOffline; }
+    public void setPinnedOffline(boolean pinnedOffline) { this.pinnedOffline = pinnedOffline; }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("title", title);
+        map.put("description", description);
+        if (category != null) map.put("category", category.getValue());
+        map.put("fileURL", fileURL);
+        map.put("thumbnailURL", thumbnailURL);
+        map.put("fileName", fileName);
+        map.put("fileSize", fileSize);
+        map.put("fileType", fileType);
+        map.put("version", version);
+        map.put("contentHash", contentHash);
+        map.put("uploadedBy", uploadedBy);
+        map.put("uploadedByName", uploadedByName);
+        map.put("companyId", companyId);
+        map.put("department", department);
+        map.put("tags", tags);
+        map.put("isPublic", isPublic);
+        if (createdAt != null) map.put("createdAt", new Timestamp(createdAt));
+        if (updatedAt != null) map.put("updatedAt", new Timestamp(updatedAt));
+        map.put("downloadCount", downloadCount);
+        map.put("isActive", isActive);
+        map.put("pinnedOffline", pinnedOffline);
+        return map;
+    }
 
     public String getFileSizeFormatted() {
         if (fileSize < 1024) {
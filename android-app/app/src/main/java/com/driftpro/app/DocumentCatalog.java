@@ -0,0 +1,348 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Local copy of a company's document catalog. Only documents with updatedAt past the
+// stored watermark are fetched on sync; documents whose isActive became false are dropped.
+public class DocumentCatalog {
+    private static final int PAGE_SIZE = 200;
+    private static final Map<String, DocumentCatalog> instances = new HashMap<>();
+
+    private final String companyId;
+    private final File file;
+    private final Map<String, Document> documents = new LinkedHashMap<>();
+    private final List<CatalogListener> listeners = new ArrayList<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long watermark;
+    private boolean loaded;
+    // Callers waiting for the running sync; null when no sync is running. Touched on the
+    // executor thread only.
+    private List<SyncCallback> syncCallbacks;
+
+    public interface LoadCallback {
+        void onLoaded(List<Document> documents);
+    }
+
+    public interface SyncCallback {
+        void onSynced(List<Document> documents, int changedCount);
+        void onSyncFailed(Exception e);
+    }
+
+    // Notified on the main thread whenever the catalog content changes
+    public interface CatalogListener {
+        void onCatalogChanged(List<Document> documents);
+    }
+
+    private DocumentCatalog(Context context, String companyId) {
+        this.companyId = companyId;
+        this.file = new File(context.getFilesDir(), "document_catalog_" + companyId + ".json");
+    }
+
+    public static synchronized DocumentCatalog getInstance(Context context, String companyId) {
+        DocumentCatalog catalog = instances.get(companyId);
+        if (catalog == null) {
+            catalog = new DocumentCatalog(context.getApplicationContext(), companyId);
+            instances.put(companyId, catalog);
+        }
+        return catalog;
+    }
+
+    public String getCompanyId() {
+        return companyId;
+    }
+
+    public void addListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CatalogListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Reads the local copy from disk (once) and returns it on the main thread
+    public void load(LoadCallback callback) {
+        executor.execute(() -> {
+            if (!loaded) {
+                readFromDisk();
+                loaded = true;
+            }
+            List<Document> snapshot = snapshot();
+            mainHandler.post(() -> callback.onLoaded(snapshot));
+        });
+    }
+
+    // Fetches documents changed since the watermark, page by page, and applies them locally.
+    // A call made while a sync is running joins it and is answered when it finishes.
+    public void sync(FirebaseFirestore db, SyncCallback callback) {
+        executor.execute(() -> {
+            if (!loaded) {
+                readFromDisk();
+                loaded = true;
+            }
+            boolean running = syncCallbacks != null;
+            if (!running) {
+                syncCallbacks = new ArrayList<>();
+            }
+            if (callback != null) {
+                syncCallbacks.add(callback);
+            }
+            if (running) return;
+            fetchPage(db, new Timestamp(new Date(watermark)), null, 0);
+        });
+    }
+
+    // Applies a locally known change (e.g. an upload from this device) without a round trip
+    public void applyLocal(Document document) {
+        executor.execute(() -> {
+            if (apply(document.getId(), document)) {
+                writeToDisk();
+                notifyChanged();
+            }
+        });
+    }
+
+    private void fetchPage(FirebaseFirestore db, Timestamp since, DocumentSnapshot after, int changedCount) {
+        Query query = db.collection("documents")
+            .whereEqualTo("companyId", companyId)
+            .whereGreaterThan("updatedAt", since)
+            .orderBy("updatedAt", Query.Direction.ASCENDING)
+            .limit(PAGE_SIZE);
+        if (after != null) {
+            query = query.startAfter(after);
+        }
+
+        query.get()
+            .addOnSuccessListener(executor, queryDocumentSnapshots -> {
+                int changed = changedCount;
+                DocumentSnapshot last = null;
+                for (QueryDocumentSnapshot snapshot : queryDocumentSnapshots) {
+                    Map<String, Object> data = snapshot.getData();
+                    Document document = Document.fromMap(data);
+                    document.setId(snapshot.getId());
+                    // Older documents have no isActive field; only an explicit false is a tombstone
+                    if (Boolean.FALSE.equals(data.get("isActive"))) {
+                        document = null;
+                    }
+                    Timestamp updatedAt = snapshot.getTimestamp("updatedAt");
+                    if (updatedAt != null) {
+                        watermark = Math.max(watermark, updatedAt.toDate().getTime());
+                    }
+                    if (apply(snapshot.getId(), document)) {
+                        changed++;
+                    }
+                    last = snapshot;
+                }
+
+                // Persist after every page so an interrupted sync resumes from here
+                if (!queryDocumentSnapshots.isEmpty()) {
+                    writeToDisk();
+                }
+
+                if (queryDocumentSnapshots.size() == PAGE_SIZE) {
+                    fetchPage(db, since, last, changed);
+                } else {
+                    List<SyncCallback> callbacks = syncCallbacks;
+                    syncCallbacks = null;
+                    List<Document> snapshot = snapshot();
+                    int total = changed;
+                    mainHandler.post(() -> {
+                        if (total > 0) {
+                            for (CatalogListener listener : new ArrayList<>(listeners)) {
+                                listener.onCatalogChanged(snapshot);
+                            }
+                        }
+                        for (SyncCallback callback : callbacks) {
+                            callback.onSynced(snapshot, total);
+                        }
+                    });
+                }
+            })
+            .addOnFailureListener(executor, e -> {
+                List<SyncCallback> callbacks = syncCallbacks;
+                syncCallbacks = null;
+                mainHandler.post(() -> {
+                    for (SyncCallback callback : callbacks) {
+                        callback.onSyncFailed(e);
+                    }
+                });
+            });
+    }
+
+    // Returns true if the local copy changed; a null document removes the entry
+    private boolean apply(String id, Document document) {
+        if (document == null) {
+            return documents.remove(id) != null;
+        }
+        documents.put(id, document);
+        return true;
+    }
+
+    private List<Document> snapshot() {
+        List<Document> list = new ArrayList<>(documents.values());
+        Collections.sort(list, (a, b) -> {
+            long left = a.getUpdatedAt() != null ? a.getUpdatedAt().getTime() : 0;
+            long right = b.getUpdatedAt() != null ? b.getUpdatedAt().getTime() : 0;
+            return Long.compare(right, left);
+        });
+        return list;
+    }
+
+    private void notifyChanged() {
+        List<Document> snapshot = snapshot();
+        mainHandler.post(() -> {
+            for (CatalogListener listener : new ArrayList<>(listeners)) {
+                listener.onCatalogChanged(snapshot);
+            }
+        });
+    }
+
+    private void readFromDisk() {
+        if (!file.exists()) return;
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) break;
+                offset += read;
+            }
+            JSONObject root = new JSONObject(new String(bytes, 0, offset, StandardCharsets.UTF_8));
+            watermark = root.optLong("watermark", 0);
+            JSONArray array = root.optJSONArray("documents");
+            documents.clear();
+            if (array != null) {
+                for (int i = 0; i < array.length(); i++) {
+                    Document document = fromJson(array.getJSONObject(i));
+                    documents.put(document.getId(), document);
+                }
+            }
+        } catch (IOException | JSONException e) {
+            // A corrupt local copy is discarded and rebuilt by the next full sync
+            documents.clear();
+            watermark = 0;
+        }
+    }
+
+    private void writeToDisk() {
+        try {
+            JSONObject root = new JSONObject();
+            root.put("watermark", watermark);
+            JSONArray array = new JSONArray();
+            for (Document document : documents.values()) {
+                array.put(toJson(document));
+            }
+            root.put("documents", array);
+
+            // Write to a temp file first so a crash never leaves a half-written catalog
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(root.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException | JSONException e) {
+            // Keep the in-memory copy; the next sync will try to persist again
+        }
+    }
+
+    private static JSONObject toJson(Document document) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", document.getId());
+        json.put("title", document.getTitle());
+        json.put("description", document.getDescription());
+        if (document.getCategory() != null) {
+            json.put("category", document.getCategory().getValue());
+        }
+        json.put("fileURL", document.getFileURL());
+        json.put("thumbnailURL", document.getThumbnailURL());
+        json.put("fileName", document.getFileName());
+        json.put("fileSize", document.getFileSize());
+        json.put("fileType", document.getFileType());
+        json.put("version", document.getVersion());
+        json.put("contentHash", document.getContentHash());
+        json.put("uploadedBy", document.getUploadedBy());
+        json.put("uploadedByName", document.getUploadedByName());
+        json.put("companyId", document.getCompanyId());
+        json.put("department", document.getDepartment());
+        if (document.getTags() != null) {
+            json.put("tags", new JSONArray(document.getTags()));
+        }
+        json.put("isPublic", document.isPublic());
+        if (document.getCreatedAt() != null) {
+            json.put("createdAt", document.getCreatedAt().getTime());
+        }
+        if (document.getUpdatedAt() != null) {
+            json.put("updatedAt", document.getUpdatedAt().getTime());
+        }
+        json.put("downloadCount", document.getDownloadCount());
+        json.put("isActive", document.isActive());
+        json.put("pinnedOffline", document.isPinnedOffline());
+        return json;
+    }
+
+    private static Document fromJson(JSONObject json) throws JSONException {
+        Document document = new Document();
+        document.setId(json.getString("id"));
+        document.setTitle(json.optString("title", null));
+        document.setDescription(json.optString("description", null));
+        if (json.has("category")) {
+            document.setCategory(Document.DocumentCategory.fromString(json.getString("category")));
+        }
+        document.setFileURL(json.optString("fileURL", null));
+        document.setThumbnailURL(json.optString("thumbnailURL", null));
+        document.setFileName(json.optString("fileName", null));
+        document.setFileSize(json.optLong("fileSize", 0));
+        document.setFileType(json.optString("fileType", null));
+        document.setVersion(json.optString("version", null));
+        document.setContentHash(json.optString("contentHash", null));
+        document.setUploadedBy(json.optString("uploadedBy", null));
+        document.setUploadedByName(json.optString("uploadedByName", null));
+        document.setCompanyId(json.optString("companyId", null));
+        document.setDepartment(json.optString("department", null));
+        JSONArray tags = json.optJSONArray("tags");
+        if (tags != null) {
+            List<String> list = new ArrayList<>();
+            for (int i = 0; i < tags.length(); i++) {
+                list.add(tags.getString(i));
+            }
+            document.setTags(list);
+        }
+        document.setPublic(json.optBoolean("isPublic", true));
+        if (json.has("createdAt")) {
+            document.setCreatedAt(new Date(json.getLong("createdAt")));
+        }
+        if (json.has("updatedAt")) {
+            document.setUpdatedAt(new Date(json.getLong("updatedAt")));
+        }
+        document.setDownloadCount(json.optInt("downloadCount", 0));
+        document.setActive(json.optBoolean("isActive", true));
+        document.setPinnedOffline(json.optBoolean("pinnedOffline", false));
+        return document;
+    }
+}
@@ -0,0 +1,177 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Download and view counters for documents. Events are aggregated per document on the
+// device and flushed periodically as batched increments, each landing on a random shard
+// in documents/{id}/counterShards so popular documents never hot-spot a single doc.
+public class DocumentCounters {
+    public static final String FIELD_DOWNLOADS = "downloads";
+    public static final String FIELD_VIEWS = "views";
+    public static final int NUM_SHARDS = 10;
+    private static final String PREFS_NAME = "document_counters";
+    private static final long FLUSH_DELAY_MS = 60 * 1000;
+    // Two increments per document, well inside the 500 operation batch limit
+    private static final int MAX_DOCUMENTS_PER_BATCH = 200;
+    private static DocumentCounters instance;
+
+    private final SharedPreferences prefs;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    // documentId -> field -> pending increment; touched on the main thread only
+    private final Map<String, Map<String, Long>> pending = new HashMap<>();
+    private final Runnable flushRunnable = this::flush;
+    private boolean flushScheduled;
+    private boolean flushing;
+
+    public interface TotalsCallback {
+        void onTotals(long downloads, long views);
+        void onError(Exception e);
+    }
+
+    private DocumentCounters(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        restorePending();
+    }
+
+    public static synchronized DocumentCounters getInstance(Context context) {
+        if (instance == null) {
+            instance = new DocumentCounters(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public void recordView(String documentId) {
+        record(documentId, FIELD_VIEWS);
+    }
+
+    public void recordDownload(String documentId) {
+        record(documentId, FIELD_DOWNLOADS);
+    }
+
+    private void record(String documentId, String field) {
+        if (documentId == null) return;
+        add(documentId, field, 1);
+        persistPending();
+        if (!flushScheduled) {
+            flushScheduled = true;
+            mainHandler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    // Writes everything recorded so far; called on a timer and when the documents screen pauses
+    public void flush() {
+        mainHandler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        if (flushing || pending.isEmpty()) return;
+
+        Map<String, Map<String, Long>> toWrite = new HashMap<>(pending);
+        pending.clear();
+        persistPending();
+        flushing = true;
+
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        List<String> documentIds = new ArrayList<>(toWrite.keySet());
+        int[] remaining = {(documentIds.size() + MAX_DOCUMENTS_PER_BATCH - 1) / MAX_DOCUMENTS_PER_BATCH};
+        for (int start = 0; start < documentIds.size(); start += MAX_DOCUMENTS_PER_BATCH) {
+            List<String> chunk = documentIds.subList(start, Math.min(start + MAX_DOCUMENTS_PER_BATCH, documentIds.size()));
+            WriteBatch batch = db.batch();
+            for (String documentId : chunk) {
+                Map<String, Object> increments = new HashMap<>();
+                for (Map.Entry<String, Long> entry : toWrite.get(documentId).entrySet()) {
+                    increments.put(entry.getKey(), FieldValue.increment(entry.getValue()));
+                }
+                String shard = String.valueOf(random.nextInt(NUM_SHARDS));
+                batch.set(db.collection("documents").document(documentId).collection("counterShards").document(shard),
+                        increments, SetOptions.merge());
+            }
+
+            List<String> written = new ArrayList<>(chunk);
+            batch.commit().addOnCompleteListener(task -> {
+                if (!task.isSuccessful()) {
+                    // Put the counts back so they go out with the next flush
+                    for (String documentId : written) {
+                        for (Map.Entry<String, Long> entry : toWrite.get(documentId).entrySet()) {
+                            add(documentId, entry.getKey(), entry.getValue());
+                        }
+                    }
+                    persistPending();
+                }
+                if (--remaining[0] == 0) {
+                    flushing = false;
+                    if (!pending.isEmpty() && !flushScheduled) {
+                        flushScheduled = true;
+                        mainHandler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+                    }
+                }
+            });
+        }
+    }
+
+    // Sums all shards of a document; counts recorded on this device but not yet flushed are included
+    public void loadTotals(FirebaseFirestore db, String documentId, TotalsCallback callback) {
+        db.collection("documents").document(documentId).collection("counterShards")
+            .get()
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                long downloads = pendingCount(documentId, FIELD_DOWNLOADS);
+                long views = pendingCount(documentId, FIELD_VIEWS);
+                for (DocumentSnapshot shard : queryDocumentSnapshots) {
+                    Long shardDownloads = shard.getLong(FIELD_DOWNLOADS);
+                    Long shardViews = shard.getLong(FIELD_VIEWS);
+                    downloads += shardDownloads != null ? shardDownloads : 0;
+                    views += shardViews != null ? shardViews : 0;
+                }
+                callback.onTotals(downloads, views);
+            })
+            .addOnFailureListener(callback::onError);
+    }
+
+    private long pendingCount(String documentId, String field) {
+        Map<String, Long> counts = pending.get(documentId);
+        Long count = counts != null ? counts.get(field) : null;
+        return count != null ? count : 0;
+    }
+
+    private void add(String documentId, String field, long amount) {
+        Map<String, Long> counts = pending.get(documentId);
+        if (counts == null) {
+            counts = new HashMap<>();
+            pending.put(documentId, counts);
+        }
+        Long current = counts.get(field);
+        counts.put(field, (current != null ? current : 0) + amount);
+    }
+
+    // Stored as "documentId|field" -> count so unflushed events survive process death
+    private void persistPending() {
+        SharedPreferences.Editor editor = prefs.edit().clear();
+        for (Map.Entry<String, Map<String, Long>> document : pending.entrySet()) {
+            for (Map.Entry<String, Long> field : document.getValue().entrySet()) {
+                editor.putLong(document.getKey() + "|" + field.getKey(), field.getValue());
+            }
+        }
+        editor.apply();
+    }
+
+    private void restorePending() {
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            String[] parts = entry.getKey().split("\\|", 2);
+            if (parts.length == 2 && entry.getValue() instanceof Long) {
+                add(parts[0], parts[1], (Long) entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.driftpro.app;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Bitmap index over the document catalog; see FacetIndex. Facets are the category,
+// department, normalized file type, tags and visibility, and text search covers the title
+// and description.
+public class DocumentFacetIndex {
+    public static final String FACET_CATEGORY = "category";
+    public static final String FACET_DEPARTMENT = "department";
+    public static final String FACET_FILE_TYPE = "fileType";
+    public static final String FACET_TAG = "tag";
+    public static final String FACET_VISIBILITY = "visibility";
+    public static final String VISIBILITY_PUBLIC = "public";
+    public static final String VISIBILITY_RESTRICTED = "restricted";
+
+    private static final String[] FACETS = {
+        FACET_CATEGORY, FACET_DEPARTMENT, FACET_FILE_TYPE, FACET_TAG, FACET_VISIBILITY
+    };
+
+    private final FacetIndex<Document> index;
+
+    public static class Result {
+        public final List<Document> documents;
+        // facet -> value -> number of matches if that value were (also) selected
+        public final Map<String, Map<String, Integer>> counts;
+        public final long elapsedNanos;
+
+        Result(FacetIndex.Result<Document> result) {
+            this.documents = result.items;
+            this.counts = result.counts;
+            this.elapsedNanos = result.elapsedNanos;
+        }
+    }
+
+    public DocumentFacetIndex(List<Document> documents) {
+        index = new FacetIndex<>(documents, FACETS);
+        for (int i = 0; i < index.size(); i++) {
+            Document document = index.get(i);
+            index.setSearchText(i, (nullToEmpty(document.getTitle()) + "\n" + nullToEmpty(document.getDescription()))
+                    .toLowerCase(Locale.ROOT));
+
+            if (document.getCategory() != null) {
+                index.add(FACET_CATEGORY, document.getCategory().getValue(), i);
+            }
+            if (document.getDepartment() != null && !document.getDepartment().isEmpty()) {
+                index.add(FACET_DEPARTMENT, document.getDepartment(), i);
+            }
+            String fileType = normalizeFileType(document.getFileType());
+            if (fileType != null) {
+                index.add(FACET_FILE_TYPE, fileType, i);
+            }
+            if (document.getTags() != null) {
+                for (String tag : document.getTags()) {
+                    if (tag != null && !tag.isEmpty()) {
+                        index.add(FACET_TAG, tag, i);
+                    }
+                }
+            }
+            index.add(FACET_VISIBILITY, document.isPublic() ? VISIBILITY_PUBLIC : VISIBILITY_RESTRICTED, i);
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    // Values of a facet, most common first
+    public List<String> getValues(String facet) {
+        return index.getValues(facet);
+    }
+
+    // selections: facet -> selected values; an empty or missing set means no filter on that facet
+    public Result query(Map<String, Set<String>> selections, String text) {
+        return new Result(index.query(selections, text, FACETS));
+    }
+
+    // "application/pdf", "PDF" and "pdf" all index as "pdf"
+    static String normalizeFileType(String fileType) {
+        if (fileType == null || fileType.isEmpty()) return null;
+        String type = fileType.toLowerCase(Locale.ROOT);
+        int slash = type.lastIndexOf('/');
+        if (slash >= 0) {
+            type = type.substring(slash + 1);
+        }
+        if (type.contains("wordprocessingml") || type.equals("msword")) return "docx";
+        if (type.contains("spreadsheetml") || type.equals("vnd.ms-excel")) return "xlsx";
+        if (type.contains("presentationml") || type.equals("vnd.ms-powerpoint")) return "pptx";
+        if (type.equals("jpg")) return "jpeg";
+        return type;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,354 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Disk cache for document files keyed by fileURL and version. Downloads resume from the
+// partial file with a Range request, and completed files are evicted least recently used
+// first once the size budget is exceeded. Pinned files are bounded by the pin store's own
+// storage budget and do not count toward this one.
+public class DocumentFileCache {
+    private static final long DEFAULT_MAX_SIZE_BYTES = 250L * 1024 * 1024;
+    private static final long STALE_PARTIAL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIMEOUT_MS = 30000;
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static DocumentFileCache instance;
+
+    private final File directory;
+    // Access-ordered, so iteration starts at the least recently used file
+    private final LinkedHashMap<String, File> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, List<DownloadCallback>> inFlight = new HashMap<>();
+    // Files kept for offline use; never evicted to make room for ordinary opens
+    private final Set<String> pinnedKeys = new HashSet<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long maxSizeBytes = DEFAULT_MAX_SIZE_BYTES;
+    private long currentSizeBytes;
+    // The part of currentSizeBytes taken by pinned files
+    private long pinnedSizeBytes;
+
+    public interface DownloadCallback {
+        void onProgress(long bytesDownloaded, long totalBytes);
+        void onReady(File file);
+        void onError(Exception e);
+    }
+
+    private DocumentFileCache(Context context) {
+        directory = new File(context.getFilesDir(), "document_cache");
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        // Load the pins before the first trim so offline copies survive startup
+        pinnedKeys.addAll(new DocumentPinStore(context).getPinnedFileKeys());
+        scanDirectory();
+    }
+
+    public static synchronized DocumentFileCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new DocumentFileCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public synchronized void setMaxSizeBytes(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+        trimToSize();
+    }
+
+    public synchronized long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    public synchronized long getCurrentSizeBytes() {
+        return currentSizeBytes;
+    }
+
+    public synchronized void setPinnedKeys(Set<String> keys) {
+        pinnedKeys.clear();
+        pinnedKeys.addAll(keys);
+        pinnedSizeBytes = 0;
+        for (Map.Entry<String, File> entry : entries.entrySet()) {
+            if (pinnedKeys.contains(entry.getKey())) {
+                pinnedSizeBytes += entry.getValue().length();
+            }
+        }
+        trimToSize();
+    }
+
+    // Returns the cached file without touching the network, or null if it is not cached
+    public synchronized File getCachedFile(String fileURL, String version) {
+        String key = keyFor(fileURL, version);
+        File file = entries.get(key);
+        if (file != null && file.exists()) {
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+        return null;
+    }
+
+    // Does not count as an access, so it can be called freely while binding list rows
+    public synchronized boolean isCached(String fileURL, String version) {
+        return entries.containsKey(keyFor(fileURL, version));
+    }
+
+    // Returns the cached file for a document without bumping its LRU position
+    public File peekCachedFile(Document document) {
+        File file = new File(directory, keyFor(document.getFileURL(), document.getVersion()) + extensionOf(document));
+        return file.exists() ? file : null;
+    }
+
+    public void get(Document document, DownloadCallback callback) {
+        get(document.getFileURL(), document.getVersion(), extensionOf(document), callback);
+    }
+
+    // Serves the file from disk if cached, otherwise downloads (or resumes) it first.
+    // Callbacks are delivered on the main thread.
+    public void get(String fileURL, String version, String extension, DownloadCallback callback) {
+        if (fileURL == null || fileURL.isEmpty()) {
+            mainHandler.post(() -> callback.onError(new IOException("Dokumentet mangler fil-URL")));
+            return;
+        }
+
+        File cached = getCachedFile(fileURL, version);
+        if (cached != null) {
+            mainHandler.post(() -> callback.onReady(cached));
+            return;
+        }
+
+        String key = keyFor(fileURL, version);
+        synchronized (this) {
+            List<DownloadCallback> waiting = inFlight.get(key);
+            if (waiting != null) {
+                // Same file already downloading; share the result instead of fetching twice
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlight.put(key, waiting);
+        }
+
+        executor.execute(() -> {
+            try {
+                File file = download(key, fileURL, extension);
+                deliverReady(key, file);
+            } catch (IOException e) {
+                deliverError(key, e);
+            }
+        });
+    }
+
+    public synchronized void remove(String fileURL, String version) {
+        String key = keyFor(fileURL, version);
+        File file = entries.remove(key);
+        if (file != null) {
+            adjustSize(key, -file.length());
+            file.delete();
+        }
+    }
+
+    private File download(String key, String fileURL, String extension) throws IOException {
+        File partial = new File(directory, key + PARTIAL_SUFFIX);
+        long offset = partial.exists() ? partial.length() : 0;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(fileURL).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+
+        try {
+            int responseCode = connection.getResponseCode();
+            boolean append;
+            long totalBytes;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                append = true;
+                totalBytes = offset + connection.getContentLength();
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // Server ignored the range; start over
+                append = false;
+                offset = 0;
+                totalBytes = connection.getContentLength();
+            } else if (responseCode == 416) {
+                // Partial file no longer matches the remote file; discard it and retry once
+                partial.delete();
+                connection.disconnect();
+                return download(key, fileURL, extension);
+            } else {
+                throw new IOException("Uventet svar fra server: " + responseCode);
+            }
+
+            long downloaded = offset;
+            try (InputStream in = connection.getInputStream();
+                 FileOutputStream out = new FileOutputStream(partial, append)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                long lastReported = 0;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    downloaded += read;
+                    // Throttle progress updates to roughly every 256 KB
+                    if (downloaded - lastReported >= 256 * 1024) {
+                        lastReported = downloaded;
+                        deliverProgress(key, downloaded, totalBytes);
+                    }
+                }
+                out.getFD().sync();
+            }
+            if (totalBytes > 0 && downloaded < totalBytes) {
+                throw new IOException("Nedlasting avbrutt");
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        File complete = new File(directory, key + extension);
+        if (!partial.renameTo(complete)) {
+            throw new IOException("Kunne ikke lagre dokumentet");
+        }
+        synchronized (this) {
+            File previous = entries.put(key, complete);
+            if (previous != null) {
+                adjustSize(key, -previous.length());
+            }
+            adjustSize(key, complete.length());
+            trimToSize();
+        }
+        return complete;
+    }
+
+    private void adjustSize(String key, long bytes) {
+        currentSizeBytes += bytes;
+        if (pinnedKeys.contains(key)) {
+            pinnedSizeBytes += bytes;
+        }
+    }
+
+    // Only unpinned files are weighed against maxSizeBytes, since only they can be evicted
+    private void trimToSize() {
+        Iterator<Map.Entry<String, File>> iterator = entries.entrySet().iterator();
+        while (currentSizeBytes - pinnedSizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, File> eldest = iterator.next();
+            if (inFlight.containsKey(eldest.getKey()) || pinnedKeys.contains(eldest.getKey())) continue;
+            File file = eldest.getValue();
+            currentSizeBytes -= file.length();
+            file.delete();
+            iterator.remove();
+        }
+    }
+
+    // Rebuilds the LRU order from last-modified times, which are bumped on every access
+    private void scanDirectory() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(PARTIAL_SUFFIX)) {
+                if (now - file.lastModified() > STALE_PARTIAL_MS) {
+                    file.delete();
+                }
+                continue;
+            }
+            int dot = name.indexOf('.');
+            String key = dot >= 0 ? name.substring(0, dot) : name;
+            entries.put(key, file);
+            adjustSize(key, file.length());
+        }
+        trimToSize();
+    }
+
+    private void deliverProgress(String key, long downloaded, long total) {
+        List<DownloadCallback> callbacks;
+        synchronized (this) {
+            List<DownloadCallback> waiting = inFlight.get(key);
+            if (waiting == null) return;
+            callbacks = new ArrayList<>(waiting);
+        }
+        mainHandler.post(() -> {
+            for (DownloadCallback callback : callbacks) {
+                callback.onProgress(downloaded, total);
+            }
+        });
+    }
+
+    private void deliverReady(String key, File file) {
+        List<DownloadCallback> callbacks;
+        synchronized (this) {
+            callbacks = inFlight.remove(key);
+        }
+        if (callbacks == null) return;
+        mainHandler.post(() -> {
+            for (DownloadCallback callback : callbacks) {
+                callback.onReady(file);
+            }
+        });
+    }
+
+    private void deliverError(String key, Exception e) {
+        List<DownloadCallback> callbacks;
+        synchronized (this) {
+            callbacks = inFlight.remove(key);
+        }
+        if (callbacks == null) return;
+        mainHandler.post(() -> {
+            for (DownloadCallback callback : callbacks) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    static String keyFor(String fileURL, String version) {
+        String source = fileURL + "@" + (version != null ? version : "");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(source.hashCode());
+        }
+    }
+
+    static String extensionOf(Document document) {
+        String fileName = document.getFileName();
+        if (fileName != null && fileName.lastIndexOf('.') > 0) {
+            return fileName.substring(fileName.lastIndexOf('.')).toLowerCase();
+        }
+        String fileType = document.getFileType();
+        if (fileType == null || fileType.isEmpty()) {
+            return "";
+        }
+        // fileType may be a bare extension or a MIME type such as application/pdf
+        int slash = fileType.lastIndexOf('/');
+        String extension = slash >= 0 ? fileType.substring(slash + 1) : fileType;
+        return "." + extension.toLowerCase();
+    }
+}
@@ -0,0 +1,114 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.HashSet;
+import java.util.Set;
+
+// Which documents and categories the user keeps available offline, plus the state the
+// background sync needs between runs
+public class DocumentPinStore {
+    private static final String PREFS_NAME = "document_pins";
+    private static final String KEY_DOCUMENTS = "pinnedDocuments";
+    private static final String KEY_CATEGORIES = "pinnedCategories";
+    private static final String KEY_FILE_KEYS = "pinnedFileKeys";
+    private static final String KEY_BUDGET = "storageBudgetBytes";
+    private static final String KEY_SYNCED_PREFIX = "syncedUpdatedAt_";
+    private static final String KEY_LAST_SYNC_AT = "lastSyncAt";
+    private static final String KEY_LAST_BYTES_DOWNLOADED = "lastBytesDownloaded";
+    private static final String KEY_LAST_BYTES_SAVED = "lastBytesSaved";
+    private static final String KEY_LAST_PINNED_COUNT = "lastPinnedCount";
+    private static final String KEY_LAST_SKIPPED_COUNT = "lastSkippedCount";
+    public static final long DEFAULT_STORAGE_BUDGET_BYTES = 500L * 1024 * 1024;
+
+    private final SharedPreferences prefs;
+
+    public DocumentPinStore(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public boolean isPinned(Document document) {
+        if (document.isPinnedOffline()) return true;
+        if (getPinnedDocumentIds().contains(document.getId())) return true;
+        return document.getCategory() != null
+                && getPinnedCategories().contains(document.getCategory().getValue());
+    }
+
+    public boolean isExplicitlyPinned(Document document) {
+        return document.isPinnedOffline() || getPinnedDocumentIds().contains(document.getId());
+    }
+
+    public Set<String> getPinnedDocumentIds() {
+        return new HashSet<>(prefs.getStringSet(KEY_DOCUMENTS, new HashSet<>()));
+    }
+
+    public Set<String> getPinnedCategories() {
+        return new HashSet<>(prefs.getStringSet(KEY_CATEGORIES, new HashSet<>()));
+    }
+
+    // Returns true if the document is pinned after the call
+    public boolean togglePinnedDocument(String documentId) {
+        return toggle(KEY_DOCUMENTS, documentId);
+    }
+
+    public boolean togglePinnedCategory(String categoryValue) {
+        return toggle(KEY_CATEGORIES, categoryValue);
+    }
+
+    private boolean toggle(String key, String value) {
+        // getStringSet returns a live set that must not be modified
+        Set<String> values = new HashSet<>(prefs.getStringSet(key, new HashSet<>()));
+        boolean pinned;
+        if (values.contains(value)) {
+            values.remove(value);
+            pinned = false;
+        } else {
+            values.add(value);
+            pinned = true;
+        }
+        prefs.edit().putStringSet(key, values).apply();
+        return pinned;
+    }
+
+    // Cache keys of the files the last sync kept offline, protected from LRU eviction
+    public Set<String> getPinnedFileKeys() {
+        return new HashSet<>(prefs.getStringSet(KEY_FILE_KEYS, new HashSet<>()));
+    }
+
+    public void setPinnedFileKeys(Set<String> keys) {
+        prefs.edit().putStringSet(KEY_FILE_KEYS, new HashSet<>(keys)).apply();
+    }
+
+    public long getStorageBudgetBytes() {
+        return prefs.getLong(KEY_BUDGET, DEFAULT_STORAGE_BUDGET_BYTES);
+    }
+
+    public void setStorageBudgetBytes(long bytes) {
+        prefs.edit().putLong(KEY_BUDGET, bytes).apply();
+    }
+
+    // updatedAt of the copy last synced for a document, or 0 if never synced
+    public long getSyncedUpdatedAt(String documentId) {
+        return prefs.getLong(KEY_SYNCED_PREFIX + documentId, 0);
+    }
+
+    public void setSyncedUpdatedAt(String documentId, long updatedAt) {
+        prefs.edit().putLong(KEY_SYNCED_PREFIX + documentId, updatedAt).apply();
+    }
+
+    public void saveSyncReport(int pinnedCount, int skippedCount, long bytesDownloaded, long bytesSaved) {
+        prefs.edit()
+            .putLong(KEY_LAST_SYNC_AT, System.currentTimeMillis())
+            .putInt(KEY_LAST_PINNED_COUNT, pinnedCount)
+            .putInt(KEY_LAST_SKIPPED_COUNT, skippedCount)
+            .putLong(KEY_LAST_BYTES_DOWNLOADED, bytesDownloaded)
+            .putLong(KEY_LAST_BYTES_SAVED, bytesSaved)
+            .apply();
+    }
+
+    public long getLastSyncAt() { return prefs.getLong(KEY_LAST_SYNC_AT, 0); }
+    public int getLastPinnedCount() { return prefs.getInt(KEY_LAST_PINNED_COUNT, 0); }
+    public int getLastSkippedCount() { return prefs.getInt(KEY_LAST_SKIPPED_COUNT, 0); }
+    public long getLastBytesDownloaded() { return prefs.getLong(KEY_LAST_BYTES_DOWNLOADED, 0); }
+    public long getLastBytesSaved() { return prefs.getLong(KEY_LAST_BYTES_SAVED, 0); }
+}
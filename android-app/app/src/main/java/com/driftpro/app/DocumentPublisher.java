@@ -0,0 +1,336 @@
+package com.driftpro.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Publishes new documents and new versions of existing ones. Files are identified by their
+// SHA-256: unchanged content is never uploaded again, blobs live at a content-addressed path
+// so earlier versions stay downloadable, and uploads resume from their last session after
+// a failure or process death. Each version is recorded in documents/{id}/versions.
+public class DocumentPublisher {
+    private static final String PREFS_NAME = "document_publisher";
+    private static final String KEY_HASH_PREFIX = "hash_";
+    private static final String KEY_SESSION_PREFIX = "session_";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final FirebaseFirestore db;
+    private final FirebaseStorage storage;
+    private final DocumentCatalog catalog;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface PublishCallback {
+        void onProgress(long bytesUploaded, long totalBytes);
+        // changed is false when the content matched the current version and nothing was
+        // written; uploaded is false when the bytes were already stored
+        void onPublished(Document document, boolean changed, boolean uploaded);
+        void onError(Exception e);
+    }
+
+    public interface VersionsCallback {
+        void onVersions(List<Document> versions);
+        void onError(Exception e);
+    }
+
+    public DocumentPublisher(Context context, DocumentCatalog catalog) {
+        this.context = context.getApplicationContext();
+        this.catalog = catalog;
+        this.db = FirebaseFirestore.getInstance();
+        this.storage = FirebaseStorage.getInstance();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // Publishes the file as a new document when target has no id, otherwise as its next version
+    public void publish(Uri source, Document target, PublishCallback callback) {
+        executor.execute(() -> {
+            try {
+                SourceInfo info = describe(source);
+                String hash = hashOf(source, info);
+
+                if (target.getId() != null && hash.equals(target.getContentHash())) {
+                    mainHandler.post(() -> callback.onPublished(target, false, false));
+                    return;
+                }
+
+                String fileName = info.name != null ? info.name : target.getFileName();
+                StorageReference blob = storage.getReference()
+                    .child("documents/" + target.getCompanyId() + "/" + hash + "/" + fileName);
+                String fileType = context.getContentResolver().getType(source);
+
+                // The same bytes may already be stored, e.g. when reverting to an earlier version
+                blob.getMetadata()
+                    .addOnSuccessListener(executor, metadata ->
+                        commit(target, blob, hash, fileName, fileType, info.size, false, callback))
+                    .addOnFailureListener(executor, e ->
+                        upload(source, blob, hash, fileType, info.size, true, () ->
+                            commit(target, blob, hash, fileName, fileType, info.size, true, callback), callback));
+            } catch (IOException e) {
+                mainHandler.post(() -> callback.onError(e));
+            }
+        });
+    }
+
+    // Newest first; each entry carries the fileURL and version of that revision
+    public void loadVersions(String documentId, VersionsCallback callback) {
+        db.collection("documents").document(documentId).collection("versions")
+            .orderBy("createdAt", Query.Direction.DESCENDING)
+            .get()
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                List<Document> versions = new ArrayList<>();
+                for (QueryDocumentSnapshot snapshot : queryDocumentSnapshots) {
+                    Document version = Document.fromMap(snapshot.getData());
+                    version.setId(documentId);
+                    versions.add(version);
+                }
+                callback.onVersions(versions);
+            })
+            .addOnFailureListener(callback::onError);
+    }
+
+    private void upload(Uri source, StorageReference blob, String hash, String fileType, long size,
+                        boolean allowResume, Runnable onUploaded, PublishCallback callback) {
+        String sessionKey = KEY_SESSION_PREFIX + hash;
+        String session = allowResume ? prefs.getString(sessionKey, null) : null;
+        StorageMetadata metadata = new StorageMetadata.Builder()
+            .setContentType(fileType)
+            .setCustomMetadata("sha256", hash)
+            .build();
+
+        // The SDK sends the file in chunks over a resumable session; remembering the session
+        // URI lets a later attempt continue from the last committed chunk
+        UploadTask task = session != null
+            ? blob.putFile(source, metadata, Uri.parse(session))
+            : blob.putFile(source, metadata);
+        task.addOnProgressListener(executor, snapshot -> {
+                Uri sessionUri = snapshot.getUploadSessionUri();
+                if (sessionUri != null) {
+                    prefs.edit().putString(sessionKey, sessionUri.toString()).apply();
+                }
+                long total = snapshot.getTotalByteCount() > 0 ? snapshot.getTotalByteCount() : size;
+                long transferred = snapshot.getBytesTransferred();
+                mainHandler.post(() -> callback.onProgress(transferred, total));
+            })
+            .addOnSuccessListener(executor, snapshot -> {
+                prefs.edit().remove(sessionKey).apply();
+                onUploaded.run();
+            })
+            .addOnFailureListener(executor, e -> {
+                if (session != null) {
+                    // Sessions expire after about a week; start over once with a fresh one
+                    prefs.edit().remove(sessionKey).apply();
+                    upload(source, blob, hash, fileType, size, false, onUploaded, callback);
+                } else {
+                    mainHandler.post(() -> callback.onError(e));
+                }
+            });
+    }
+
+    private void commit(Document target, StorageReference blob, String hash, String fileName,
+                        String fileType, long size, boolean uploaded, PublishCallback callback) {
+        blob.getDownloadUrl()
+            .addOnSuccessListener(executor, downloadUrl -> {
+                boolean isNew = target.getId() == null;
+                DocumentReference reference = isNew
+                    ? db.collection("documents").document()
+                    : db.collection("documents").document(target.getId());
+
+                Document published = copyOf(target);
+                published.setId(reference.getId());
+                published.setFileURL(downloadUrl.toString());
+                published.setFileName(fileName);
+                published.setFileSize(size);
+                if (fileType != null) published.setFileType(fileType);
+                published.setContentHash(hash);
+                published.setVersion(isNew ? "1.0" : nextVersion(target.getVersion()));
+                published.setThumbnailURL(null);
+                FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+                if (user != null) {
+                    published.setUploadedBy(user.getUid());
+                    published.setUploadedByName(user.getDisplayName());
+                }
+                published.setUpdatedAt(new Date());
+                if (isNew) {
+                    published.setCreatedAt(new Date());
+                    published.setActive(true);
+                }
+
+                WriteBatch batch = db.batch();
+                Map<String, Object> data = published.toMap();
+                data.put("updatedAt", FieldValue.serverTimestamp());
+                if (isNew) {
+                    data.put("createdAt", FieldValue.serverTimestamp());
+                    batch.set(reference, data);
+                } else {
+                    // Fields maintained elsewhere must not be overwritten with local copies
+                    data.remove("createdAt");
+                    data.remove("downloadCount");
+                    data.remove("pinnedOffline");
+                    batch.set(reference, data, SetOptions.merge());
+                    // Documents published before versioning have no history entry yet
+                    if (target.getVersion() != null && target.getFileURL() != null) {
+                        batch.set(reference.collection("versions").document(target.getVersion()),
+                                versionEntry(target, null), SetOptions.merge());
+                    }
+                }
+                batch.set(reference.collection("versions").document(published.getVersion()),
+                        versionEntry(published, FieldValue.serverTimestamp()));
+
+                batch.commit()
+                    .addOnSuccessListener(executor, unused -> {
+                        catalog.applyLocal(published);
+                        mainHandler.post(() -> callback.onPublished(published, true, uploaded));
+                    })
+                    .addOnFailureListener(executor, e -> mainHandler.post(() -> callback.onError(e)));
+            })
+            .addOnFailureListener(executor, e -> mainHandler.post(() -> callback.onError(e)));
+    }
+
+    private static Map<String, Object> versionEntry(Document document, Object createdAt) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("version", document.getVersion());
+        entry.put("title", document.getTitle());
+        entry.put("fileURL", document.getFileURL());
+        entry.put("fileName", document.getFileName());
+        entry.put("fileSize", document.getFileSize());
+        entry.put("fileType", document.getFileType());
+        entry.put("contentHash", document.getContentHash());
+        entry.put("uploadedBy", document.getUploadedBy());
+        entry.put("uploadedByName", document.getUploadedByName());
+        entry.put("companyId", document.getCompanyId());
+        if (createdAt != null) {
+            entry.put("createdAt", createdAt);
+        } else if (document.getUpdatedAt() != null) {
+            entry.put("createdAt", new Timestamp(document.getUpdatedAt()));
+        }
+        return entry;
+    }
+
+    // "1.0" -> "1.1", "2.9" -> "2.10"; anything unparsable starts a new minor series
+    static String nextVersion(String version) {
+        if (version == null || version.isEmpty()) return "1.0";
+        int dot = version.lastIndexOf('.');
+        try {
+            int minor = Integer.parseInt(version.substring(dot + 1));
+            return version.substring(0, dot + 1) + (minor + 1);
+        } catch (NumberFormatException e) {
+            return version + ".1";
+        }
+    }
+
+    // Hashing a large file takes a while, so the result is remembered for as long as the
+    // provider reports the same size and modification time
+    private String hashOf(Uri source, SourceInfo info) throws IOException {
+        String cacheKey = KEY_HASH_PREFIX + source + "|" + info.size + "|" + info.lastModified;
+        String cached = info.lastModified > 0 ? prefs.getString(cacheKey, null) : null;
+        if (cached != null) return cached;
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = context.getContentResolver().openInputStream(source)) {
+            if (in == null) throw new IOException("Cannot open " + source);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        String hash = hex.toString();
+        if (info.lastModified > 0) {
+            prefs.edit().putString(cacheKey, hash).apply();
+        }
+        return hash;
+    }
+
+    private SourceInfo describe(Uri source) {
+        SourceInfo info = new SourceInfo();
+        ContentResolver resolver = context.getContentResolver();
+        try (Cursor cursor = resolver.query(source, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                int modifiedIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (nameIndex >= 0) info.name = cursor.getString(nameIndex);
+                if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) info.size = cursor.getLong(sizeIndex);
+                if (modifiedIndex >= 0 && !cursor.isNull(modifiedIndex)) info.lastModified = cursor.getLong(modifiedIndex);
+            }
+        } catch (SecurityException | IllegalArgumentException e) {
+            // Not every provider supports queries; the hash is then always computed
+        }
+        return info;
+    }
+
+    private static Document copyOf(Document source) {
+        Document copy = new Document();
+        copy.setId(source.getId());
+        copy.setTitle(source.getTitle());
+        copy.setDescription(source.getDescription());
+        copy.setCategory(source.getCategory());
+        copy.setFileURL(source.getFileURL());
+        copy.setThumbnailURL(source.getThumbnailURL());
+        copy.setFileName(source.getFileName());
+        copy.setFileSize(source.getFileSize());
+        copy.setFileType(source.getFileType());
+        copy.setVersion(source.getVersion());
+        copy.setContentHash(source.getContentHash());
+        copy.setUploadedBy(source.getUploadedBy());
+        copy.setUploadedByName(source.getUploadedByName());
+        copy.setCompanyId(source.getCompanyId());
+        copy.setDepartment(source.getDepartment());
+        copy.setTags(source.getTags());
+        copy.setPublic(source.isPublic());
+        copy.setCreatedAt(source.getCreatedAt());
+        copy.setUpdatedAt(source.getUpdatedAt());
+        copy.setDownloadCount(source.getDownloadCount());
+        copy.setActive(source.isActive());
+        copy.setPinnedOffline(source.isPinnedOffline());
+        return copy;
+    }
+
+    private static class SourceInfo {
+        String name;
+        long size;
+        long lastModified;
+    }
+}
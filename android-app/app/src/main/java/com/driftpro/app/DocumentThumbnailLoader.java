@@ -0,0 +1,246 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.pdf.PdfRenderer;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
+import android.view.View;
+import android.widget.ImageView;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// First-page thumbnails for PDFs and images, cached in memory and on disk. Thumbnails come
+// from the uploaded thumbnailURL when present, otherwise they are generated once from the
+// locally cached file. All decoding is sampled down to the target size off the UI thread.
+public class DocumentThumbnailLoader {
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int TIMEOUT_MS = 15000;
+    private static DocumentThumbnailLoader instance;
+
+    private final File directory;
+    private final DocumentFileCache fileCache;
+    private final LruCache<String, Bitmap> memoryCache;
+    // Keys with no thumbnail source yet, so rebinding a row doesn't retry every scroll
+    private final Map<String, Boolean> misses = new HashMap<>();
+    private final Map<String, List<ImageView>> inFlight = new HashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private DocumentThumbnailLoader(Context context) {
+        directory = new File(context.getCacheDir(), "document_thumbnails");
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        fileCache = DocumentFileCache.getInstance(context);
+        memoryCache = new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    public static synchronized DocumentThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new DocumentThumbnailLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Binds the thumbnail for a document into the view, or leaves it hidden if none exists.
+    // Must be called on the main thread; recycled views are guarded by the view tag.
+    public void load(Document document, ImageView imageView, int sizePx) {
+        String key = DocumentFileCache.keyFor(document.getFileURL(), document.getVersion());
+        imageView.setTag(R.id.document_thumbnail, key);
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            show(imageView, cached);
+            return;
+        }
+        imageView.setImageDrawable(null);
+        imageView.setVisibility(View.GONE);
+
+        if (!isThumbnailType(document)) return;
+        // A miss is retried once the source file lands in the file cache
+        File sourceFile = fileCache.peekCachedFile(document);
+        if (misses.containsKey(key) && sourceFile == null) {
+            return;
+        }
+
+        List<ImageView> waiting = inFlight.get(key);
+        if (waiting != null) {
+            waiting.add(imageView);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(imageView);
+        inFlight.put(key, waiting);
+
+        String thumbnailURL = document.getThumbnailURL();
+        boolean isPdf = isPdf(document);
+        executor.execute(() -> {
+            Bitmap bitmap = loadInBackground(key, thumbnailURL, sourceFile, isPdf, sizePx);
+            mainHandler.post(() -> deliver(key, bitmap));
+        });
+    }
+
+    private Bitmap loadInBackground(String key, String thumbnailURL, File sourceFile, boolean isPdf, int sizePx) {
+        File diskFile = new File(directory, key + ".jpg");
+        try {
+            if (diskFile.exists()) {
+                return decodeSampled(diskFile, sizePx);
+            }
+            if (thumbnailURL != null && !thumbnailURL.isEmpty()) {
+                download(thumbnailURL, diskFile);
+                return decodeSampled(diskFile, sizePx);
+            }
+            if (sourceFile != null) {
+                Bitmap bitmap = isPdf ? renderFirstPage(sourceFile, sizePx) : decodeSampled(sourceFile, sizePx);
+                if (bitmap != null) {
+                    writeJpeg(bitmap, diskFile);
+                }
+                return bitmap;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Damaged source or thumbnail; fall back to the file type icon
+            diskFile.delete();
+        }
+        return null;
+    }
+
+    private void deliver(String key, Bitmap bitmap) {
+        List<ImageView> waiting = inFlight.remove(key);
+        if (bitmap != null) {
+            memoryCache.put(key, bitmap);
+            misses.remove(key);
+        } else {
+            misses.put(key, Boolean.TRUE);
+        }
+        if (waiting == null || bitmap == null) return;
+        for (ImageView imageView : waiting) {
+            // Skip views that were rebound to another document while decoding
+            if (key.equals(imageView.getTag(R.id.document_thumbnail))) {
+                show(imageView, bitmap);
+            }
+        }
+    }
+
+    private void show(ImageView imageView, Bitmap bitmap) {
+        imageView.setImageBitmap(bitmap);
+        imageView.setVisibility(View.VISIBLE);
+    }
+
+    private static Bitmap decodeSampled(File file, int sizePx) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, sizePx);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    // Largest power of two that keeps the shorter side at or above the target size
+    static int calculateInSampleSize(int width, int height, int sizePx) {
+        int sampleSize = 1;
+        int shortest = Math.min(width, height);
+        while (shortest / (sampleSize * 2) >= sizePx) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap renderFirstPage(File file, int sizePx) throws IOException {
+        try (ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY)) {
+            PdfRenderer renderer = new PdfRenderer(descriptor);
+            try {
+                if (renderer.getPageCount() == 0) return null;
+                PdfRenderer.Page page = renderer.openPage(0);
+                // Render the top of the page as a square, which is what identifies a document
+                float scale = (float) sizePx / page.getWidth();
+                Bitmap bitmap = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+                bitmap.eraseColor(Color.WHITE);
+                Matrix matrix = new Matrix();
+                matrix.setScale(scale, scale);
+                page.render(bitmap, null, matrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+                page.close();
+                return bitmap;
+            } finally {
+                renderer.close();
+            }
+        }
+    }
+
+    private static void download(String url, File target) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Uventet svar fra server: " + connection.getResponseCode());
+            }
+            File temp = new File(target.getPath() + ".tmp");
+            try (InputStream in = connection.getInputStream();
+                 FileOutputStream out = new FileOutputStream(temp)) {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Kunne ikke lagre miniatyrbilde");
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void writeJpeg(Bitmap bitmap, File target) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 80, out);
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+        }
+    }
+
+    static boolean isPdf(Document document) {
+        String fileType = document.getFileType();
+        return fileType != null && fileType.toLowerCase().contains("pdf");
+    }
+
+    static boolean isImage(Document document) {
+        String fileType = document.getFileType();
+        if (fileType == null) return false;
+        String type = fileType.toLowerCase();
+        return type.startsWith("image") || type.contains("jpg") || type.contains("jpeg") || type.contains("png")
+                || type.contains("webp");
+    }
+
+    private static boolean isThumbnailType(Document document) {
+        return (document.getThumbnailURL() != null && !document.getThumbnailURL().isEmpty())
+                || isPdf(document) || isImage(document);
+    }
+}
@@ -0,0 +1,300 @@
+package com.driftpro.app;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.MenuItem;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.HorizontalScrollView;
+import android.widget.Toast;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.google.android.material.appbar.MaterialToolbar;
+import com.google.firebase.firestore.FirebaseFirestore;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class DocumentViewerActivity extends AppCompatActivity {
+    public static final String EXTRA_FILE_PATH = "filePath";
+    public static final String EXTRA_TITLE = "title";
+    public static final String EXTRA_DOCUMENT_ID = "documentId";
+    private static final String TAG = "DocumentViewer";
+    private static final float MIN_ZOOM = 1f;
+    private static final float MAX_ZOOM = 4f;
+
+    private HorizontalScrollView horizontalScroll;
+    private RecyclerView pagesRecyclerView;
+    private LinearLayoutManager layoutManager;
+    private View loadingView;
+    private PdfTileRenderer renderer;
+    private PdfPagesAdapter pagesAdapter;
+    private ScaleGestureDetector scaleDetector;
+    private final ScrollFrameMonitor frameMonitor = new ScrollFrameMonitor();
+    private float zoom = MIN_ZOOM;
+    private float gestureScale = 1f;
+    private int viewportWidth;
+    private long openStartMs;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_document_viewer);
+        openStartMs = SystemClock.elapsedRealtime();
+
+        String filePath = getIntent().getStringExtra(EXTRA_FILE_PATH);
+        String title = getIntent().getStringExtra(EXTRA_TITLE);
+
+        // Setup toolbar
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setTitle(title != null ? title : "Dokument");
+        }
+
+        horizontalScroll = findViewById(R.id.horizontal_scroll);
+        pagesRecyclerView = findViewById(R.id.pages_recycler_view);
+        loadingView = findViewById(R.id.loading_view);
+
+        try {
+            if (filePath == null) throw new IOException("Mangler filsti");
+            renderer = new PdfTileRenderer(new File(filePath));
+        } catch (IOException | SecurityException e) {
+            Toast.makeText(this, "Kunne ikke åpne dokumentet", Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+
+        setupRecyclerView();
+        scaleDetector = new ScaleGestureDetector(this, new ScaleListener());
+
+        String documentId = getIntent().getStringExtra(EXTRA_DOCUMENT_ID);
+        if (documentId != null) {
+            loadCounters(documentId);
+        }
+
+        // Page sizes are read off the main thread; the list is shown once the first few are known
+        horizontalScroll.post(() -> {
+            viewportWidth = horizontalScroll.getWidth();
+            applyZoom(MIN_ZOOM);
+            renderer.loadPageSizes(() -> {
+                loadingView.setVisibility(View.GONE);
+                pagesAdapter.setPageCount(renderer.getPageCount());
+                pagesRecyclerView.post(this::updateVisibleRange);
+            });
+        });
+    }
+
+    private void setupRecyclerView() {
+        int pageSpacing = Math.round(8 * getResources().getDisplayMetrics().density);
+        layoutManager = new LinearLayoutManager(this);
+        pagesAdapter = new PdfPagesAdapter(renderer, pageSpacing);
+        pagesAdapter.setOnPageDrawnListener(this::onPageDrawn);
+        pagesRecyclerView.setLayoutManager(layoutManager);
+        pagesRecyclerView.setAdapter(pagesAdapter);
+        pagesRecyclerView.setHasFixedSize(true);
+
+        renderer.setTileListener(pageIndex -> {
+            RecyclerView.ViewHolder holder = pagesRecyclerView.findViewHolderForAdapterPosition(pageIndex);
+            if (holder != null) {
+                holder.itemView.invalidate();
+            }
+        });
+        renderer.setPageSizeListener((firstPage, count) -> pagesAdapter.notifyItemRangeChanged(firstPage, count));
+
+        pagesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                updateVisibleRange();
+            }
+
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    frameMonitor.stop();
+                } else {
+                    frameMonitor.start();
+                }
+            }
+        });
+    }
+
+    // Shown under the title; the counts include this device's events that are not flushed yet
+    private void loadCounters(String documentId) {
+        DocumentCounters.getInstance(this).loadTotals(FirebaseFirestore.getInstance(), documentId,
+                new DocumentCounters.TotalsCallback() {
+                    @Override
+                    public void onTotals(long downloads, long views) {
+                        if (isFinishing() || getSupportActionBar() == null) return;
+                        getSupportActionBar().setSubtitle(downloads + " nedlastinger · " + views + " visninger");
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.w(TAG, "Could not load counters for " + documentId, e);
+                    }
+                });
+    }
+
+    private void onPageDrawn(int pageIndex) {
+        if (pageIndex != 0) return;
+        // Only the first complete draw of the first page is interesting
+        pagesAdapter.setOnPageDrawnListener(null);
+        RecyclerView.ViewHolder holder = pagesRecyclerView.findViewHolderForAdapterPosition(0);
+        if (holder != null) {
+            ((PdfPageView) holder.itemView).setOnPageDrawnListener(null);
+        }
+        Log.i(TAG, "First page rendered in " + (SystemClock.elapsedRealtime() - openStartMs) + " ms ("
+                + renderer.getPageCount() + " pages)");
+    }
+
+    private void updateVisibleRange() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+        renderer.setVisibleRange(first, last);
+
+        // Prefetch the part of each neighbouring page that will scroll into view next
+        int pageWidth = Math.round(viewportWidth * zoom);
+        int left = horizontalScroll.getScrollX();
+        int right = left + viewportWidth;
+        int viewportHeight = pagesRecyclerView.getHeight();
+        renderer.prefetch(last + 1, left, right, 0, viewportHeight);
+        if (first > 0) {
+            int previousHeight = renderer.getPageHeightPx(first - 1, pageWidth);
+            renderer.prefetch(first - 1, left, right, previousHeight - viewportHeight, previousHeight);
+        }
+    }
+
+    private void applyZoom(float newZoom) {
+        float ratio = newZoom / zoom;
+        zoom = newZoom;
+        int pageWidth = Math.round(viewportWidth * zoom);
+
+        ViewGroup.LayoutParams params = pagesRecyclerView.getLayoutParams();
+        params.width = pageWidth;
+        pagesRecyclerView.setLayoutParams(params);
+        renderer.setPageWidth(pageWidth);
+        pagesAdapter.notifyDataSetChanged();
+
+        // Keep the horizontal centre of the viewport in place across zoom levels
+        int centerX = horizontalScroll.getScrollX() + viewportWidth / 2;
+        horizontalScroll.post(() ->
+                horizontalScroll.scrollTo(Math.round(centerX * ratio) - viewportWidth / 2, 0));
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        if (scaleDetector != null) {
+            scaleDetector.onTouchEvent(event);
+            if (scaleDetector.isInProgress()) {
+                return true;
+            }
+        }
+        return super.dispatchTouchEvent(event);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        frameMonitor.stop();
+        if (renderer != null) {
+            renderer.close();
+        }
+    }
+
+    // Tiles are re-rendered once the pinch ends rather than on every scale step
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScaleBegin(ScaleGestureDetector detector) {
+            gestureScale = 1f;
+            return true;
+        }
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            gestureScale *= detector.getScaleFactor();
+            return true;
+        }
+
+        @Override
+        public void onScaleEnd(ScaleGestureDetector detector) {
+            float newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * gestureScale));
+            // Snap to quarter steps so small pinches don't throw away the tile cache
+            newZoom = Math.round(newZoom * 4) / 4f;
+            if (newZoom != zoom) {
+                applyZoom(newZoom);
+            }
+        }
+    }
+
+    // Records frame intervals while the page list scrolls and logs a summary when it settles
+    private static class ScrollFrameMonitor implements Choreographer.FrameCallback {
+        private static final int MAX_FRAMES = 1200;
+        private static final long FRAME_BUDGET_NS = 16_666_667L;
+        private final long[] intervals = new long[MAX_FRAMES];
+        private int frameCount;
+        private long lastFrameNs;
+        private boolean running;
+
+        void start() {
+            if (running) return;
+            running = true;
+            frameCount = 0;
+            lastFrameNs = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            if (!running) return;
+            running = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+            report();
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!running) return;
+            if (lastFrameNs != 0 && frameCount < MAX_FRAMES) {
+                intervals[frameCount++] = frameTimeNanos - lastFrameNs;
+            }
+            lastFrameNs = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        private void report() {
+            if (frameCount == 0) return;
+            long[] sorted = Arrays.copyOf(intervals, frameCount);
+            Arrays.sort(sorted);
+            long total = 0;
+            int janky = 0;
+            for (long interval : sorted) {
+                total += interval;
+                if (interval > FRAME_BUDGET_NS * 3 / 2) janky++;
+            }
+            Log.i(TAG, String.format("Scroll frames: %d, avg %.1f ms, p50 %.1f ms, p95 %.1f ms, max %.1f ms, janky %d",
+                    frameCount,
+                    total / (double) frameCount / 1e6,
+                    sorted[frameCount / 2] / 1e6,
+                    sorted[Math.min(frameCount - 1, frameCount * 95 / 100)] / 1e6,
+                    sorted[frameCount - 1] / 1e6,
+                    janky));
+        }
+    }
+}
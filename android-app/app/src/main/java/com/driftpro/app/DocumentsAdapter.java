@@ -12,11 +12,16 @@ import java.util.List;
 public class DocumentsAdapter extends RecyclerView.Adapter<DocumentsAdapter.DocumentViewHolder> {
     private List<Document> documents;
     private OnDocumentClickListener listener;
+    private OnDocumentLongClickListener longClickListener;
 
     public interface OnDocumentClickListener {
         void onDocumentClick(Document document);
     }
 
+    public interface OnDocumentLongClickListener {
+        void onDocumentLongClick(Document document);
+    }
+
     public DocumentsAdapter(List<Document> documents, OnDocumentClickListener listener) {
         this.documents = documents;
         this.listener = listener;
@@ -41,6 +46,10 @@ public class DocumentsAdapter extends RecyclerView.Adapter<DocumentsAdapter.Docu
         return documents.size();
     }
 
+    public void setOnDocumentLongClickListener(OnDocumentLongClickListener longClickListener) {
+        this.longClickListener = longClickListener;
+    }
+
     public void updateDocuments(List<Document> newDocuments) {
         this.documents = newDocuments;
         notifyDataSetChanged();
@@ -48,6 +57,7 @@ public class DocumentsAdapter extends RecyclerView.Adapter<DocumentsAdapter.Docu
 
     class DocumentViewHolder extends RecyclerView.ViewHolder {
         private ImageView fileIcon;
+        private ImageView thumbnail;
         private TextView title;
         private TextView description;
         private TextView category;
@@ -57,6 +67,7 @@ public class DocumentsAdapter extends RecyclerView.Adapter<DocumentsAdapter.Docu
         public DocumentViewHolder(@NonNull View itemView) {
             super(itemView);
             fileIcon = itemView.findViewById(R.id.document_file_icon);
+            thumbnail = itemView.findViewById(R.id.document_thumbnail);
             title = itemView.findViewById(R.id.document_title);
             description = itemView.findViewById(R.id.document_description);
             category = itemView.findViewById(R.id.document_category);
@@ -69,6 +80,15 @@ public class DocumentsAdapter extends RecyclerView.Adapter<DocumentsAdapter.Docu
                     listener.onDocumentClick(documents.get(position));
                 }
             });
+
+            itemView.setOnLongClickListener(v -> {
+                int position = getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && longClickListener != null) {
+                    longClickListener.onDocumentLongClick(documents.get(position));
+                    return true;
+                }
+                return false;
+            });
         }
 
         public void bind(Document document) {
@@ -96,6 +116,10 @@ public class DocumentsAdapter extends RecyclerView.Adapter<DocumentsAdapter.Docu
                 fileIcon.setImageResource(R.drawable.ic_document);
                 fileIcon.setColorFilter(itemView.getContext().getResources().getColor(R.color.gray));
             }
+
+            // Thumbnail covers the file icon once decoded off the UI thread
+            int thumbnailSize = itemView.getResources().getDimensionPixelSize(R.dimen.document_thumbnail_size);
+            DocumentThumbnailLoader.getInstance(itemView.getContext()).load(document, thumbnail, thumbnailSize);
         }
     }
 } 
\ No newline at end of file
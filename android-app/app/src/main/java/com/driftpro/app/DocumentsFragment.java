@@ -1,14 +1,24 @@
 package com.driftpro.app;
 
+import android.content.ActivityNotFoundException;
 import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.OpenableColumns;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.webkit.MimeTypeMap;
 import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
+import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -16,12 +26,22 @@ import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
+import java.io.File;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 public class DocumentsFragment extends Fragment {
+    private static final int MAX_TAG_CHIPS = 10;
     private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private RecyclerView documentsRecyclerView;
@@ -29,10 +49,24 @@ public class DocumentsFragment extends Fragment {
     private List<Document> documents = new ArrayList<>();
     private EditText searchInput;
     private ChipGroup filterChipGroup;
+    private ChipGroup facetChipGroup;
     private TextView emptyStateText;
     private View emptyStateView;
     private View loadingView;
-    private String selectedCategory = null;
+    private DocumentFacetIndex facetIndex;
+    private final Map<String, Set<String>> selections = new HashMap<>();
+    private final Map<String, Chip> categoryChips = new HashMap<>();
+    private final Map<String, Chip> facetChips = new LinkedHashMap<>();
+    private DocumentCatalog catalog;
+    private DocumentFileCache fileCache;
+    private DocumentCounters counters;
+    private DocumentPinStore pinStore;
+    private DocumentPublisher publisher;
+    // Document getting a new version from the file being picked, or null for a new document
+    private Document publishTarget;
+    private final ActivityResultLauncher<String[]> pickFile =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::onFilePicked);
+    private final DocumentCatalog.CatalogListener catalogListener = this::onCatalogChanged;
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -41,11 +75,17 @@ public class DocumentsFragment extends Fragment {
         // Initialize Firebase
         db = FirebaseFirestore.getInstance();
         mAuth = FirebaseAuth.getInstance();
+        catalog = DocumentCatalog.getInstance(requireContext(), "company1"); // Replace with actual company ID
+        fileCache = DocumentFileCache.getInstance(requireContext());
+        counters = DocumentCounters.getInstance(requireContext());
+        pinStore = new DocumentPinStore(requireContext());
+        publisher = new DocumentPublisher(requireContext(), catalog);
         
         // Initialize views
         documentsRecyclerView = view.findViewById(R.id.documents_recycler_view);
         searchInput = view.findViewById(R.id.search_input);
         filterChipGroup = view.findViewById(R.id.filter_chip_group);
+        facetChipGroup = view.findViewById(R.id.facet_chip_group);
         emptyStateView = view.findViewById(R.id.empty_state);
         emptyStateText = view.findViewById(R.id.empty_state_text);
         loadingView = view.findViewById(R.id.loading_view);
@@ -53,12 +93,8 @@ public class DocumentsFragment extends Fragment {
         
         // Setup RecyclerView
         documentsRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
-        documentsAdapter = new DocumentsAdapter(documents, document -> {
-            // TODO: Open document viewer
-            // Intent intent = new Intent(getActivity(), DocumentViewerActivity.class);
-            // intent.putExtra("documentId", document.getId());
-            // startActivity(intent);
-        });
+        documentsAdapter = new DocumentsAdapter(documents, this::openDocument);
+        documentsAdapter.setOnDocumentLongClickListener(this::showDocumentOptions);
         documentsRecyclerView.setAdapter(documentsAdapter);
         
         // Setup search
@@ -84,9 +120,24 @@ public class DocumentsFragment extends Fragment {
         // Load documents
         loadDocuments();
         
+        // Pinned documents are refreshed in the background on Wi-Fi while charging
+        PinnedDocumentsSyncWorker.schedule(requireContext(), catalog.getCompanyId());
+        
         return view;
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        counters.flush();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        catalog.removeListener(catalogListener);
+    }
+
     private void setupFilterChips() {
         if (getContext() == null || filterChipGroup == null) return;
         
@@ -97,74 +148,156 @@ public class DocumentsFragment extends Fragment {
         allChip.setChecked(true);
         allChip.setOnCheckedChangeListener((buttonView, isChecked) -> {
             if (isChecked) {
-                selectedCategory = null;
+                selections.remove(DocumentFacetIndex.FACET_CATEGORY);
                 filterDocuments();
             }
         });
         filterChipGroup.addView(allChip);
         
-        // Add category chips
-        String[] categories = {"Sikkerhet", "Prosedyre", "Rapport", "Skjema", "Annet"};
-        for (String category : categories) {
+        // Add category chips, keyed by the stored category value
+        for (Document.DocumentCategory category : Document.DocumentCategory.values()) {
             Chip chip = new Chip(getContext());
-            chip.setText(category);
+            chip.setText(category.getDisplayName());
             chip.setCheckable(true);
             chip.setOnCheckedChangeListener((buttonView, isChecked) -> {
                 if (isChecked) {
-                    selectedCategory = category;
+                    selections.put(DocumentFacetIndex.FACET_CATEGORY, Collections.singleton(category.getValue()));
                     filterDocuments();
                 }
             });
+            // Long press keeps the whole category available offline
+            chip.setOnLongClickListener(v -> {
+                boolean pinned = pinStore.togglePinnedCategory(category.getValue());
+                onPinsChanged(category.getDisplayName(), pinned);
+                return true;
+            });
             filterChipGroup.addView(chip);
+            categoryChips.put(category.getValue(), chip);
         }
     }
 
-    private void loadDocuments() {
-        showLoading(true);
-        
-        db.collection("documents")
-            .whereEqualTo("companyId", "company1") // Replace with actual company ID
-            .get()
-            .addOnSuccessListener(queryDocumentSnapshots -> {
-                documents.clear();
-                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Document doc = Document.fromMap(document.getData());
-                    doc.setId(document.getId());
-                    documents.add(doc);
+    // Rebuilt whenever the catalog changes; department, file type and the most used tags
+    private void setupFacetChips() {
+        if (getContext() == null || facetChipGroup == null || facetIndex == null) return;
+        
+        facetChipGroup.removeAllViews();
+        facetChips.clear();
+        addFacetChips(DocumentFacetIndex.FACET_DEPARTMENT, facetIndex.getValues(DocumentFacetIndex.FACET_DEPARTMENT));
+        addFacetChips(DocumentFacetIndex.FACET_FILE_TYPE, facetIndex.getValues(DocumentFacetIndex.FACET_FILE_TYPE));
+        List<String> tags = facetIndex.getValues(DocumentFacetIndex.FACET_TAG);
+        addFacetChips(DocumentFacetIndex.FACET_TAG, tags.subList(0, Math.min(MAX_TAG_CHIPS, tags.size())));
+        addFacetChips(DocumentFacetIndex.FACET_VISIBILITY, facetIndex.getValues(DocumentFacetIndex.FACET_VISIBILITY));
+    }
+
+    private void addFacetChips(String facet, List<String> values) {
+        for (String value : values) {
+            Chip chip = new Chip(getContext());
+            chip.setCheckable(true);
+            Set<String> selected = selections.get(facet);
+            chip.setChecked(selected != null && selected.contains(value));
+            chip.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                Set<String> current = selections.get(facet);
+                if (current == null) {
+                    current = new HashSet<>();
+                    selections.put(facet, current);
+                }
+                if (isChecked) {
+                    current.add(value);
+                } else {
+                    current.remove(value);
                 }
-                
-                showLoading(false);
                 filterDocuments();
-            })
-            .addOnFailureListener(e -> {
-                showLoading(false);
-                showEmptyState("Feil ved lasting av dokumenter");
             });
+            facetChipGroup.addView(chip);
+            facetChips.put(facet + "=" + value, chip);
+        }
     }
 
-    private void filterDocuments() {
-        if (documentsAdapter == null) return;
+    private void updateChipCounts(Map<String, Map<String, Integer>> counts) {
+        Map<String, Integer> categoryCounts = counts.get(DocumentFacetIndex.FACET_CATEGORY);
+        for (Document.DocumentCategory category : Document.DocumentCategory.values()) {
+            Chip chip = categoryChips.get(category.getValue());
+            Integer count = categoryCounts != null ? categoryCounts.get(category.getValue()) : null;
+            if (chip != null) {
+                chip.setText(category.getDisplayName() + " (" + (count != null ? count : 0) + ")");
+            }
+        }
         
-        List<Document> filtered = new ArrayList<>();
-        String searchText = searchInput.getText().toString().toLowerCase();
+        for (Map.Entry<String, Chip> entry : facetChips.entrySet()) {
+            String[] parts = entry.getKey().split("=", 2);
+            Map<String, Integer> facetCounts = counts.get(parts[0]);
+            Integer count = facetCounts != null ? facetCounts.get(parts[1]) : null;
+            int value = count != null ? count : 0;
+            Chip chip = entry.getValue();
+            chip.setText(facetLabel(parts[0], parts[1]) + " (" + value + ")");
+            // Values that can't match anything are hidden unless the user selected them
+            chip.setVisibility(value > 0 || chip.isChecked() ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    private String facetLabel(String facet, String value) {
+        if (DocumentFacetIndex.FACET_FILE_TYPE.equals(facet)) {
+            return value.toUpperCase();
+        } else if (DocumentFacetIndex.FACET_TAG.equals(facet)) {
+            return "#" + value;
+        } else if (DocumentFacetIndex.FACET_VISIBILITY.equals(facet)) {
+            return DocumentFacetIndex.VISIBILITY_PUBLIC.equals(value) ? "Offentlig" : "Begrenset";
+        }
+        return value;
+    }
+
+    private void loadDocuments() {
+        catalog.addListener(catalogListener);
         
-        for (Document document : documents) {
-            boolean matchesSearch = searchText.isEmpty() ||
-                    document.getTitle().toLowerCase().contains(searchText) ||
-                    document.getDescription().toLowerCase().contains(searchText);
-            
-            boolean matchesCategory = selectedCategory == null ||
-                    document.getCategory().equals(selectedCategory);
-            
-            if (matchesSearch && matchesCategory) {
-                filtered.add(document);
+        // Serve the local copy immediately, then fetch only what changed since the last sync
+        catalog.load(localDocuments -> {
+            if (localDocuments.isEmpty()) {
+                showLoading(true);
+            } else {
+                onCatalogChanged(localDocuments);
             }
-        }
+            
+            catalog.sync(db, new DocumentCatalog.SyncCallback() {
+                @Override
+                public void onSynced(List<Document> syncedDocuments, int changedCount) {
+                    // Changes already arrived through the catalog listener
+                    if (changedCount == 0 && facetIndex == null) {
+                        onCatalogChanged(syncedDocuments);
+                    }
+                }
+
+                @Override
+                public void onSyncFailed(Exception e) {
+                    showLoading(false);
+                    if (documents.isEmpty()) {
+                        showEmptyState("Feil ved lasting av dokumenter");
+                    }
+                }
+            });
+        });
+    }
+
+    private void onCatalogChanged(List<Document> catalogDocuments) {
+        documents.clear();
+        documents.addAll(catalogDocuments);
+        facetIndex = new DocumentFacetIndex(documents);
+        setupFacetChips();
+        showLoading(false);
+        filterDocuments();
+    }
+
+    private void filterDocuments() {
+        if (documentsAdapter == null || facetIndex == null) return;
+        
+        String searchText = searchInput.getText().toString();
+        DocumentFacetIndex.Result result = facetIndex.query(selections, searchText);
+        List<Document> filtered = result.documents;
         
         documentsAdapter.updateDocuments(filtered);
+        updateChipCounts(result.counts);
         
         if (filtered.isEmpty()) {
-            showEmptyState(searchText.isEmpty() ? "Ingen dokumenter funnet" : "Ingen dokumenter matcher søket");
+            showEmptyState(searchText.trim().isEmpty() ? "Ingen dokumenter funnet" : "Ingen dokumenter matcher søket");
         } else {
             hideEmptyState();
         }
@@ -195,9 +328,202 @@ public class DocumentsFragment extends Fragment {
         loadingView.setVisibility(View.GONE);
     }
 
+    private void openDocument(Document document) {
+        if (getContext() == null) return;
+        
+        // Cached files open straight from disk; otherwise the download resumes where it stopped
+        boolean cached = fileCache.isCached(document.getFileURL(), document.getVersion());
+        if (!cached) {
+            Toast.makeText(getContext(), "Laster ned " + document.getTitle() + "...", Toast.LENGTH_SHORT).show();
+        }
+        
+        fileCache.get(document, new DocumentFileCache.DownloadCallback() {
+            @Override
+            public void onProgress(long bytesDownloaded, long totalBytes) {}
+
+            @Override
+            public void onReady(File file) {
+                // Counted locally and flushed in batches; see DocumentCounters
+                if (!cached) {
+                    counters.recordDownload(document.getId());
+                }
+                counters.recordView(document.getId());
+                viewFile(document, file);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (getContext() == null) return;
+                Toast.makeText(getContext(), "Feil ved nedlasting av dokument", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void togglePinnedDocument(Document document) {
+        if (document.isPinnedOffline()) {
+            // Pinned for everyone by an administrator
+            Toast.makeText(getContext(), document.getTitle() + " er alltid tilgjengelig offline", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        boolean pinned = pinStore.togglePinnedDocument(document.getId());
+        onPinsChanged(document.getTitle(), pinned);
+    }
+
+    private void onPinsChanged(String name, boolean pinned) {
+        if (getContext() == null) return;
+        
+        Toast.makeText(getContext(), name + (pinned ? ": Tilgjengelig offline" : ": Fjernet fra offline"),
+                Toast.LENGTH_SHORT).show();
+        PinnedDocumentsSyncWorker.syncNow(requireContext(), catalog.getCompanyId());
+    }
+
+    private void viewFile(Document document, File file) {
+        if (getContext() == null) return;
+        
+        // PDFs open in the in-app tiled viewer; other types are handed to an external app
+        if (file.getName().endsWith(".pdf")) {
+            Intent intent = new Intent(getActivity(), DocumentViewerActivity.class);
+            intent.putExtra(DocumentViewerActivity.EXTRA_FILE_PATH, file.getAbsolutePath());
+            intent.putExtra(DocumentViewerActivity.EXTRA_TITLE, document.getTitle());
+            intent.putExtra(DocumentViewerActivity.EXTRA_DOCUMENT_ID, document.getId());
+            startActivity(intent);
+            return;
+        }
+        
+        Uri uri = FileProvider.getUriForFile(requireContext(),
+                requireContext().getPackageName() + ".fileprovider", file);
+        String extension = MimeTypeMap.getFileExtensionFromUrl(file.getName());
+        String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setDataAndType(uri, mimeType != null ? mimeType : "*/*");
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        try {
+            startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(getContext(), "Ingen app kan åpne " + document.getFileName(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void showDocumentOptions(Document document) {
+        if (getContext() == null) return;
+        
+        boolean pinned = pinStore.isExplicitlyPinned(document);
+        String[] options = {pinned ? "Fjern fra offline" : "Tilgjengelig offline", "Publiser ny versjon", "Tidligere versjoner"};
+        
+        new AlertDialog.Builder(requireContext())
+            .setTitle(document.getTitle())
+            .setItems(options, (dialog, which) -> {
+                switch (which) {
+                    case 0: // Offline
+                        togglePinnedDocument(document);
+                        break;
+                    case 1: // New version
+                        publishTarget = document;
+                        pickFile.launch(new String[]{"*/*"});
+                        break;
+                    case 2: // History
+                        showVersions(document);
+                        break;
+                }
+            })
+            .show();
+    }
+
+    private void showVersions(Document document) {
+        publisher.loadVersions(document.getId(), new DocumentPublisher.VersionsCallback() {
+            @Override
+            public void onVersions(List<Document> versions) {
+                if (getContext() == null) return;
+                if (versions.isEmpty()) {
+                    Toast.makeText(getContext(), "Ingen tidligere versjoner", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                
+                SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy HH:mm", Locale.getDefault());
+                String[] labels = new String[versions.size()];
+                for (int i = 0; i < versions.size(); i++) {
+                    Document version = versions.get(i);
+                    labels[i] = "Versjon " + version.getVersion()
+                            + (version.getCreatedAt() != null ? " – " + dateFormat.format(version.getCreatedAt()) : "");
+                }
+                new AlertDialog.Builder(requireContext())
+                    .setTitle(document.getTitle())
+                    .setItems(labels, (dialog, which) -> openDocument(versions.get(which)))
+                    .setNegativeButton("Lukk", null)
+                    .show();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (getContext() == null) return;
+                Toast.makeText(getContext(), "Feil ved lasting av versjoner", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     private void openNewDocument() {
-        // TODO: Open new document upload
-        // Intent intent = new Intent(getActivity(), NewDocumentActivity.class);
-        // startActivity(intent);
+        publishTarget = null;
+        pickFile.launch(new String[]{"*/*"});
+    }
+
+    private void onFilePicked(Uri uri) {
+        if (uri == null || getContext() == null) return;
+        
+        // Keeps read access so an interrupted upload can resume after a restart
+        try {
+            requireContext().getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            // Not every provider grants persistable access; resuming then needs a new pick
+        }
+        
+        Document target = publishTarget;
+        publishTarget = null;
+        if (target == null) {
+            target = new Document();
+            target.setTitle(titleFromUri(uri));
+            target.setCategory(Document.DocumentCategory.OTHER);
+            target.setCompanyId(catalog.getCompanyId());
+            target.setPublic(true);
+            FirebaseUser user = mAuth.getCurrentUser();
+            if (user != null) {
+                target.setUploadedBy(user.getUid());
+                target.setUploadedByName(user.getDisplayName());
+            }
+        }
+        
+        Toast.makeText(getContext(), "Publiserer " + target.getTitle() + "...", Toast.LENGTH_SHORT).show();
+        publisher.publish(uri, target, new DocumentPublisher.PublishCallback() {
+            @Override
+            public void onProgress(long bytesUploaded, long totalBytes) {}
+
+            @Override
+            public void onPublished(Document document, boolean changed, boolean uploaded) {
+                if (getContext() == null) return;
+                String message = changed
+                        ? "Publisert versjon " + document.getVersion()
+                        : "Ingen endringer – versjon " + document.getVersion() + " beholdes";
+                Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (getContext() == null) return;
+                Toast.makeText(getContext(), "Feil ved publisering av dokument", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private String titleFromUri(Uri uri) {
+        String name = uri.getLastPathSegment();
+        try (Cursor cursor = requireContext().getContentResolver().query(uri,
+                new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                name = cursor.getString(0);
+            }
+        }
+        if (name == null) return "Nytt dokument";
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,68 @@
+package com.driftpro.app;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.List;
+
+public class EvidenceGalleryAdapter extends RecyclerView.Adapter<EvidenceGalleryAdapter.PhotoViewHolder> {
+    private final List<String> photoURLs;
+    private final OnPhotoClickListener listener;
+
+    public interface OnPhotoClickListener {
+        void onPhotoClick(String url);
+    }
+
+    public EvidenceGalleryAdapter(List<String> photoURLs, OnPhotoClickListener listener) {
+        this.photoURLs = photoURLs;
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public PhotoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_evidence_photo, parent, false);
+        return new PhotoViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position) {
+        holder.bind(photoURLs.get(position));
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull PhotoViewHolder holder) {
+        // Lets the loader drop the request if this cell scrolled away before its turn
+        EvidenceImageLoader.getInstance(holder.itemView.getContext()).cancel(holder.image);
+    }
+
+    @Override
+    public int getItemCount() {
+        return photoURLs.size();
+    }
+
+    class PhotoViewHolder extends RecyclerView.ViewHolder {
+        private ImageView image;
+
+        public PhotoViewHolder(@NonNull View itemView) {
+            super(itemView);
+            image = itemView.findViewById(R.id.evidence_image);
+
+            itemView.setOnClickListener(v -> {
+                int position = getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && listener != null) {
+                    listener.onPhotoClick(photoURLs.get(position));
+                }
+            });
+        }
+
+        public void bind(String url) {
+            int size = itemView.getResources().getDimensionPixelSize(R.dimen.evidence_thumbnail_size);
+            EvidenceImageLoader.getInstance(itemView.getContext()).loadThumbnail(url, image, size);
+        }
+    }
+}
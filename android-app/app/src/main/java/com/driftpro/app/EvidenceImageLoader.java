@@ -0,0 +1,380 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageReference;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Photos attached to deviations and comments. The grid only ever fetches the small
+// rendition stored next to each photo ({name}_thumb.jpg); the original is downloaded when a
+// photo is opened. Everything is decoded sampled to the view size and cached in memory and
+// on disk. Work is prioritised: the opened photo first, then the most recently bound
+// thumbnails (the ones on screen), then prefetch. Requests for views that were recycled
+// before their turn are dropped.
+public class EvidenceImageLoader {
+    public static final int THUMBNAIL_SIZE_PX = 320;
+    private static final String THUMBNAIL_SUFFIX = "_thumb.jpg";
+    private static final int PRIORITY_FULL = 0;
+    private static final int PRIORITY_VISIBLE = 1;
+    private static final int PRIORITY_PREFETCH = 2;
+    private static final long MAX_THUMBNAIL_BYTES = 512 * 1024;
+    private static final int MAX_MEMORY_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final int TIMEOUT_MS = 15000;
+    // Enough parallel requests to hide 4G latency without starving the opened photo
+    private static final int THREADS = 4;
+    private static EvidenceImageLoader instance;
+
+    private final File thumbnailDirectory;
+    private final File fullDirectory;
+    private final LruCache<String, Bitmap> memoryCache;
+    // Views waiting for each key; touched on the main thread only
+    private final Map<String, List<ImageView>> inFlight = new HashMap<>();
+    // Keys some view still wants, read by the workers to skip stale requests
+    private final Set<String> wanted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>());
+    private final AtomicLong sequence = new AtomicLong();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private EvidenceImageLoader(Context context) {
+        thumbnailDirectory = new File(context.getCacheDir(), "evidence_thumbnails");
+        fullDirectory = new File(context.getCacheDir(), "evidence_images");
+        thumbnailDirectory.mkdirs();
+        fullDirectory.mkdirs();
+        int cacheBytes = (int) Math.min(MAX_MEMORY_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    public static synchronized EvidenceImageLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new EvidenceImageLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Grid cell. Must be called on the main thread; recycled views are guarded by the view tag.
+    public void loadThumbnail(String url, ImageView imageView, int sizePx) {
+        String key = DocumentFileCache.keyFor(url, "thumb") + "@" + sizePx;
+        if (bindCached(key, imageView)) return;
+        request(key, imageView, PRIORITY_VISIBLE, () -> decodeThumbnail(url, sizePx));
+    }
+
+    // Opened photo. Shows the thumbnail straight away if it is in memory, then swaps in the
+    // original decoded to at most maxPx on its longer side.
+    public void loadFull(String url, ImageView imageView, int thumbnailSizePx, int maxPx) {
+        Bitmap thumbnail = memoryCache.get(DocumentFileCache.keyFor(url, "thumb") + "@" + thumbnailSizePx);
+        String key = DocumentFileCache.keyFor(url, "full") + "@" + maxPx;
+        if (bindCached(key, imageView)) return;
+        if (thumbnail != null) {
+            imageView.setImageBitmap(thumbnail);
+        }
+        request(key, imageView, PRIORITY_FULL, () -> decodeFull(url, maxPx));
+    }
+
+    // Downloads thumbnails for photos that are not on screen yet into the disk cache only
+    public void prefetchThumbnails(List<String> urls) {
+        for (String url : urls) {
+            File file = new File(thumbnailDirectory, DocumentFileCache.keyFor(url, "thumb") + ".jpg");
+            if (file.exists()) continue;
+            submit(PRIORITY_PREFETCH, () -> {
+                // A bound cell may have fetched it while this waited in the queue
+                if (file.exists()) return;
+                try {
+                    fetchThumbnail(url, file);
+                } catch (IOException | RuntimeException e) {
+                    // Fetched again when the cell is bound
+                }
+            });
+        }
+    }
+
+    // Call when a cell is recycled so its queued request can be skipped
+    public void cancel(ImageView imageView) {
+        Object key = imageView.getTag(R.id.evidence_image);
+        imageView.setTag(R.id.evidence_image, null);
+        if (!(key instanceof String)) return;
+        List<ImageView> waiting = inFlight.get(key);
+        if (waiting != null) {
+            waiting.remove(imageView);
+            if (waiting.isEmpty()) {
+                wanted.remove(key);
+            }
+        }
+    }
+
+    private boolean bindCached(String key, ImageView imageView) {
+        imageView.setTag(R.id.evidence_image, key);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            imageView.setImageBitmap(cached);
+            return true;
+        }
+        imageView.setImageDrawable(null);
+        return false;
+    }
+
+    private interface Decoder {
+        Bitmap decode() throws IOException;
+    }
+
+    private void request(String key, ImageView imageView, int priority, Decoder decoder) {
+        wanted.add(key);
+        List<ImageView> waiting = inFlight.get(key);
+        if (waiting != null) {
+            waiting.add(imageView);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(imageView);
+        inFlight.put(key, waiting);
+        enqueue(key, priority, decoder);
+    }
+
+    private void enqueue(String key, int priority, Decoder decoder) {
+        submit(priority, () -> {
+            if (!wanted.contains(key)) {
+                mainHandler.post(() -> {
+                    // The cell may have been bound to the same photo again in the meantime
+                    List<ImageView> waiting = inFlight.get(key);
+                    if (waiting != null && !waiting.isEmpty()) {
+                        wanted.add(key);
+                        enqueue(key, priority, decoder);
+                    } else {
+                        inFlight.remove(key);
+                    }
+                });
+                return;
+            }
+            Bitmap bitmap;
+            try {
+                bitmap = decoder.decode();
+            } catch (IOException | RuntimeException e) {
+                // Missing or damaged photo; the cell keeps its placeholder
+                bitmap = null;
+            }
+            Bitmap result = bitmap;
+            mainHandler.post(() -> deliver(key, result));
+        });
+    }
+
+    private void deliver(String key, Bitmap bitmap) {
+        List<ImageView> waiting = inFlight.remove(key);
+        wanted.remove(key);
+        if (bitmap == null) return;
+        // An original would push every thumbnail out of the cache; those stay on disk only
+        if (bitmap.getByteCount() <= memoryCache.maxSize() / 4) {
+            memoryCache.put(key, bitmap);
+        }
+        if (waiting == null) return;
+        for (ImageView imageView : waiting) {
+            if (key.equals(imageView.getTag(R.id.evidence_image))) {
+                imageView.setImageBitmap(bitmap);
+            }
+        }
+    }
+
+    private Bitmap decodeThumbnail(String url, int sizePx) throws IOException {
+        File file = new File(thumbnailDirectory, DocumentFileCache.keyFor(url, "thumb") + ".jpg");
+        if (!file.exists()) {
+            fetchThumbnail(url, file);
+        }
+        return decodeSampled(file, sizePx);
+    }
+
+    private void fetchThumbnail(String url, File target) throws IOException {
+        StorageReference thumbnail = thumbnailReference(url);
+        if (thumbnail != null) {
+            try {
+                byte[] bytes = Tasks.await(thumbnail.getBytes(MAX_THUMBNAIL_BYTES));
+                writeAtomically(bytes, target);
+                return;
+            } catch (ExecutionException e) {
+                // Photos uploaded before thumbnails existed; fall through to the original
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Avbrutt");
+            }
+        }
+        // Pay for the original once and keep a thumbnail of it, so the next visit is cheap
+        File full = fullFile(url);
+        if (!full.exists()) {
+            download(url, full);
+        }
+        createThumbnail(full, target);
+    }
+
+    private Bitmap decodeFull(String url, int maxPx) throws IOException {
+        File file = fullFile(url);
+        if (!file.exists()) {
+            download(url, file);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        // Sample on the longer side here: the whole photo has to fit the screen
+        int sampleSize = 1;
+        int longest = Math.max(options.outWidth, options.outHeight);
+        while (longest / (sampleSize * 2) >= maxPx) {
+            sampleSize *= 2;
+        }
+        options.inSampleSize = sampleSize;
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    private File fullFile(String url) {
+        return new File(fullDirectory, DocumentFileCache.keyFor(url, "full") + ".jpg");
+    }
+
+    // The small rendition sits next to the original in Storage: photo_0.jpg -> photo_0_thumb.jpg
+    static StorageReference thumbnailReference(String url) {
+        try {
+            StorageReference original = FirebaseStorage.getInstance().getReferenceFromUrl(url);
+            StorageReference parent = original.getParent();
+            if (parent == null) return null;
+            return parent.child(thumbnailName(original.getName()));
+        } catch (IllegalArgumentException e) {
+            // Not a Storage URL
+            return null;
+        }
+    }
+
+    static String thumbnailName(String originalName) {
+        int dot = originalName.lastIndexOf('.');
+        String base = dot > 0 ? originalName.substring(0, dot) : originalName;
+        return base + THUMBNAIL_SUFFIX;
+    }
+
+    // Also used by the outbox to produce the rendition it uploads next to each photo
+    static boolean createThumbnail(File source, File target) throws IOException {
+        Bitmap bitmap = decodeSampled(source, THUMBNAIL_SIZE_PX);
+        if (bitmap == null) return false;
+        File temp = tempFile(target);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 75, out);
+        } finally {
+            bitmap.recycle();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Kunne ikke lagre miniatyrbilde");
+        }
+        return true;
+    }
+
+    private static Bitmap decodeSampled(File file, int sizePx) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inSampleSize = DocumentThumbnailLoader.calculateInSampleSize(options.outWidth, options.outHeight, sizePx);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    private static void download(String url, File target) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Uventet svar fra server: " + connection.getResponseCode());
+            }
+            File temp = tempFile(target);
+            try (InputStream in = connection.getInputStream();
+                 FileOutputStream out = new FileOutputStream(temp)) {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Kunne ikke lagre bildet");
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void writeAtomically(byte[] bytes, File target) throws IOException {
+        File temp = tempFile(target);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Kunne ikke lagre miniatyrbilde");
+        }
+    }
+
+    // Prefetch and a bound cell can fetch the same file at once; each writes its own temp file
+    private static File tempFile(File target) {
+        return new File(target.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+    }
+
+    private void submit(int priority, Runnable work) {
+        executor.execute(new LoadTask(priority, sequence.getAndIncrement(), work));
+    }
+
+    // Lower priority value runs first; within a priority the newest request wins, since the
+    // cells bound last are the ones on screen after a fling
+    private static class LoadTask implements Runnable, Comparable<LoadTask> {
+        private final int priority;
+        private final long sequence;
+        private final Runnable work;
+
+        LoadTask(int priority, long sequence, Runnable work) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            work.run();
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(other.sequence, sequence);
+        }
+    }
+}
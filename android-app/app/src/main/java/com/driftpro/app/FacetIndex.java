@@ -0,0 +1,173 @@
+package com.driftpro.app;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Bitmap index shared by DocumentFacetIndex and DeviationFilterIndex. Every facet value owns a
+// BitSet of item ordinals; values within a facet are OR-ed, facets are AND-ed with each other
+// and with the text matches, which are narrowed incrementally as the query is typed. The
+// owning index decides what an item's facet values and search text are and fills them in
+// with add and setSearchText.
+class FacetIndex<T> {
+    private final List<T> items;
+    private final String[] facetNames;
+    private final String[] searchText;
+    private final Map<String, Map<String, BitSet>> facets = new HashMap<>();
+    private final BitSet all;
+    // Typing usually extends the previous query, so only its matches need rescanning
+    private String lastText;
+    private BitSet lastTextMatches;
+
+    static class Result<T> {
+        final List<T> items;
+        // facet -> value -> number of matches if that value were (also) selected
+        final Map<String, Map<String, Integer>> counts;
+        final long elapsedNanos;
+
+        Result(List<T> items, Map<String, Map<String, Integer>> counts, long elapsedNanos) {
+            this.items = items;
+            this.counts = counts;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    FacetIndex(List<T> items, String... facetNames) {
+        this.items = new ArrayList<>(items);
+        this.facetNames = facetNames;
+        int size = this.items.size();
+        searchText = new String[size];
+        all = new BitSet(size);
+        all.set(0, size);
+        for (String facet : facetNames) {
+            facets.put(facet, new LinkedHashMap<>());
+        }
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    T get(int ordinal) {
+        return items.get(ordinal);
+    }
+
+    // text must already be lower-cased
+    void setSearchText(int ordinal, String text) {
+        searchText[ordinal] = text;
+    }
+
+    void add(String facet, String value, int ordinal) {
+        Map<String, BitSet> values = facets.get(facet);
+        BitSet bits = values.get(value);
+        if (bits == null) {
+            bits = new BitSet(items.size());
+            values.put(value, bits);
+        }
+        bits.set(ordinal);
+    }
+
+    // Values of a facet, most common first
+    List<String> getValues(String facet) {
+        Map<String, BitSet> values = facets.get(facet);
+        if (values == null) return Collections.emptyList();
+        List<String> list = new ArrayList<>(values.keySet());
+        Collections.sort(list, (a, b) -> Integer.compare(values.get(b).cardinality(), values.get(a).cardinality()));
+        return list;
+    }
+
+    // selections: facet -> selected values; an empty or missing set means no filter on that
+    // facet. Counts are only worked out for countFacets.
+    Result<T> query(Map<String, Set<String>> selections, String text, String... countFacets) {
+        long start = System.nanoTime();
+
+        BitSet textMatches = matchText(text);
+        Map<String, BitSet> facetMatches = new HashMap<>();
+        for (String facet : facetNames) {
+            BitSet union = union(facet, selections != null ? selections.get(facet) : null);
+            if (union != null) {
+                facetMatches.put(facet, union);
+            }
+        }
+
+        BitSet matches = (BitSet) textMatches.clone();
+        for (BitSet union : facetMatches.values()) {
+            matches.and(union);
+        }
+
+        // Counts for a facet ignore that facet's own selection, so picking one value doesn't
+        // zero out its siblings
+        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        for (String facet : countFacets) {
+            BitSet base = (BitSet) textMatches.clone();
+            for (Map.Entry<String, BitSet> entry : facetMatches.entrySet()) {
+                if (!entry.getKey().equals(facet)) {
+                    base.and(entry.getValue());
+                }
+            }
+            Map<String, Integer> valueCounts = new LinkedHashMap<>();
+            Map<String, BitSet> values = facets.get(facet);
+            if (values != null) {
+                for (Map.Entry<String, BitSet> value : values.entrySet()) {
+                    BitSet intersection = (BitSet) value.getValue().clone();
+                    intersection.and(base);
+                    valueCounts.put(value.getKey(), intersection.cardinality());
+                }
+            }
+            counts.put(facet, valueCounts);
+        }
+
+        List<T> result = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            result.add(items.get(i));
+        }
+        return new Result<>(result, counts, System.nanoTime() - start);
+    }
+
+    private BitSet matchText(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return all;
+        }
+        String normalized = text.toLowerCase(Locale.ROOT).trim();
+        if (normalized.equals(lastText)) {
+            return lastTextMatches;
+        }
+        BitSet candidates = lastText != null && normalized.startsWith(lastText) ? lastTextMatches : all;
+        String[] terms = normalized.split("\\s+");
+        BitSet matches = new BitSet(items.size());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            boolean matchesAll = true;
+            for (String term : terms) {
+                if (searchText[i] == null || !searchText[i].contains(term)) {
+                    matchesAll = false;
+                    break;
+                }
+            }
+            if (matchesAll) {
+                matches.set(i);
+            }
+        }
+        lastText = normalized;
+        lastTextMatches = matches;
+        return matches;
+    }
+
+    private BitSet union(String facet, Set<String> values) {
+        if (values == null || values.isEmpty()) return null;
+        BitSet union = new BitSet(items.size());
+        Map<String, BitSet> index = facets.get(facet);
+        for (String value : values) {
+            BitSet bits = index.get(value);
+            if (bits != null) {
+                union.or(bits);
+            }
+        }
+        return union;
+    }
+}
@@ -0,0 +1,172 @@
+package com.driftpro.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Geohash encoding and radius covering for location queries on Firestore. A geohash sorts
+// nearby points next to each other, so a circle can be read as a few orderBy("geohash")
+// range queries instead of a scan. Cells are chosen at bit precision rather than whole
+// characters, which keeps the covered area close to the circle itself.
+public class Geohash {
+    public static final int PRECISION = 10;
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    private static final int MAX_BITS = PRECISION * 5;
+    private static final double EARTH_RADIUS_M = 6371008.8;
+    private static final double METERS_PER_DEGREE_LAT = 111320;
+
+    // Inclusive bounds for one startAt/endAt query
+    public static class Range {
+        public final String start;
+        public final String end;
+
+        Range(String start, String end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean contains(String hash) {
+            return hash.compareTo(start) >= 0 && hash.compareTo(end) <= 0;
+        }
+
+        @Override
+        public String toString() {
+            return start + ".." + end;
+        }
+    }
+
+    public static String encode(double latitude, double longitude) {
+        return toString(bits(latitude, longitude, MAX_BITS), MAX_BITS);
+    }
+
+    // The interleaved bits of a point, longitude first, as the first `bits` bits of a long
+    private static long bits(double latitude, double longitude, int bits) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        long value = 0;
+        for (int i = 0; i < bits; i++) {
+            value <<= 1;
+            if (i % 2 == 0) {
+                double mid = (minLon + maxLon) / 2;
+                if (longitude >= mid) {
+                    value |= 1;
+                    minLon = mid;
+                } else {
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    value |= 1;
+                    minLat = mid;
+                } else {
+                    maxLat = mid;
+                }
+            }
+        }
+        return value;
+    }
+
+    private static String toString(long value, int bits) {
+        StringBuilder builder = new StringBuilder();
+        for (int shift = bits - 5; shift >= 0; shift -= 5) {
+            builder.append(BASE32.charAt((int) ((value >> shift) & 31)));
+        }
+        return builder.toString();
+    }
+
+    // Ranges that together contain every point within radiusM of the centre. The cell size
+    // is the smallest at least as large as the radius, so the circle's bounding box touches
+    // at most four cells; cells that follow each other in hash order share one range.
+    public static List<Range> coveringRanges(double latitude, double longitude, double radiusM) {
+        int bits = bitsForRadius(latitude, radiusM);
+        double latDelta = radiusM / METERS_PER_DEGREE_LAT;
+        double lonDelta = radiusM / metersPerDegreeLon(latitude, latDelta);
+
+        List<Long> cells = new ArrayList<>();
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                double lat = clampLatitude(latitude + dy * latDelta);
+                double lon = wrapLongitude(longitude + dx * lonDelta);
+                long cell = bits(lat, lon, bits);
+                if (!cells.contains(cell)) {
+                    cells.add(cell);
+                }
+            }
+        }
+        Collections.sort(cells);
+
+        List<Range> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < cells.size()) {
+            long first = cells.get(i);
+            long last = first;
+            while (i + 1 < cells.size() && cells.get(i + 1) == last + 1) {
+                last = cells.get(++i);
+            }
+            ranges.add(new Range(lowerBound(first, bits), upperBound(last, bits)));
+            i++;
+        }
+        return ranges;
+    }
+
+    // Geohash interleaves longitude first, so b bits hold ceil(b/2) longitude bits and
+    // floor(b/2) latitude bits
+    static int bitsForRadius(double latitude, double radiusM) {
+        if (radiusM <= 0) return MAX_BITS;
+        double latDelta = radiusM / METERS_PER_DEGREE_LAT;
+        int latBits = (int) Math.floor(log2(180 * METERS_PER_DEGREE_LAT / radiusM));
+        int lonBits = (int) Math.floor(log2(360 * metersPerDegreeLon(latitude, latDelta) / radiusM));
+        int bits = Math.min(2 * lonBits, 2 * latBits + 1);
+        return Math.max(1, Math.min(MAX_BITS, bits));
+    }
+
+    // Smallest hash string in the cell: the full characters, plus the partial one at its lowest value
+    private static String lowerBound(long cell, int bits) {
+        int full = bits / 5;
+        int remainder = bits % 5;
+        String prefix = toString(cell >> remainder, full * 5);
+        if (remainder == 0) return prefix;
+        int partial = (int) (cell & ((1 << remainder) - 1)) << (5 - remainder);
+        return prefix + BASE32.charAt(partial);
+    }
+
+    // Largest: the partial character at its highest value, then '~', which sorts after base32
+    private static String upperBound(long cell, int bits) {
+        int full = bits / 5;
+        int remainder = bits % 5;
+        String prefix = toString(cell >> remainder, full * 5);
+        if (remainder == 0) return prefix + "~";
+        int partial = ((int) (cell & ((1 << remainder) - 1)) << (5 - remainder)) | ((1 << (5 - remainder)) - 1);
+        return prefix + BASE32.charAt(partial) + "~";
+    }
+
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // At the edge of the box nearest a pole, where a degree of longitude is shortest
+    private static double metersPerDegreeLon(double latitude, double latDelta) {
+        double edge = Math.min(89.9, Math.abs(latitude) + latDelta);
+        return METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(edge));
+    }
+
+    private static double clampLatitude(double latitude) {
+        return Math.max(-90, Math.min(90, latitude));
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude > 180) return longitude - 360;
+        if (longitude < -180) return longitude + 360;
+        return longitude;
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) / Math.log(2);
+    }
+}
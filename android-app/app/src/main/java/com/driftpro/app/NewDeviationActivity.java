@@ -0,0 +1,310 @@
+package com.driftpro.app;
+
+import android.Manifest;
+import android.location.Location;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.google.android.material.appbar.MaterialToolbar;
+import com.google.android.material.chip.Chip;
+import com.google.android.material.chip.ChipGroup;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.FirebaseFirestore;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Report form. Works fully offline: fields autosave to the draft store as they change, and
+// submitting hands the report to the outbox instead of writing to Firestore directly.
+public class NewDeviationActivity extends AppCompatActivity {
+    public static final String EXTRA_COMPANY_ID = "companyId";
+    private static final long DUPLICATE_LOOKUP_DELAY_MS = 250;
+    private static final int MAX_DUPLICATES = 3;
+
+    private DeviationDraftStore draftStore;
+    private EditText titleInput;
+    private EditText descriptionInput;
+    private EditText locationInput;
+    private TextView photoCountText;
+    private TextView positionText;
+    private View duplicatesSection;
+    private DeviationsAdapter duplicatesAdapter;
+    private final DeviationSimilarityIndex similarityIndex = new DeviationSimilarityIndex();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable duplicateLookup = this::findDuplicates;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ActivityResultLauncher<String> pickPhoto =
+            registerForActivityResult(new ActivityResultContracts.GetContent(), this::onPhotoPicked);
+    private final ActivityResultLauncher<String> locationPermission =
+            registerForActivityResult(new ActivityResultContracts.RequestPermission(), granted -> addPosition());
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_new_deviation);
+        draftStore = new DeviationDraftStore(this);
+
+        // Setup toolbar
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setTitle("Nytt avvik");
+        }
+
+        titleInput = findViewById(R.id.title_input);
+        descriptionInput = findViewById(R.id.description_input);
+        locationInput = findViewById(R.id.location_input);
+        photoCountText = findViewById(R.id.photo_count_text);
+        positionText = findViewById(R.id.position_text);
+
+        // Restore the draft before attaching the autosave watchers
+        titleInput.setText(draftStore.get(DeviationDraftStore.FIELD_TITLE));
+        descriptionInput.setText(draftStore.get(DeviationDraftStore.FIELD_DESCRIPTION));
+        locationInput.setText(draftStore.get(DeviationDraftStore.FIELD_LOCATION));
+        autosave(titleInput, DeviationDraftStore.FIELD_TITLE);
+        autosave(descriptionInput, DeviationDraftStore.FIELD_DESCRIPTION);
+        autosave(locationInput, DeviationDraftStore.FIELD_LOCATION);
+        setupDuplicates();
+
+        setupCategoryChips();
+        setupSeverityChips();
+        updatePhotoCount();
+        updatePosition();
+
+        findViewById(R.id.btn_add_position).setOnClickListener(v -> {
+            if (DeviceLocation.hasPermission(this)) {
+                addPosition();
+            } else {
+                locationPermission.launch(Manifest.permission.ACCESS_FINE_LOCATION);
+            }
+        });
+        findViewById(R.id.btn_add_photo).setOnClickListener(v -> pickPhoto.launch("image/*"));
+        findViewById(R.id.btn_submit).setOnClickListener(v -> submit());
+
+        if (draftStore.hasDraft() && savedInstanceState == null) {
+            Toast.makeText(this, "Fortsetter på lagret utkast", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void autosave(EditText input, String field) {
+        input.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                draftStore.put(field, s.toString());
+                handler.removeCallbacks(duplicateLookup);
+                handler.postDelayed(duplicateLookup, DUPLICATE_LOOKUP_DELAY_MS);
+            }
+        });
+    }
+
+    // Open deviations are indexed once when the form opens and kept current by the listener,
+    // so each lookup while typing only touches the index
+    private void setupDuplicates() {
+        duplicatesSection = findViewById(R.id.duplicates_section);
+        RecyclerView recyclerView = findViewById(R.id.duplicates_recycler_view);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        duplicatesAdapter = new DeviationsAdapter(new ArrayList<>(), deviation -> {
+            Intent intent = new Intent(this, DeviationDetailActivity.class);
+            intent.putExtra(DeviationDetailActivity.EXTRA_DEVIATION_ID, deviation.getId());
+            startActivity(intent);
+        });
+        recyclerView.setAdapter(duplicatesAdapter);
+
+        String companyId = getIntent().getStringExtra(EXTRA_COMPANY_ID);
+        similarityIndex.listen(FirebaseFirestore.getInstance(),
+                companyId != null ? companyId : "company1", // Replace with actual company ID
+                this::findDuplicates);
+    }
+
+    private void findDuplicates() {
+        String geohash = null;
+        String latitude = draftStore.get(DeviationDraftStore.FIELD_LATITUDE);
+        String longitude = draftStore.get(DeviationDraftStore.FIELD_LONGITUDE);
+        if (latitude != null && longitude != null) {
+            geohash = Geohash.encode(Double.parseDouble(latitude), Double.parseDouble(longitude));
+        }
+        List<DeviationSimilarityIndex.Match> matches = similarityIndex.findSimilar(
+                titleInput.getText().toString(),
+                descriptionInput.getText().toString(),
+                locationInput.getText().toString(),
+                geohash, MAX_DUPLICATES);
+        List<Deviation> duplicates = new ArrayList<>();
+        for (DeviationSimilarityIndex.Match match : matches) {
+            duplicates.add(match.deviation);
+        }
+        duplicatesAdapter.updateDeviations(duplicates);
+        duplicatesSection.setVisibility(duplicates.isEmpty() ? View.GONE : View.VISIBLE);
+    }
+
+    private void setupCategoryChips() {
+        ChipGroup group = findViewById(R.id.category_chip_group);
+        Deviation.DeviationCategory selected = Deviation.DeviationCategory.fromString(
+                draftStore.get(DeviationDraftStore.FIELD_CATEGORY));
+        for (Deviation.DeviationCategory category : Deviation.DeviationCategory.values()) {
+            Chip chip = new Chip(this);
+            chip.setText(category.getDisplayName());
+            chip.setCheckable(true);
+            chip.setChecked(category == selected);
+            chip.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                if (isChecked) {
+                    draftStore.put(DeviationDraftStore.FIELD_CATEGORY, category.getValue());
+                }
+            });
+            group.addView(chip);
+        }
+    }
+
+    private void setupSeverityChips() {
+        ChipGroup group = findViewById(R.id.severity_chip_group);
+        Deviation.DeviationSeverity selected = Deviation.DeviationSeverity.fromString(
+                draftStore.get(DeviationDraftStore.FIELD_SEVERITY));
+        for (Deviation.DeviationSeverity severity : Deviation.DeviationSeverity.values()) {
+            Chip chip = new Chip(this);
+            chip.setText(severity.getDisplayName());
+            chip.setCheckable(true);
+            chip.setChecked(severity == selected);
+            chip.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                if (isChecked) {
+                    draftStore.put(DeviationDraftStore.FIELD_SEVERITY, severity.getValue());
+                }
+            });
+            group.addView(chip);
+        }
+    }
+
+    // The picked image is copied into app storage right away; the source URI may not be
+    // readable any more by the time the report is uploaded
+    private void onPhotoPicked(Uri uri) {
+        if (uri == null) return;
+        executor.execute(() -> {
+            File directory = new File(getFilesDir(), "deviation_photos");
+            if (!directory.exists()) {
+                directory.mkdirs();
+            }
+            File photo = new File(directory, UUID.randomUUID() + ".jpg");
+            try (InputStream in = getContentResolver().openInputStream(uri);
+                 OutputStream out = new FileOutputStream(photo)) {
+                if (in == null) throw new IOException("Cannot open " + uri);
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                draftStore.addPhotoPath(photo.getAbsolutePath());
+                runOnUiThread(this::updatePhotoCount);
+            } catch (IOException | SecurityException e) {
+                photo.delete();
+                runOnUiThread(() -> Toast.makeText(this, "Kunne ikke legge til bildet", Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    // Coordinates are kept next to the free-text location, which still says where on site it is
+    private void addPosition() {
+        Location location = DeviceLocation.lastKnown(this);
+        if (location == null) {
+            Toast.makeText(this, "Fant ingen posisjon. Slå på posisjon og prøv igjen.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        draftStore.put(DeviationDraftStore.FIELD_LATITUDE, String.valueOf(location.getLatitude()));
+        draftStore.put(DeviationDraftStore.FIELD_LONGITUDE, String.valueOf(location.getLongitude()));
+        updatePosition();
+        findDuplicates();
+    }
+
+    private void updatePosition() {
+        String latitude = draftStore.get(DeviationDraftStore.FIELD_LATITUDE);
+        String longitude = draftStore.get(DeviationDraftStore.FIELD_LONGITUDE);
+        if (latitude == null || longitude == null) {
+            positionText.setText("Legg til posisjon");
+            return;
+        }
+        positionText.setText(String.format(Locale.ROOT, "Posisjon: %.5f, %.5f",
+                Double.parseDouble(latitude), Double.parseDouble(longitude)));
+    }
+
+    private void updatePhotoCount() {
+        int count = draftStore.getPhotoPaths().size();
+        photoCountText.setText(count == 0 ? "Legg til bilde" : count + " bilde(r) lagt til");
+    }
+
+    private void submit() {
+        String title = titleInput.getText().toString().trim();
+        if (title.isEmpty()) {
+            titleInput.setError("Tittel er påkrevd");
+            return;
+        }
+
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        String companyId = getIntent().getStringExtra(EXTRA_COMPANY_ID);
+        Deviation deviation = new Deviation(title,
+                descriptionInput.getText().toString().trim(),
+                Deviation.DeviationCategory.fromString(draftStore.get(DeviationDraftStore.FIELD_CATEGORY)),
+                Deviation.DeviationSeverity.fromString(draftStore.get(DeviationDraftStore.FIELD_SEVERITY)),
+                user != null ? user.getUid() : null,
+                companyId != null ? companyId : "company1", // Replace with actual company ID
+                locationInput.getText().toString().trim());
+        Date now = new Date();
+        deviation.setCreatedAt(now);
+        deviation.setUpdatedAt(now);
+        String latitude = draftStore.get(DeviationDraftStore.FIELD_LATITUDE);
+        String longitude = draftStore.get(DeviationDraftStore.FIELD_LONGITUDE);
+        if (latitude != null && longitude != null) {
+            deviation.setCoordinates(Double.parseDouble(latitude), Double.parseDouble(longitude));
+        }
+
+        DeviationOutbox.getInstance(this).enqueue(deviation, draftStore.getPhotoPaths());
+        draftStore.clear();
+        Toast.makeText(this, "Avvik lagret – sendes så snart du er på nett", Toast.LENGTH_SHORT).show();
+        finish();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(duplicateLookup);
+        similarityIndex.stop();
+        executor.shutdown();
+    }
+}
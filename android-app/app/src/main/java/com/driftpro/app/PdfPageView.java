@@ -0,0 +1,136 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import java.util.ArrayList;
+import java.util.List;
+
+// Draws one PDF page from renderer tiles, requesting only the tiles currently on screen
+public class PdfPageView extends View implements ViewTreeObserver.OnScrollChangedListener {
+    private final Rect visibleRect = new Rect();
+    private final Rect lastTileRange = new Rect();
+    private final Rect tileRect = new Rect();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private PdfTileRenderer renderer;
+    private int pageIndex = -1;
+    private OnPageDrawnListener onPageDrawnListener;
+    // Tiles the current display list draws, held in the renderer until the next draw or recycle
+    private List<Bitmap> drawnTiles = new ArrayList<>();
+
+    public interface OnPageDrawnListener {
+        void onPageDrawn(int pageIndex);
+    }
+
+    public PdfPageView(Context context) {
+        super(context);
+    }
+
+    public void bind(PdfTileRenderer renderer, int pageIndex) {
+        if (renderer != this.renderer) {
+            recycle();
+        }
+        this.renderer = renderer;
+        this.pageIndex = pageIndex;
+        lastTileRange.setEmpty();
+        requestLayout();
+        invalidate();
+    }
+
+    // The view will not draw its old display list again, so its tiles can be reused
+    public void recycle() {
+        if (renderer != null) {
+            renderer.releaseTiles(drawnTiles);
+        }
+        drawnTiles = new ArrayList<>();
+    }
+
+    public void setOnPageDrawnListener(OnPageDrawnListener listener) {
+        this.onPageDrawnListener = listener;
+    }
+
+    public int getPageIndex() {
+        return pageIndex;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int height = renderer != null && pageIndex >= 0
+                ? renderer.getPageHeightPx(pageIndex, width)
+                : width;
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawColor(Color.WHITE);
+        if (renderer == null) return;
+        List<Bitmap> previousTiles = drawnTiles;
+        drawnTiles = new ArrayList<>();
+        if (pageIndex >= 0 && getLocalVisibleRect(visibleRect)) {
+            drawTiles(canvas);
+        }
+        // Retained before releasing, so a tile drawn both times is never pooled in between
+        renderer.retainTiles(drawnTiles);
+        renderer.releaseTiles(previousTiles);
+    }
+
+    private void drawTiles(Canvas canvas) {
+        int tile = PdfTileRenderer.TILE_SIZE;
+        int firstCol = visibleRect.left / tile;
+        int lastCol = (visibleRect.right - 1) / tile;
+        int firstRow = visibleRect.top / tile;
+        int lastRow = (visibleRect.bottom - 1) / tile;
+        lastTileRange.set(firstCol, firstRow, lastCol, lastRow);
+
+        boolean complete = true;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                Bitmap bitmap = renderer.getTile(pageIndex, col, row);
+                if (bitmap == null || bitmap.isRecycled()) {
+                    complete = false;
+                    continue;
+                }
+                tileRect.set(col * tile, row * tile, (col + 1) * tile, (row + 1) * tile);
+                canvas.drawBitmap(bitmap, null, tileRect, paint);
+                drawnTiles.add(bitmap);
+            }
+        }
+
+        if (complete && onPageDrawnListener != null) {
+            onPageDrawnListener.onPageDrawn(pageIndex);
+        }
+    }
+
+    // Scrolling a parent reuses this view's display list without calling onDraw, so redraw
+    // whenever the set of visible tiles changes
+    @Override
+    public void onScrollChanged() {
+        if (!getLocalVisibleRect(visibleRect)) return;
+        int tile = PdfTileRenderer.TILE_SIZE;
+        if (lastTileRange.left != visibleRect.left / tile
+                || lastTileRange.top != visibleRect.top / tile
+                || lastTileRange.right != (visibleRect.right - 1) / tile
+                || lastTileRange.bottom != (visibleRect.bottom - 1) / tile) {
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnScrollChangedListener(this);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(this);
+        super.onDetachedFromWindow();
+    }
+}
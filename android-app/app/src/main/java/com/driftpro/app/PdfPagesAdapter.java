@@ -0,0 +1,62 @@
+package com.driftpro.app;
+
+import android.view.ViewGroup;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+public class PdfPagesAdapter extends RecyclerView.Adapter<PdfPagesAdapter.PageViewHolder> {
+    private final PdfTileRenderer renderer;
+    private final int pageSpacingPx;
+    private int pageCount;
+    private PdfPageView.OnPageDrawnListener onPageDrawnListener;
+
+    public PdfPagesAdapter(PdfTileRenderer renderer, int pageSpacingPx) {
+        this.renderer = renderer;
+        this.pageSpacingPx = pageSpacingPx;
+    }
+
+    public void setPageCount(int pageCount) {
+        this.pageCount = pageCount;
+        notifyDataSetChanged();
+    }
+
+    public void setOnPageDrawnListener(PdfPageView.OnPageDrawnListener listener) {
+        this.onPageDrawnListener = listener;
+    }
+
+    @NonNull
+    @Override
+    public PageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        PdfPageView pageView = new PdfPageView(parent.getContext());
+        RecyclerView.LayoutParams params = new RecyclerView.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        params.bottomMargin = pageSpacingPx;
+        pageView.setLayoutParams(params);
+        return new PageViewHolder(pageView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull PageViewHolder holder, int position) {
+        holder.pageView.setOnPageDrawnListener(onPageDrawnListener);
+        holder.pageView.bind(renderer, position);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull PageViewHolder holder) {
+        holder.pageView.recycle();
+    }
+
+    @Override
+    public int getItemCount() {
+        return pageCount;
+    }
+
+    static class PageViewHolder extends RecyclerView.ViewHolder {
+        private final PdfPageView pageView;
+
+        public PageViewHolder(@NonNull PdfPageView pageView) {
+            super(pageView);
+            this.pageView = pageView;
+        }
+    }
+}
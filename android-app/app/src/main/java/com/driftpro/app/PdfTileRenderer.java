@@ -0,0 +1,365 @@
+package com.driftpro.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.pdf.PdfRenderer;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Renders PDF pages as fixed-size tiles on a single background thread. Tiles for the
+// visible pages are rendered before prefetched neighbours and live in a byte-bounded LRU
+// cache. Tile bitmaps are reused through a small pool instead of being allocated per tile.
+// A page view's display list can be replayed without onDraw, so an evicted tile only goes
+// back to the pool once every page view that drew it has drawn again or been recycled.
+public class PdfTileRenderer {
+    public static final int TILE_SIZE = 256;
+    private static final int PRIORITY_CLOSE = 0;
+    private static final int PRIORITY_VISIBLE = 1;
+    private static final int PRIORITY_PREFETCH = 2;
+    private static final int PRIORITY_PAGE_SIZES = 3;
+    // Pages whose sizes are known before the list is first shown; about a screenful
+    private static final int INITIAL_PAGES = 3;
+    private static final int PAGE_SIZES_PER_TASK = 16;
+    private static final int PREFETCH_DISTANCE = 1;
+    private static final int MAX_CACHE_BYTES = 32 * 1024 * 1024;
+    // 16 tiles of 256 KB
+    private static final int MAX_POOL_SIZE = 16;
+
+    private final ParcelFileDescriptor descriptor;
+    private final PdfRenderer renderer;
+    private final int pageCount;
+    // Filled in on the main thread as sizes are read; 0 until then
+    private final int[] pageWidths;
+    private final int[] pageHeights;
+    private final LruCache<String, Bitmap> tileCache;
+    // Spare bitmaps, taken on the render thread and returned on the main thread
+    private final ArrayDeque<Bitmap> bitmapPool = new ArrayDeque<>();
+    // Number of page views whose display list draws each tile; main thread only
+    private final Map<Bitmap, Integer> drawnTiles = new IdentityHashMap<>();
+    // Evicted tiles still drawn by a page view, pooled when the last one lets go
+    private final Set<Bitmap> evictedTiles = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    // Tiles queued or rendering; touched on the main thread only
+    private final Set<String> pending = new HashSet<>();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>());
+    private final AtomicLong sequence = new AtomicLong();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile int pageWidthPx;
+    private volatile int firstVisiblePage;
+    private volatile int lastVisiblePage;
+    private volatile boolean closed;
+    private TileListener listener;
+    private PageSizeListener pageSizeListener;
+
+    public interface TileListener {
+        void onTileReady(int pageIndex);
+    }
+
+    public interface PageSizeListener {
+        void onPageSizesChanged(int firstPage, int count);
+    }
+
+    public PdfTileRenderer(File file) throws IOException {
+        descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        renderer = new PdfRenderer(descriptor);
+        pageCount = renderer.getPageCount();
+        pageWidths = new int[pageCount];
+        pageHeights = new int[pageCount];
+
+        // Keep the tile cache well below the heap limit so large manuals fit on 2 GB devices
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        int cacheBytes = (int) Math.min(MAX_CACHE_BYTES, maxMemory / 8);
+        tileCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (drawnTiles.containsKey(oldValue)) {
+                    evictedTiles.add(oldValue);
+                } else {
+                    releaseBitmap(oldValue);
+                }
+            }
+        };
+    }
+
+    // Reads the sizes of the first pages and then runs onLoaded, so the list can be shown
+    // without opening every page of a long manual first. Pages not read yet are laid out with
+    // the first page's proportions; the rest are read behind any tile work, and pages whose
+    // proportions turn out different are reported to the page size listener.
+    public void loadPageSizes(Runnable onLoaded) {
+        int initial = Math.min(INITIAL_PAGES, pageCount);
+        submit(PRIORITY_VISIBLE, () -> {
+            int[] sizes = readPageSizes(0, initial);
+            mainHandler.post(() -> {
+                if (closed || sizes == null) return;
+                storePageSizes(0, sizes);
+                onLoaded.run();
+                for (int start = initial; start < pageCount; start += PAGE_SIZES_PER_TASK) {
+                    loadRemainingPageSizes(start, Math.min(start + PAGE_SIZES_PER_TASK, pageCount));
+                }
+            });
+        });
+    }
+
+    private void loadRemainingPageSizes(int from, int to) {
+        submit(PRIORITY_PAGE_SIZES, () -> {
+            int[] sizes = readPageSizes(from, to);
+            mainHandler.post(() -> {
+                if (closed || sizes == null) return;
+                int first = -1;
+                int last = -1;
+                for (int i = from; i < to; i++) {
+                    int width = sizes[(i - from) * 2];
+                    int height = sizes[(i - from) * 2 + 1];
+                    if (pageWidths[0] != 0 && (long) width * pageHeights[0] != (long) pageWidths[0] * height) {
+                        if (first < 0) first = i;
+                        last = i;
+                    }
+                }
+                storePageSizes(from, sizes);
+                if (first >= 0 && pageSizeListener != null) {
+                    pageSizeListener.onPageSizesChanged(first, last - first + 1);
+                }
+            });
+        });
+    }
+
+    // Runs on the render thread. Width and height of each page in turn, or null once closed.
+    private int[] readPageSizes(int from, int to) {
+        int[] sizes = new int[(to - from) * 2];
+        for (int i = from; i < to; i++) {
+            if (closed) return null;
+            PdfRenderer.Page page = renderer.openPage(i);
+            sizes[(i - from) * 2] = page.getWidth();
+            sizes[(i - from) * 2 + 1] = page.getHeight();
+            page.close();
+        }
+        return sizes;
+    }
+
+    private void storePageSizes(int from, int[] sizes) {
+        for (int i = 0; i < sizes.length / 2; i++) {
+            pageWidths[from + i] = sizes[i * 2];
+            pageHeights[from + i] = sizes[i * 2 + 1];
+        }
+    }
+
+    public void setPageSizeListener(PageSizeListener listener) {
+        this.pageSizeListener = listener;
+    }
+
+    public void setTileListener(TileListener listener) {
+        this.listener = listener;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getPageHeightPx(int pageIndex, int widthPx) {
+        int index = pageWidths[pageIndex] != 0 ? pageIndex : 0;
+        if (pageWidths[index] == 0) return widthPx;
+        return (int) ((long) widthPx * pageHeights[index] / pageWidths[index]);
+    }
+
+    // Called when the zoom level changes; tiles rendered for the old width are discarded
+    public void setPageWidth(int widthPx) {
+        if (widthPx == pageWidthPx) return;
+        pageWidthPx = widthPx;
+        tileCache.evictAll();
+        pending.clear();
+    }
+
+    public void setVisibleRange(int firstPage, int lastPage) {
+        firstVisiblePage = firstPage;
+        lastVisiblePage = lastPage;
+    }
+
+    // Returns the cached tile, or null after queueing it for rendering
+    public Bitmap getTile(int pageIndex, int col, int row) {
+        return requestTile(pageIndex, col, row, PRIORITY_VISIBLE);
+    }
+
+    // Queues the tiles of a neighbouring page that will scroll into view first
+    public void prefetch(int pageIndex, int left, int right, int top, int bottom) {
+        if (pageIndex < 0 || pageIndex >= pageCount || pageWidthPx == 0) return;
+        int pageHeight = getPageHeightPx(pageIndex, pageWidthPx);
+        int firstCol = Math.max(0, left / TILE_SIZE);
+        int lastCol = Math.min((pageWidthPx - 1) / TILE_SIZE, (right - 1) / TILE_SIZE);
+        int firstRow = Math.max(0, top / TILE_SIZE);
+        int lastRow = Math.min((pageHeight - 1) / TILE_SIZE, (bottom - 1) / TILE_SIZE);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                requestTile(pageIndex, col, row, PRIORITY_PREFETCH);
+            }
+        }
+    }
+
+    private Bitmap requestTile(int pageIndex, int col, int row, int priority) {
+        int widthPx = pageWidthPx;
+        if (closed || widthPx == 0) return null;
+        String key = tileKey(pageIndex, widthPx, col, row);
+        Bitmap tile = tileCache.get(key);
+        if (tile != null || !pending.add(key)) {
+            return tile;
+        }
+
+        submit(priority, () -> {
+            // Skip work that went stale while queued: zoom changed or page scrolled far away
+            if (closed || widthPx != pageWidthPx
+                    || pageIndex < firstVisiblePage - PREFETCH_DISTANCE
+                    || pageIndex > lastVisiblePage + PREFETCH_DISTANCE) {
+                mainHandler.post(() -> pending.remove(key));
+                return;
+            }
+            Bitmap bitmap = renderTile(pageIndex, widthPx, col, row);
+            mainHandler.post(() -> {
+                pending.remove(key);
+                if (closed || widthPx != pageWidthPx) {
+                    releaseBitmap(bitmap);
+                    return;
+                }
+                tileCache.put(key, bitmap);
+                if (listener != null) {
+                    listener.onTileReady(pageIndex);
+                }
+            });
+        });
+        return null;
+    }
+
+    // Called by a page view after each draw with the tiles its new display list draws
+    public void retainTiles(List<Bitmap> tiles) {
+        for (Bitmap tile : tiles) {
+            Integer count = drawnTiles.get(tile);
+            drawnTiles.put(tile, count != null ? count + 1 : 1);
+        }
+    }
+
+    // Called with the tiles of a page view's previous display list, once it has drawn again or
+    // been recycled. The render thread may still be drawing the last frame that used them, so
+    // they are let go after the current frame has been handed over.
+    public void releaseTiles(List<Bitmap> tiles) {
+        if (tiles.isEmpty()) return;
+        mainHandler.post(() -> {
+            if (closed) return;
+            for (Bitmap tile : tiles) {
+                Integer count = drawnTiles.get(tile);
+                if (count == null) continue;
+                if (count > 1) {
+                    drawnTiles.put(tile, count - 1);
+                    continue;
+                }
+                drawnTiles.remove(tile);
+                if (evictedTiles.remove(tile)) {
+                    releaseBitmap(tile);
+                }
+            }
+        });
+    }
+
+    private Bitmap acquireBitmap() {
+        synchronized (bitmapPool) {
+            Bitmap bitmap = bitmapPool.poll();
+            if (bitmap != null) return bitmap;
+        }
+        return Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    private void releaseBitmap(Bitmap bitmap) {
+        if (closed) return;
+        synchronized (bitmapPool) {
+            if (bitmapPool.size() < MAX_POOL_SIZE) {
+                bitmapPool.push(bitmap);
+            }
+        }
+    }
+
+    private Bitmap renderTile(int pageIndex, int widthPx, int col, int row) {
+        Bitmap bitmap = acquireBitmap();
+        // PdfRenderer does not paint the page background
+        bitmap.eraseColor(Color.WHITE);
+        PdfRenderer.Page page = renderer.openPage(pageIndex);
+        float scale = (float) widthPx / page.getWidth();
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(-col * TILE_SIZE, -row * TILE_SIZE);
+        page.render(bitmap, null, matrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+        page.close();
+        return bitmap;
+    }
+
+    public void close() {
+        closed = true;
+        tileCache.evictAll();
+        drawnTiles.clear();
+        evictedTiles.clear();
+        synchronized (bitmapPool) {
+            bitmapPool.clear();
+        }
+        // Close on the render thread so an in-flight render finishes first
+        submit(PRIORITY_CLOSE, () -> {
+            renderer.close();
+            try {
+                descriptor.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        });
+        executor.shutdown();
+    }
+
+    private void submit(int priority, Runnable work) {
+        executor.execute(new RenderTask(priority, sequence.getAndIncrement(), work));
+    }
+
+    private static String tileKey(int pageIndex, int widthPx, int col, int row) {
+        return pageIndex + ":" + widthPx + ":" + col + ":" + row;
+    }
+
+    // Lower priority value runs first; equal priorities run in submission order
+    private static class RenderTask implements Runnable, Comparable<RenderTask> {
+        private final int priority;
+        private final long sequence;
+        private final Runnable work;
+
+        RenderTask(int priority, long sequence, Runnable work) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            work.run();
+        }
+
+        @Override
+        public int compareTo(RenderTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import com.google.firebase.firestore.FirebaseFirestore;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Keeps pinned documents available offline. Runs only on unmetered networks while charging,
+// refreshes the catalog, and downloads just the pinned files whose version or updatedAt
+// changed since the last run, within the storage budget.
+public class PinnedDocumentsSyncWorker extends Worker {
+    public static final String KEY_COMPANY_ID = "companyId";
+    public static final String KEY_DONE = "done";
+    public static final String KEY_TOTAL = "total";
+    public static final String KEY_SKIPPED = "skipped";
+    public static final String KEY_BYTES_DOWNLOADED = "bytesDownloaded";
+    public static final String KEY_BYTES_SAVED = "bytesSaved";
+    private static final String PERIODIC_WORK_NAME = "pinned-documents-sync";
+    private static final String IMMEDIATE_WORK_NAME = "pinned-documents-sync-now";
+    private static final long SYNC_INTERVAL_HOURS = 6;
+    private static final long DOWNLOAD_TIMEOUT_MINUTES = 30;
+
+    public PinnedDocumentsSyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    public static void schedule(Context context, String companyId) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                PinnedDocumentsSyncWorker.class, SYNC_INTERVAL_HOURS, TimeUnit.HOURS)
+            .setConstraints(constraints())
+            .setInputData(new Data.Builder().putString(KEY_COMPANY_ID, companyId).build())
+            .build();
+        WorkManager.getInstance(context)
+            .enqueueUniquePeriodicWork(PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    // Runs as soon as the constraints allow, e.g. right after the user pins something
+    public static void syncNow(Context context, String companyId) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(PinnedDocumentsSyncWorker.class)
+            .setConstraints(constraints())
+            .setInputData(new Data.Builder().putString(KEY_COMPANY_ID, companyId).build())
+            .build();
+        WorkManager.getInstance(context)
+            .enqueueUniqueWork(IMMEDIATE_WORK_NAME, ExistingWorkPolicy.REPLACE, request);
+    }
+
+    private static Constraints constraints() {
+        return new Constraints.Builder()
+            .setRequiredNetworkType(NetworkType.UNMETERED)
+            .setRequiresCharging(true)
+            .setRequiresStorageNotLow(true)
+            .build();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        String companyId = getInputData().getString(KEY_COMPANY_ID);
+        if (companyId == null) {
+            return Result.failure();
+        }
+
+        List<Document> documents = syncCatalog(DocumentCatalog.getInstance(context, companyId));
+        if (documents == null) {
+            return Result.retry();
+        }
+
+        DocumentPinStore pins = new DocumentPinStore(context);
+        List<Document> pinned = new ArrayList<>();
+        for (Document document : documents) {
+            if (pins.isPinned(document)) {
+                pinned.add(document);
+            }
+        }
+        // Explicit pins claim the budget before whole categories, newest first within each
+        Collections.sort(pinned, (a, b) -> {
+            boolean explicitA = pins.isExplicitlyPinned(a);
+            boolean explicitB = pins.isExplicitlyPinned(b);
+            if (explicitA != explicitB) return explicitA ? -1 : 1;
+            long left = a.getUpdatedAt() != null ? a.getUpdatedAt().getTime() : 0;
+            long right = b.getUpdatedAt() != null ? b.getUpdatedAt().getTime() : 0;
+            return Long.compare(right, left);
+        });
+
+        long budget = pins.getStorageBudgetBytes();
+        long planned = 0;
+        int skipped = 0;
+        List<Document> selected = new ArrayList<>();
+        Set<String> pinnedKeys = new HashSet<>();
+        for (Document document : pinned) {
+            if (planned + document.getFileSize() > budget) {
+                skipped++;
+                continue;
+            }
+            planned += document.getFileSize();
+            selected.add(document);
+            pinnedKeys.add(DocumentFileCache.keyFor(document.getFileURL(), document.getVersion()));
+        }
+
+        // Protect the selected files from LRU eviction before downloading anything
+        DocumentFileCache cache = DocumentFileCache.getInstance(context);
+        pins.setPinnedFileKeys(pinnedKeys);
+        cache.setPinnedKeys(pinnedKeys);
+
+        long bytesDownloaded = 0;
+        long bytesSaved = 0;
+        int failures = 0;
+        for (int i = 0; i < selected.size(); i++) {
+            if (isStopped()) {
+                return Result.retry();
+            }
+            Document document = selected.get(i);
+            long updatedAt = document.getUpdatedAt() != null ? document.getUpdatedAt().getTime() : 0;
+            long syncedUpdatedAt = pins.getSyncedUpdatedAt(document.getId());
+            boolean cached = cache.isCached(document.getFileURL(), document.getVersion());
+
+            // The cache key includes the version, so a cached file is only stale when the
+            // document was updated without bumping its version
+            if (cached && (syncedUpdatedAt == 0 || syncedUpdatedAt >= updatedAt)) {
+                bytesSaved += document.getFileSize();
+                pins.setSyncedUpdatedAt(document.getId(), updatedAt);
+            } else {
+                if (cached) {
+                    cache.remove(document.getFileURL(), document.getVersion());
+                }
+                File file = fetch(cache, document);
+                if (file != null) {
+                    bytesDownloaded += file.length();
+                    pins.setSyncedUpdatedAt(document.getId(), updatedAt);
+                } else {
+                    failures++;
+                }
+            }
+
+            setProgressAsync(report(i + 1, selected.size(), skipped, bytesDownloaded, bytesSaved));
+        }
+
+        pins.saveSyncReport(selected.size(), skipped, bytesDownloaded, bytesSaved);
+        Data output = report(selected.size(), selected.size(), skipped, bytesDownloaded, bytesSaved);
+        return failures > 0 ? Result.retry() : Result.success(output);
+    }
+
+    // Brings the local catalog up to date; falls back to the local copy when offline. If the
+    // app is already syncing, this waits for that sync instead of starting another.
+    private List<Document> syncCatalog(DocumentCatalog catalog) {
+        CountDownLatch latch = new CountDownLatch(1);
+        List<List<Document>> result = new ArrayList<>();
+        catalog.sync(FirebaseFirestore.getInstance(), new DocumentCatalog.SyncCallback() {
+            @Override
+            public void onSynced(List<Document> documents, int changedCount) {
+                result.add(documents);
+                latch.countDown();
+            }
+
+            @Override
+            public void onSyncFailed(Exception e) {
+                catalog.load(documents -> {
+                    result.add(documents);
+                    latch.countDown();
+                });
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    private File fetch(DocumentFileCache cache, Document document) {
+        CountDownLatch latch = new CountDownLatch(1);
+        File[] result = new File[1];
+        cache.get(document, new DocumentFileCache.DownloadCallback() {
+            @Override
+            public void onProgress(long bytesDownloaded, long totalBytes) {}
+
+            @Override
+            public void onReady(File file) {
+                result[0] = file;
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await(DOWNLOAD_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result[0];
+    }
+
+    private static Data report(int done, int total, int skipped, long bytesDownloaded, long bytesSaved) {
+        return new Data.Builder()
+            .putInt(KEY_DONE, done)
+            .putInt(KEY_TOTAL, total)
+            .putInt(KEY_SKIPPED, skipped)
+            .putLong(KEY_BYTES_DOWNLOADED, bytesDownloaded)
+            .putLong(KEY_BYTES_SAVED, bytesSaved)
+            .build();
+    }
+}
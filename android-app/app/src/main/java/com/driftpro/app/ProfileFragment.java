@@ -24,6 +24,8 @@ public class ProfileFragment extends Fragment {
     private RecyclerView menuRecyclerView;
     private ProfileStatsAdapter statsAdapter;
     private MenuAdapter menuAdapter;
+    private final List<StatItem> stats = new ArrayList<>();
+    private StatItem reportedDeviationsItem;
     private TextView userName;
     private TextView userEmail;
     private TextView userRole;
@@ -46,6 +48,7 @@ public class ProfileFragment extends Fragment {
         initializeViews(view);
         setupRecyclerViews();
         loadUserData();
+        loadUserStats();
         loadCompanyData();
         
         return view;
@@ -73,8 +76,9 @@ public class ProfileFragment extends Fragment {
     private void setupRecyclerViews() {
         // Setup stats
         statsRecyclerView.setLayoutManager(new GridLayoutManager(getContext(), 3));
-        List<StatItem> stats = new ArrayList<>();
-        stats.add(new StatItem("Rapporterte avvik", "12", R.drawable.ic_warning, R.color.orange));
+        stats.clear();
+        reportedDeviationsItem = new StatItem("Rapporterte avvik", "–", R.drawable.ic_warning, R.color.orange);
+        stats.add(reportedDeviationsItem);
         stats.add(new StatItem("Opplastede dokumenter", "8", R.drawable.ic_document, R.color.blue));
         stats.add(new StatItem("Dager siden oppstart", "45", R.drawable.ic_calendar, R.color.green));
         
@@ -120,6 +124,23 @@ public class ProfileFragment extends Fragment {
         }
     }
 
+    private void loadUserStats() {
+        if (mAuth.getCurrentUser() == null) return;
+        DeviationStats.load(DeviationStats.userDocument(db, mAuth.getCurrentUser().getUid()), new DeviationStats.LoadCallback() {
+            @Override
+            public void onLoaded(DeviationStats deviationStats) {
+                if (!isAdded()) return;
+                reportedDeviationsItem.value = String.valueOf(deviationStats.getTotal());
+                statsAdapter.notifyItemChanged(stats.indexOf(reportedDeviationsItem));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // Keep the placeholder
+            }
+        });
+    }
+
     private void loadCompanyData() {
         // Load company data from Firestore
         db.collection("companies").document("company1").get() // Replace with actual company ID
@@ -0,0 +1,263 @@
+package com.driftpro.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Time from createdAt to resolvedAt, per category and severity, for one company. Resolved
+// deviations are streamed in resolvedAt order a page at a time and folded into one sketch
+// per month and group; only the sketches are kept, so memory depends on the number of months,
+// not deviations. Sketches and the position reached are cached on disk, and each refresh
+// reads only what was resolved since. A deviation reopened and resolved again gets a new
+// resolvedAt and is counted once more, as a second resolution. Needs a composite index on
+// companyId + resolvedAt.
+public class ResolutionAnalytics {
+    public static final String GROUP_ALL = "all";
+    private static final int PAGE_SIZE = 500;
+    private static ResolutionAnalytics instance;
+
+    private final File directory;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // onRefreshed may run twice, cached and then current; onError follows if the stream stopped early
+    public interface RefreshCallback {
+        void onRefreshed(Result result);
+        void onError(Exception e);
+    }
+
+    // Month ("yyyy-MM") -> group -> sketch, plus where the stream stopped
+    public static class Result {
+        final Map<String, Map<String, ResolutionTimeSketch>> periods = new HashMap<>();
+        // Kept as seconds and nanos; millis would re-read the last deviation of a page
+        long lastSeconds;
+        int lastNanos;
+        String lastId;
+
+        // Sketch for one group over the given months, merged on the fly
+        public ResolutionTimeSketch sketch(String group, List<String> months) {
+            ResolutionTimeSketch merged = new ResolutionTimeSketch();
+            for (String month : months) {
+                Map<String, ResolutionTimeSketch> groups = periods.get(month);
+                ResolutionTimeSketch sketch = groups != null ? groups.get(group) : null;
+                if (sketch != null) {
+                    merged.merge(sketch);
+                }
+            }
+            return merged;
+        }
+    }
+
+    private ResolutionAnalytics(Context context) {
+        directory = new File(context.getFilesDir(), "resolution_analytics");
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+    }
+
+    public static synchronized ResolutionAnalytics getInstance(Context context) {
+        if (instance == null) {
+            instance = new ResolutionAnalytics(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public static String groupFor(Deviation.DeviationCategory category) {
+        return "category:" + category.getValue();
+    }
+
+    public static String groupFor(Deviation.DeviationSeverity severity) {
+        return "severity:" + severity.getValue();
+    }
+
+    // The current month and the count - 1 before it, newest first
+    public static List<String> lastMonths(int count) {
+        List<String> months = new ArrayList<>();
+        Calendar calendar = Calendar.getInstance();
+        for (int i = 0; i < count; i++) {
+            months.add(monthKey(calendar.getTime()));
+            calendar.add(Calendar.MONTH, -1);
+        }
+        return months;
+    }
+
+    // Reports the cache right away, then again once whatever was resolved since is streamed in.
+    // Callbacks run on the main thread.
+    public void refresh(String companyId, RefreshCallback callback) {
+        executor.execute(() -> {
+            File file = new File(directory, companyId + ".json");
+            Result cached = read(file);
+            if (!cached.periods.isEmpty()) {
+                mainHandler.post(() -> callback.onRefreshed(cached));
+            }
+            // Streamed into a separate copy so the one just posted is never touched off the main thread
+            Result result = read(file);
+            try {
+                stream(companyId, result, file);
+                mainHandler.post(() -> callback.onRefreshed(result));
+            } catch (ExecutionException | InterruptedException e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                // What was cached, and any pages streamed before the failure, is still valid
+                mainHandler.post(() -> {
+                    callback.onRefreshed(result);
+                    callback.onError(e);
+                });
+            }
+        });
+    }
+
+    private void stream(String companyId, Result result, File file) throws ExecutionException, InterruptedException {
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        while (true) {
+            Query query = db.collection("deviations")
+                .whereEqualTo("companyId", companyId)
+                // Also skips reopened deviations, whose resolvedAt is null and would sort first
+                .whereGreaterThan("resolvedAt", new Timestamp(0, 0))
+                .orderBy("resolvedAt", Query.Direction.ASCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING)
+                .limit(PAGE_SIZE);
+            if (result.lastId != null) {
+                query = query.startAfter(new Timestamp(result.lastSeconds, result.lastNanos), result.lastId);
+            }
+            QuerySnapshot page = Tasks.await(query.get());
+            for (DocumentSnapshot document : page.getDocuments()) {
+                add(result, document);
+            }
+            if (!page.isEmpty()) {
+                // Saved per page so an interrupted first run resumes instead of starting over
+                write(file, result);
+            }
+            if (page.size() < PAGE_SIZE) return;
+        }
+    }
+
+    private static void add(Result result, DocumentSnapshot document) {
+        Timestamp resolvedAt = document.getTimestamp("resolvedAt");
+        if (resolvedAt == null) return;
+        result.lastSeconds = resolvedAt.getSeconds();
+        result.lastNanos = resolvedAt.getNanoseconds();
+        result.lastId = document.getId();
+
+        Timestamp createdAt = document.getTimestamp("createdAt");
+        if (createdAt == null) return;
+        double minutes = (resolvedAt.toDate().getTime() - createdAt.toDate().getTime()) / 60000.0;
+
+        String month = monthKey(resolvedAt.toDate());
+        Map<String, ResolutionTimeSketch> groups = result.periods.get(month);
+        if (groups == null) {
+            groups = new HashMap<>();
+            result.periods.put(month, groups);
+        }
+        sketch(groups, GROUP_ALL).add(minutes);
+        String category = document.getString("category");
+        if (category != null) {
+            sketch(groups, groupFor(Deviation.DeviationCategory.fromString(category))).add(minutes);
+        }
+        String severity = document.getString("severity");
+        if (severity != null) {
+            sketch(groups, groupFor(Deviation.DeviationSeverity.fromString(severity))).add(minutes);
+        }
+    }
+
+    private static ResolutionTimeSketch sketch(Map<String, ResolutionTimeSketch> groups, String group) {
+        ResolutionTimeSketch sketch = groups.get(group);
+        if (sketch == null) {
+            sketch = new ResolutionTimeSketch();
+            groups.put(group, sketch);
+        }
+        return sketch;
+    }
+
+    static String monthKey(Date date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return String.format(Locale.ROOT, "%04d-%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+    }
+
+    private static Result read(File file) {
+        Result result = new Result();
+        if (!file.exists()) return result;
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) break;
+                offset += read;
+            }
+            JSONObject json = new JSONObject(new String(bytes, 0, offset, StandardCharsets.UTF_8));
+            result.lastSeconds = json.optLong("lastSeconds");
+            result.lastNanos = json.optInt("lastNanos");
+            result.lastId = json.has("lastId") ? json.getString("lastId") : null;
+            JSONObject periods = json.getJSONObject("periods");
+            for (Iterator<String> months = periods.keys(); months.hasNext(); ) {
+                String month = months.next();
+                JSONObject groupsJson = periods.getJSONObject(month);
+                Map<String, ResolutionTimeSketch> groups = new HashMap<>();
+                for (Iterator<String> names = groupsJson.keys(); names.hasNext(); ) {
+                    String group = names.next();
+                    groups.put(group, ResolutionTimeSketch.fromJson(groupsJson.getJSONObject(group)));
+                }
+                result.periods.put(month, groups);
+            }
+        } catch (IOException | JSONException e) {
+            // Unreadable cache; rebuilt from the start by this refresh
+            return new Result();
+        }
+        return result;
+    }
+
+    private static void write(File file, Result result) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("lastSeconds", result.lastSeconds);
+            json.put("lastNanos", result.lastNanos);
+            if (result.lastId != null) json.put("lastId", result.lastId);
+            JSONObject periods = new JSONObject();
+            for (Map.Entry<String, Map<String, ResolutionTimeSketch>> month : result.periods.entrySet()) {
+                JSONObject groups = new JSONObject();
+                for (Map.Entry<String, ResolutionTimeSketch> group : month.getValue().entrySet()) {
+                    groups.put(group.getKey(), group.getValue().toJson());
+                }
+                periods.put(month.getKey(), groups);
+            }
+            json.put("periods", periods);
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException | JSONException e) {
+            // The next refresh streams the same pages again
+        }
+    }
+}
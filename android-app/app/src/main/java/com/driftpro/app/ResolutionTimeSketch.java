@@ -0,0 +1,150 @@
+package com.driftpro.app;
+
+import java.util.Arrays;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Resolution times (minutes) for one group of deviations, in constant memory however many
+// are added. Quantiles come from log-spaced buckets, each 2% wider than the one before, so
+// any percentile is within 1% of the true value. Two sketches merge by adding their buckets,
+// which is what lets monthly sketches be cached and combined into any longer period.
+// The fixed histogram is kept alongside for the distribution view.
+public class ResolutionTimeSketch {
+    static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // The last bucket starts around 17 years; anything slower is counted there
+    private static final int MAX_BUCKETS = 800;
+    // Upper bounds in minutes: 4 hours, 1 day, 3 days, 1 week, 30 days, then everything above
+    public static final long[] HISTOGRAM_BOUNDS = { 4 * 60, 24 * 60, 3 * 24 * 60, 7 * 24 * 60, 30 * 24 * 60 };
+    public static final String[] HISTOGRAM_LABELS = { "< 4 t", "< 1 d", "< 3 d", "< 1 uke", "< 30 d", "30 d +" };
+
+    private long[] buckets = new long[0];
+    // Resolved within the first minute; below the smallest bucket
+    private long zeroCount;
+    private final long[] histogram = new long[HISTOGRAM_BOUNDS.length + 1];
+    private long count;
+    private double sum;
+    private double max;
+
+    public void add(double minutes) {
+        if (minutes < 0 || Double.isNaN(minutes)) return;
+        count++;
+        sum += minutes;
+        max = Math.max(max, minutes);
+        histogram[histogramIndex(minutes)]++;
+        if (minutes < 1) {
+            zeroCount++;
+            return;
+        }
+        int index = Math.min(MAX_BUCKETS - 1, (int) Math.ceil(Math.log(minutes) / LOG_GAMMA));
+        ensureCapacity(index + 1);
+        buckets[index]++;
+    }
+
+    public void merge(ResolutionTimeSketch other) {
+        ensureCapacity(other.buckets.length);
+        for (int i = 0; i < other.buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] += other.histogram[i];
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    // q in [0, 1]; returns minutes, or -1 when the sketch is empty
+    public double quantile(double q) {
+        if (count == 0) return -1;
+        long rank = (long) Math.floor(q * (count - 1));
+        if (rank < zeroCount) return 0;
+        long seen = zeroCount;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen > rank) {
+                // Midpoint of the bucket in relative terms, never above the largest value seen
+                double value = 2 * Math.pow(GAMMA, i) / (GAMMA + 1);
+                return Math.min(value, max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMinutes() {
+        return count == 0 ? -1 : sum / count;
+    }
+
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    private static int histogramIndex(double minutes) {
+        for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+            if (minutes < HISTOGRAM_BOUNDS[i]) return i;
+        }
+        return HISTOGRAM_BOUNDS.length;
+    }
+
+    private void ensureCapacity(int size) {
+        if (buckets.length < size) {
+            buckets = Arrays.copyOf(buckets, size);
+        }
+    }
+
+    // Approximate heap use, for checking the memory bound
+    long sizeInBytes() {
+        return 8L * buckets.length + 8L * histogram.length + 64;
+    }
+
+    // Buckets are written sparsely as [index, count] pairs; most of them are empty
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        JSONArray sparse = new JSONArray();
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != 0) {
+                sparse.put(i).put(buckets[i]);
+            }
+        }
+        json.put("buckets", sparse);
+        json.put("zero", zeroCount);
+        JSONArray hist = new JSONArray();
+        for (long value : histogram) {
+            hist.put(value);
+        }
+        json.put("histogram", hist);
+        json.put("count", count);
+        json.put("sum", sum);
+        json.put("max", max);
+        return json;
+    }
+
+    public static ResolutionTimeSketch fromJson(JSONObject json) throws JSONException {
+        ResolutionTimeSketch sketch = new ResolutionTimeSketch();
+        JSONArray sparse = json.getJSONArray("buckets");
+        for (int i = 0; i + 1 < sparse.length(); i += 2) {
+            int index = sparse.getInt(i);
+            if (index < 0 || index >= MAX_BUCKETS) continue;
+            sketch.ensureCapacity(index + 1);
+            sketch.buckets[index] = sparse.getLong(i + 1);
+        }
+        sketch.zeroCount = json.optLong("zero");
+        JSONArray hist = json.optJSONArray("histogram");
+        if (hist != null) {
+            for (int i = 0; i < Math.min(hist.length(), sketch.histogram.length); i++) {
+                sketch.histogram[i] = hist.getLong(i);
+            }
+        }
+        sketch.count = json.optLong("count");
+        sketch.sum = json.optDouble("sum", 0);
+        sketch.max = json.optDouble("max", 0);
+        return sketch;
+    }
+}
@@ -0,0 +1,163 @@
+package com.driftpro.app;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.material.appbar.MaterialToolbar;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Drill-down from one cell of the risk matrix. The engine knows which deviations are in the
+// cell; their documents are fetched a page at a time as the list is scrolled.
+public class RiskCellActivity extends AppCompatActivity {
+    public static final String EXTRA_LIKELIHOOD = "likelihood";
+    public static final String EXTRA_CONSEQUENCE = "consequence";
+    private static final String TAG = "RiskCell";
+    private static final int PAGE_SIZE = 25;
+    private static final int PREFETCH_THRESHOLD = 5;
+    // Most values a single whereIn accepts
+    private static final int MAX_IN_VALUES = 10;
+
+    private FirebaseFirestore db;
+    private int likelihood;
+    private int consequence;
+    private List<String> ids;
+    private int loadedCount;
+    private boolean loading;
+    private final List<Deviation> deviations = new ArrayList<>();
+    private DeviationsAdapter adapter;
+    private LinearLayoutManager layoutManager;
+    private TextView emptyStateText;
+    private final Runnable engineObserver = this::onEngineUpdated;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_risk_cell);
+        db = FirebaseFirestore.getInstance();
+        likelihood = getIntent().getIntExtra(EXTRA_LIKELIHOOD, 1);
+        consequence = getIntent().getIntExtra(EXTRA_CONSEQUENCE, 1);
+
+        // Setup toolbar
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setTitle("Sannsynlighet " + likelihood + " × konsekvens " + consequence);
+        }
+
+        emptyStateText = findViewById(R.id.empty_state_text);
+        RecyclerView recyclerView = findViewById(R.id.deviations_recycler_view);
+        layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        adapter = new DeviationsAdapter(deviations, deviation -> {
+            Intent intent = new Intent(this, DeviationDetailActivity.class);
+            intent.putExtra(DeviationDetailActivity.EXTRA_DEVIATION_ID, deviation.getId());
+            startActivity(intent);
+        });
+        recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0) return;
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= deviations.size() - PREFETCH_THRESHOLD) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        RiskMatrixEngine.getInstance().addObserver(db, "company1", engineObserver); // Replace with actual company ID
+    }
+
+    // The cell's members are taken once, when the engine first has them, so the list does
+    // not reshuffle under the user as deviations change
+    private void onEngineUpdated() {
+        if (ids != null) return;
+        ids = RiskMatrixEngine.getInstance().getDeviationIds(likelihood, consequence);
+        if (ids.isEmpty()) {
+            emptyStateText.setVisibility(View.VISIBLE);
+            return;
+        }
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (ids == null || loading || loadedCount >= ids.size()) return;
+        loading = true;
+        List<String> page = ids.subList(loadedCount, Math.min(loadedCount + PAGE_SIZE, ids.size()));
+        List<Task<QuerySnapshot>> queries = new ArrayList<>();
+        for (int i = 0; i < page.size(); i += MAX_IN_VALUES) {
+            // Summaries hold every row field; a deviation archived or deleted since the matrix
+            // was built has none and is left out
+            queries.add(DeviationSummary.collection(db)
+                .whereIn(FieldPath.documentId(), new ArrayList<>(page.subList(i, Math.min(i + MAX_IN_VALUES, page.size()))))
+                .get());
+        }
+        int pageSize = page.size();
+        List<String> pageIds = new ArrayList<>(page);
+        Tasks.<QuerySnapshot>whenAllSuccess(queries)
+            .addOnSuccessListener(results -> {
+                Map<String, Deviation> byId = new HashMap<>();
+                for (QuerySnapshot result : results) {
+                    for (DocumentSnapshot document : result.getDocuments()) {
+                        Deviation deviation = Deviation.fromMap(document.getData());
+                        deviation.setId(document.getId());
+                        byId.put(document.getId(), deviation);
+                    }
+                }
+                // whereIn returns documents in id order; keep the engine's newest-first order
+                int start = deviations.size();
+                for (String id : pageIds) {
+                    Deviation deviation = byId.get(id);
+                    if (deviation != null) {
+                        deviations.add(deviation);
+                    }
+                }
+                loadedCount += pageSize;
+                loading = false;
+                adapter.notifyAppended(deviations, deviations.size() - start);
+                if (deviations.isEmpty() && loadedCount >= ids.size()) {
+                    emptyStateText.setVisibility(View.VISIBLE);
+                }
+                if (deviations.size() - start < PREFETCH_THRESHOLD) {
+                    // Mostly deleted since; keep filling the screen
+                    loadNextPage();
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error loading deviations", e);
+                loading = false;
+            });
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        RiskMatrixEngine.getInstance().removeObserver(engineObserver);
+    }
+}
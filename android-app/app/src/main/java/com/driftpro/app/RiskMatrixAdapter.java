@@ -0,0 +1,78 @@
+package com.driftpro.app;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.List;
+
+// Cells of the risk matrix in row order, highest likelihood first; lay out with a grid of
+// RiskMatrixEngine.CONSEQUENCE_LEVELS columns
+public class RiskMatrixAdapter extends RecyclerView.Adapter<RiskMatrixAdapter.CellViewHolder> {
+    private List<RiskMatrixEngine.Cell> cells = new ArrayList<>();
+    private final OnCellClickListener listener;
+
+    public interface OnCellClickListener {
+        void onCellClick(RiskMatrixEngine.Cell cell);
+    }
+
+    public RiskMatrixAdapter(OnCellClickListener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public CellViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_risk_cell, parent, false);
+        return new CellViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull CellViewHolder holder, int position) {
+        holder.bind(cells.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return cells.size();
+    }
+
+    public void updateCells(List<RiskMatrixEngine.Cell> newCells) {
+        this.cells = newCells;
+        notifyDataSetChanged();
+    }
+
+    static int colorFor(int score) {
+        if (score >= 12) return R.color.red;
+        if (score >= 8) return R.color.orange;
+        if (score >= 4) return R.color.yellow;
+        return R.color.green;
+    }
+
+    class CellViewHolder extends RecyclerView.ViewHolder {
+        private final TextView count;
+
+        CellViewHolder(@NonNull View itemView) {
+            super(itemView);
+            count = itemView.findViewById(R.id.risk_cell_count);
+            itemView.setOnClickListener(v -> {
+                int position = getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && cells.get(position).count > 0) {
+                    listener.onCellClick(cells.get(position));
+                }
+            });
+        }
+
+        void bind(RiskMatrixEngine.Cell cell) {
+            count.setText(cell.count > 0 ? String.valueOf(cell.count) : "");
+            count.setBackgroundColor(ContextCompat.getColor(itemView.getContext(), colorFor(cell.getScore())));
+            // Empty cells keep their colour for orientation but step back
+            count.setAlpha(cell.count > 0 ? 1f : 0.35f);
+        }
+    }
+}
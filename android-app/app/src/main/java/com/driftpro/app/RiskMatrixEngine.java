@@ -0,0 +1,351 @@
+package com.driftpro.app;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Places open deviations in a likelihood x consequence matrix. Consequence is the severity.
+// Likelihood comes from how often the same category has been reported at the same location,
+// weighted by recency: each report counts 1 when new and half as much every HALF_LIFE_DAYS.
+// Every report counts, whatever its status, so a spot where the same problem keeps coming
+// back stays likely even when each report is closed quickly; only open deviations are placed
+// in cells. Reports older than HORIZON_HALF_LIVES half-lives are worth under 1/64 and are not
+// read. Deviations are grouped by location and category, and a whole group shares one likelihood,
+// so a new report only updates its own group's decayed count and moves that group's per-severity
+// counts between rows. That is constant work however many deviations are open.
+public class RiskMatrixEngine {
+    public static final int LIKELIHOOD_LEVELS = 5;
+    public static final int CONSEQUENCE_LEVELS = Deviation.DeviationSeverity.values().length;
+    static final double HALF_LIFE_DAYS = 30;
+    private static final double DECAY_PER_MS = Math.log(2) / (HALF_LIFE_DAYS * 24 * 60 * 60 * 1000);
+    private static final int HORIZON_HALF_LIVES = 6;
+    // Decayed report count at which each likelihood from 2 and up starts
+    private static final double[] LIKELIHOOD_THRESHOLDS = { 1.5, 3, 6, 12 };
+    private static RiskMatrixEngine instance;
+
+    private final Map<String, Group> groups = new HashMap<>();
+    // Open deviations, placed in cells
+    private final Map<String, Member> members = new HashMap<>();
+    // Recent reports of any status, counted towards their group's likelihood
+    private final Map<String, Report> reports = new HashMap<>();
+    // Deviation count per cell, [likelihood - 1][consequence - 1]
+    private final int[][] cells = new int[LIKELIHOOD_LEVELS][CONSEQUENCE_LEVELS];
+    private final List<Runnable> observers = new ArrayList<>();
+    private ListenerRegistration openRegistration;
+    private ListenerRegistration reportsRegistration;
+    private boolean openLoaded;
+    private boolean reportsLoaded;
+
+    private static class Group {
+        // Decayed count as of referenceTime
+        double score;
+        long referenceTime;
+        int reportCount;
+        int likelihood = 1;
+        final int[] bySeverity = new int[CONSEQUENCE_LEVELS];
+        // Members per severity, for drill-down
+        final List<Set<String>> ids = new ArrayList<>();
+
+        Group(long referenceTime) {
+            this.referenceTime = referenceTime;
+            for (int i = 0; i < CONSEQUENCE_LEVELS; i++) {
+                ids.add(new LinkedHashSet<>());
+            }
+        }
+
+        double scoreAt(long time) {
+            return score * Math.exp(-DECAY_PER_MS * (time - referenceTime));
+        }
+
+        void addScore(double amount, long time) {
+            score = Math.max(0, scoreAt(time) + amount);
+            referenceTime = time;
+        }
+    }
+
+    private static class Member {
+        final String group;
+        final int consequence;
+        final long createdAt;
+
+        Member(String group, int consequence, long createdAt) {
+            this.group = group;
+            this.consequence = consequence;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static class Report {
+        final String group;
+        final long createdAt;
+
+        Report(String group, long createdAt) {
+            this.group = group;
+            this.createdAt = createdAt;
+        }
+    }
+
+    public static class Cell {
+        public final int likelihood;
+        public final int consequence;
+        public final int count;
+
+        Cell(int likelihood, int consequence, int count) {
+            this.likelihood = likelihood;
+            this.consequence = consequence;
+            this.count = count;
+        }
+
+        public int getScore() {
+            return likelihood * consequence;
+        }
+    }
+
+    public static synchronized RiskMatrixEngine getInstance() {
+        if (instance == null) {
+            instance = new RiskMatrixEngine();
+        }
+        return instance;
+    }
+
+    // The snapshot listeners run only while something is observing; the first call starts them
+    public void addObserver(FirebaseFirestore db, String companyId, Runnable observer) {
+        observers.add(observer);
+        if (openRegistration == null) {
+            listen(db, companyId);
+        } else if (isLoaded()) {
+            observer.run();
+        }
+    }
+
+    public void removeObserver(Runnable observer) {
+        observers.remove(observer);
+        if (observers.isEmpty() && openRegistration != null) {
+            openRegistration.remove();
+            reportsRegistration.remove();
+            openRegistration = null;
+            reportsRegistration = null;
+            openLoaded = false;
+            reportsLoaded = false;
+            clear();
+        }
+    }
+
+    public boolean isLoaded() {
+        return openLoaded && reportsLoaded;
+    }
+
+    private void listen(FirebaseFirestore db, String companyId) {
+        openRegistration = DeviationSummary.collection(db)
+            .whereEqualTo("companyId", companyId)
+            .whereIn("status", Arrays.asList(
+                    Deviation.DeviationStatus.REPORTED.getValue(),
+                    Deviation.DeviationStatus.UNDER_REVIEW.getValue(),
+                    Deviation.DeviationStatus.IN_PROGRESS.getValue()))
+            .addSnapshotListener((snapshots, e) -> {
+                if (e != null || snapshots == null) return;
+                for (DocumentChange change : snapshots.getDocumentChanges()) {
+                    DocumentSnapshot document = change.getDocument();
+                    removeOpen(document.getId());
+                    if (change.getType() != DocumentChange.Type.REMOVED) {
+                        addOpen(toDeviation(document));
+                    }
+                }
+                openLoaded = true;
+                notifyObservers();
+            });
+
+        long horizonMs = (long) (HORIZON_HALF_LIVES * HALF_LIFE_DAYS * 24 * 60 * 60 * 1000);
+        reportsRegistration = DeviationSummary.collection(db)
+            .whereEqualTo("companyId", companyId)
+            .whereGreaterThanOrEqualTo("createdAt", new Timestamp(new Date(System.currentTimeMillis() - horizonMs)))
+            .addSnapshotListener((snapshots, e) -> {
+                if (e != null || snapshots == null) return;
+                for (DocumentChange change : snapshots.getDocumentChanges()) {
+                    DocumentSnapshot document = change.getDocument();
+                    removeReport(document.getId());
+                    if (change.getType() != DocumentChange.Type.REMOVED) {
+                        addReport(toDeviation(document));
+                    }
+                }
+                reportsLoaded = true;
+                notifyObservers();
+            });
+    }
+
+    private static Deviation toDeviation(DocumentSnapshot document) {
+        Deviation deviation = Deviation.fromMap(document.getData());
+        deviation.setId(document.getId());
+        return deviation;
+    }
+
+    private void notifyObservers() {
+        if (!isLoaded()) return;
+        for (Runnable observer : new ArrayList<>(observers)) {
+            observer.run();
+        }
+    }
+
+    void addReport(Deviation deviation) {
+        if (deviation.getId() == null || reports.containsKey(deviation.getId())) return;
+        String key = groupKey(deviation);
+        long createdAt = createdAt(deviation);
+        Group group = group(key, createdAt);
+        reports.put(deviation.getId(), new Report(key, createdAt));
+        group.reportCount++;
+        long at = Math.max(group.referenceTime, createdAt);
+        group.addScore(weightAt(createdAt, at), at);
+        updateLikelihood(group, System.currentTimeMillis());
+    }
+
+    void removeReport(String deviationId) {
+        Report report = reports.remove(deviationId);
+        if (report == null) return;
+        Group group = groups.get(report.group);
+        group.reportCount--;
+        group.addScore(-weightAt(report.createdAt, group.referenceTime), group.referenceTime);
+        removeIfUnused(report.group, group);
+    }
+
+    void addOpen(Deviation deviation) {
+        if (deviation.getId() == null || members.containsKey(deviation.getId())) return;
+        String key = groupKey(deviation);
+        int consequence = consequence(deviation.getSeverity());
+        long createdAt = createdAt(deviation);
+        Group group = group(key, createdAt);
+        members.put(deviation.getId(), new Member(key, consequence, createdAt));
+
+        group.bySeverity[consequence - 1]++;
+        group.ids.get(consequence - 1).add(deviation.getId());
+        cells[group.likelihood - 1][consequence - 1]++;
+    }
+
+    void removeOpen(String deviationId) {
+        Member member = members.remove(deviationId);
+        if (member == null) return;
+        Group group = groups.get(member.group);
+        group.bySeverity[member.consequence - 1]--;
+        group.ids.get(member.consequence - 1).remove(deviationId);
+        cells[group.likelihood - 1][member.consequence - 1]--;
+        removeIfUnused(member.group, group);
+    }
+
+    private Group group(String key, long createdAt) {
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group(createdAt);
+            groups.put(key, group);
+        }
+        return group;
+    }
+
+    private void removeIfUnused(String key, Group group) {
+        if (group.reportCount == 0 && isEmpty(group)) {
+            groups.remove(key);
+        } else {
+            updateLikelihood(group, System.currentTimeMillis());
+        }
+    }
+
+    private static long createdAt(Deviation deviation) {
+        return deviation.getCreatedAt() != null ? deviation.getCreatedAt().getTime() : System.currentTimeMillis();
+    }
+
+    // A report made at `time` is worth 1 then; this is its worth at `at`
+    private static double weightAt(long time, long at) {
+        return Math.exp(-DECAY_PER_MS * (at - time));
+    }
+
+    private void updateLikelihood(Group group, long now) {
+        int likelihood = likelihood(group.scoreAt(now));
+        if (likelihood == group.likelihood) return;
+        for (int i = 0; i < CONSEQUENCE_LEVELS; i++) {
+            cells[group.likelihood - 1][i] -= group.bySeverity[i];
+            cells[likelihood - 1][i] += group.bySeverity[i];
+        }
+        group.likelihood = likelihood;
+    }
+
+    // Older reports keep fading while nothing happens, so before showing the matrix each group's
+    // row is checked against the current time. One step per group, not per deviation.
+    public List<Cell> getCells() {
+        return getCells(System.currentTimeMillis());
+    }
+
+    List<Cell> getCells(long now) {
+        for (Group group : groups.values()) {
+            updateLikelihood(group, now);
+        }
+        List<Cell> result = new ArrayList<>();
+        // Highest likelihood first, so the matrix reads top to bottom like the usual chart
+        for (int likelihood = LIKELIHOOD_LEVELS; likelihood >= 1; likelihood--) {
+            for (int consequence = 1; consequence <= CONSEQUENCE_LEVELS; consequence++) {
+                result.add(new Cell(likelihood, consequence, cells[likelihood - 1][consequence - 1]));
+            }
+        }
+        return result;
+    }
+
+    // Deviations in one cell, newest first, for paging through in the drill-down
+    public List<String> getDeviationIds(int likelihood, int consequence) {
+        List<String> ids = new ArrayList<>();
+        for (Group group : groups.values()) {
+            if (group.likelihood == likelihood) {
+                ids.addAll(group.ids.get(consequence - 1));
+            }
+        }
+        Collections.sort(ids, (a, b) -> Long.compare(members.get(b).createdAt, members.get(a).createdAt));
+        return ids;
+    }
+
+    static int likelihood(double score) {
+        int likelihood = 1;
+        for (double threshold : LIKELIHOOD_THRESHOLDS) {
+            if (score >= threshold) likelihood++;
+        }
+        return likelihood;
+    }
+
+    static int consequence(Deviation.DeviationSeverity severity) {
+        return severity != null ? severity.ordinal() + 1 : 1;
+    }
+
+    static String groupKey(Deviation deviation) {
+        String location = deviation.getLocation() != null
+                ? deviation.getLocation().trim().toLowerCase(Locale.ROOT) : "";
+        String category = deviation.getCategory() != null ? deviation.getCategory().getValue() : "";
+        return category + "|" + location;
+    }
+
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    private static boolean isEmpty(Group group) {
+        for (int count : group.bySeverity) {
+            if (count > 0) return false;
+        }
+        return true;
+    }
+
+    private void clear() {
+        groups.clear();
+        members.clear();
+        reports.clear();
+        for (int[] row : cells) {
+            Arrays.fill(row, 0);
+        }
+    }
+}
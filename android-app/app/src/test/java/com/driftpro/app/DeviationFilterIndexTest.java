@@ -0,0 +1,225 @@
+package com.driftpro.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class DeviationFilterIndexTest {
+    private static final int DEVIATIONS = 50000;
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final String[] WORDS = {
+        "lekkasje", "pumpe", "ventil", "tak", "taket", "stige", "lager", "truck", "kjemikalier",
+        "merking", "verneutstyr", "brann", "slukker", "rekkverk", "glatt", "gulv", "støy", "avfall"
+    };
+    private static final String[] LOCATIONS = { "Lager A", "Lager B", "Verksted", "Kontor", "Kai 3", "Tank 2" };
+
+    private static final List<Deviation> DEVIATION_LIST = deviations();
+
+    private final DeviationFilterIndex index = new DeviationFilterIndex(DEVIATION_LIST, NOW);
+
+    @Test
+    public void queriesMatchALinearScan() {
+        for (Query query : queries()) {
+            DeviationFilterIndex.Result result = index.query(query.selections, query.text);
+            assertEquals(query.toString(), scan(query.selections, query.text), result.deviations);
+        }
+    }
+
+    // Typing narrows the previous text matches instead of rescanning everything
+    @Test
+    public void typedTextMatchesALinearScanAtEveryKeystroke() {
+        Map<String, Set<String>> selections = selections(DeviationFilterIndex.FACET_CATEGORY, "safety");
+        String typed = "";
+        for (char c : "taket ve".toCharArray()) {
+            typed += c;
+            assertEquals(typed, scan(selections, typed), index.query(selections, typed).deviations);
+        }
+    }
+
+    // A value's count ignores its own facet's selection, so picking one status leaves the others'
+    // counts as they were
+    @Test
+    public void statusCountsMatchALinearScan() {
+        Map<String, Set<String>> selections = selections(DeviationFilterIndex.FACET_SEVERITY, "high", "critical");
+        selections.put(DeviationFilterIndex.FACET_STATUS, set("reported"));
+        DeviationFilterIndex.Result result = index.query(selections, "pumpe", DeviationFilterIndex.FACET_STATUS);
+
+        Map<String, Integer> counts = result.counts.get(DeviationFilterIndex.FACET_STATUS);
+        for (Deviation.DeviationStatus status : Deviation.DeviationStatus.values()) {
+            Map<String, Set<String>> single = new HashMap<>(selections);
+            single.put(DeviationFilterIndex.FACET_STATUS, set(status.getValue()));
+            Integer count = counts.get(status.getValue());
+            assertEquals(status.getValue(), scan(single, "pumpe").size(), count != null ? count : 0);
+        }
+    }
+
+    // Chip changes are answered from the bitsets alone and stay well under a millisecond at
+    // 50k deviations. Text queries with a new first letter rescan every search text, so they
+    // get a looser bound.
+    @Test
+    public void queriesAreFastAtFiftyThousandDeviations() {
+        List<Query> chipQueries = new ArrayList<>();
+        for (Query query : queries()) {
+            if (query.text.isEmpty()) chipQueries.add(query);
+        }
+        assertTrue(averageNanos(chipQueries) < 1_000_000);
+        assertTrue(averageNanos(queries()) < 10_000_000);
+    }
+
+    private long averageNanos(List<Query> queries) {
+        for (int i = 0; i < 50; i++) {
+            for (Query query : queries) {
+                index.query(query.selections, query.text);
+            }
+        }
+        long elapsed = 0;
+        int runs = 0;
+        for (int i = 0; i < 50; i++) {
+            // No text in the list extends the one before it, so every text query is a full rescan
+            for (Query query : queries) {
+                elapsed += index.query(query.selections, query.text).elapsedNanos;
+                runs++;
+            }
+        }
+        return elapsed / runs;
+    }
+
+    private static List<Deviation> deviations() {
+        Random random = new Random(7);
+        List<Deviation> deviations = new ArrayList<>(DEVIATIONS);
+        for (int i = 0; i < DEVIATIONS; i++) {
+            Deviation deviation = new Deviation();
+            deviation.setId("d" + i);
+            deviation.setTitle(pick(random, WORDS) + " " + pick(random, WORDS));
+            deviation.setDescription(pick(random, WORDS) + " ved " + pick(random, WORDS) + " " + pick(random, WORDS));
+            deviation.setLocation(pick(random, LOCATIONS));
+            deviation.setCategory(pick(random, Deviation.DeviationCategory.values()));
+            deviation.setSeverity(pick(random, Deviation.DeviationSeverity.values()));
+            deviation.setStatus(pick(random, Deviation.DeviationStatus.values()));
+            if (random.nextInt(3) > 0) {
+                deviation.setAssignedTo("user" + random.nextInt(20));
+            }
+            deviation.setReportedBy("user" + random.nextInt(50));
+            deviation.setCreatedAt(new Date(NOW - (long) (random.nextDouble() * 180 * DAY_MS)));
+            if (random.nextInt(4) == 0) {
+                deviation.setTags(Collections.singletonList(pick(random, WORDS)));
+            }
+            if (random.nextBoolean()) {
+                // Rows loaded from summaries; the rest are tokenized by the index
+                deviation.setSearchTokens(DeviationSummary.tokensOf(deviation));
+            }
+            deviations.add(deviation);
+        }
+        return deviations;
+    }
+
+    private static List<Query> queries() {
+        List<Query> queries = new ArrayList<>();
+        queries.add(new Query(null, ""));
+        queries.add(new Query(selections(DeviationFilterIndex.FACET_CATEGORY, "safety"), ""));
+        queries.add(new Query(selections(DeviationFilterIndex.FACET_SEVERITY, "high", "critical"), ""));
+        Map<String, Set<String>> open = selections(DeviationFilterIndex.FACET_STATUS, "reported", "inProgress");
+        open.put(DeviationFilterIndex.FACET_CREATED, set(DeviationFilterIndex.CREATED_LAST_30_DAYS));
+        queries.add(new Query(open, ""));
+        Map<String, Set<String>> people = selections(DeviationFilterIndex.FACET_ASSIGNEE, "user3", "user4");
+        people.put(DeviationFilterIndex.FACET_REPORTER, set("user10", "user11", "user12"));
+        people.put(DeviationFilterIndex.FACET_CATEGORY, set("quality", "equipment"));
+        queries.add(new Query(people, ""));
+        queries.add(new Query(selections(DeviationFilterIndex.FACET_CREATED, DeviationFilterIndex.CREATED_LAST_7_DAYS), ""));
+        queries.add(new Query(null, "pumpe"));
+        queries.add(new Query(null, "Ventil  LAGER"));
+        queries.add(new Query(open, "lekk"));
+        queries.add(new Query(selections(DeviationFilterIndex.FACET_SEVERITY, "low"), "kai 3 støy"));
+        queries.add(new Query(null, "finnes-ikke"));
+        return queries;
+    }
+
+    private static List<Deviation> scan(Map<String, Set<String>> selections, String text) {
+        String normalized = text.trim().toLowerCase(Locale.ROOT);
+        String[] terms = normalized.isEmpty() ? new String[0] : normalized.split("\\s+");
+        List<Deviation> matches = new ArrayList<>();
+        for (Deviation deviation : DEVIATION_LIST) {
+            long age = NOW - deviation.getCreatedAt().getTime();
+            if (selected(selections, DeviationFilterIndex.FACET_CATEGORY, deviation.getCategory().getValue())
+                    && selected(selections, DeviationFilterIndex.FACET_SEVERITY, deviation.getSeverity().getValue())
+                    && selected(selections, DeviationFilterIndex.FACET_STATUS, deviation.getStatus().getValue())
+                    && selected(selections, DeviationFilterIndex.FACET_ASSIGNEE, deviation.getAssignedTo())
+                    && selected(selections, DeviationFilterIndex.FACET_REPORTER, deviation.getReportedBy())
+                    && createdWithin(selections, age)
+                    && containsAll(DeviationSummary.tokensOf(deviation), terms)) {
+                matches.add(deviation);
+            }
+        }
+        return matches;
+    }
+
+    // Every term is part of some word
+    private static boolean containsAll(List<String> tokens, String[] terms) {
+        for (String term : terms) {
+            boolean found = false;
+            for (String token : tokens) {
+                if (token.contains(term)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private static boolean selected(Map<String, Set<String>> selections, String facet, String value) {
+        Set<String> values = selections != null ? selections.get(facet) : null;
+        return values == null || values.isEmpty() || values.contains(value);
+    }
+
+    private static boolean createdWithin(Map<String, Set<String>> selections, long age) {
+        Set<String> values = selections != null ? selections.get(DeviationFilterIndex.FACET_CREATED) : null;
+        if (values == null || values.isEmpty()) return true;
+        return values.contains(DeviationFilterIndex.CREATED_LAST_7_DAYS) && age <= 7 * DAY_MS
+                || values.contains(DeviationFilterIndex.CREATED_LAST_30_DAYS) && age <= 30 * DAY_MS
+                || values.contains(DeviationFilterIndex.CREATED_LAST_90_DAYS) && age <= 90 * DAY_MS;
+    }
+
+    private static Map<String, Set<String>> selections(String facet, String... values) {
+        Map<String, Set<String>> selections = new HashMap<>();
+        selections.put(facet, set(values));
+        return selections;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static class Query {
+        final Map<String, Set<String>> selections;
+        final String text;
+
+        Query(Map<String, Set<String>> selections, String text) {
+            this.selections = selections;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return selections + " \"" + text + "\"";
+        }
+    }
+}
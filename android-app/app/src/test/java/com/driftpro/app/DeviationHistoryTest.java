@@ -0,0 +1,129 @@
+package com.driftpro.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+// loadState reads the latest snapshot at or before a time and at most SNAPSHOT_INTERVAL events
+// after it. These tests lay out a log the way Recorder writes it and check that answer against
+// replaying the whole log from the start.
+public class DeviationHistoryTest {
+    private static final long CREATED_AT = 1_700_000_000_000L;
+    private static final String[] FIELDS = {
+        DeviationHistory.FIELD_STATUS, DeviationHistory.FIELD_ASSIGNEE, DeviationHistory.FIELD_SEVERITY
+    };
+
+    private final List<DeviationHistory.Event> events = new ArrayList<>();
+    private final List<DeviationHistory.State> snapshots = new ArrayList<>();
+    private final List<Date> snapshotTimes = new ArrayList<>();
+
+    @Test
+    public void snapshotPlusTailMatchesTheWholeLog() {
+        buildLog(137, new Random(5));
+        for (DeviationHistory.Event event : events) {
+            long at = event.at.getTime();
+            assertStateAt(new Date(at - 1));
+            // Events written at exactly the requested time are part of the state
+            assertStateAt(new Date(at));
+            assertStateAt(new Date(at + 1));
+        }
+        assertStateAt(new Date(CREATED_AT));
+    }
+
+    // An update that changes several fields writes its events, and any snapshot among them,
+    // with one server timestamp
+    @Test
+    public void eventsSharingTheSnapshotTimeAreAllApplied() {
+        buildLog(60, new Random(6));
+        for (int i = 1; i < snapshotTimes.size(); i++) {
+            assertStateAt(snapshotTimes.get(i));
+        }
+    }
+
+    @Test
+    public void nullTimeGivesTheLatestState() {
+        buildLog(45, new Random(7));
+        DeviationHistory.State latest = DeviationHistory.replay(
+                snapshots.get(snapshots.size() - 1).copy(), tailAfter(snapshots.get(snapshots.size() - 1)), null);
+        assertSameState(replayAll(new Date(Long.MAX_VALUE)), latest);
+        assertEquals(events.size(), latest.seq);
+    }
+
+    // Updates of one to three changes, each update a few minutes after the last, with the
+    // snapshots Recorder adds: the state before the first event, then after every
+    // SNAPSHOT_INTERVAL-th event
+    private void buildLog(int count, Random random) {
+        DeviationHistory.State state = initialState();
+        snapshots.add(state.copy());
+        snapshotTimes.add(new Date(CREATED_AT));
+        long at = CREATED_AT;
+        while (events.size() < count) {
+            at += 60_000L * (1 + random.nextInt(30));
+            int changes = 1 + random.nextInt(3);
+            for (int i = 0; i < changes && events.size() < count; i++) {
+                DeviationHistory.Event event = new DeviationHistory.Event();
+                event.seq = events.size() + 1;
+                event.field = FIELDS[random.nextInt(FIELDS.length)];
+                event.to = event.field + random.nextInt(5);
+                event.at = new Date(at);
+                events.add(event);
+                state.apply(event);
+                if (event.seq % DeviationHistory.SNAPSHOT_INTERVAL == 0) {
+                    snapshots.add(state.copy());
+                    snapshotTimes.add(new Date(at));
+                }
+            }
+        }
+    }
+
+    private static DeviationHistory.State initialState() {
+        DeviationHistory.State state = new DeviationHistory.State();
+        state.status = "reported";
+        state.severity = "low";
+        return state;
+    }
+
+    // What loadState reads: the newest snapshot with at <= time, then the events after it
+    private void assertStateAt(Date time) {
+        int newest = -1;
+        for (int i = 0; i < snapshots.size(); i++) {
+            if (!snapshotTimes.get(i).after(time)
+                    && (newest < 0 || !snapshotTimes.get(i).before(snapshotTimes.get(newest)))) {
+                newest = i;
+            }
+        }
+        DeviationHistory.State snapshot = snapshots.get(newest);
+        DeviationHistory.State state = DeviationHistory.replay(snapshot.copy(), tailAfter(snapshot), time);
+        assertSameState(replayAll(time), state);
+    }
+
+    private List<DeviationHistory.Event> tailAfter(DeviationHistory.State snapshot) {
+        List<DeviationHistory.Event> tail = new ArrayList<>();
+        for (DeviationHistory.Event event : events) {
+            if (event.seq > snapshot.seq && tail.size() < DeviationHistory.SNAPSHOT_INTERVAL) {
+                tail.add(event);
+            }
+        }
+        return tail;
+    }
+
+    private DeviationHistory.State replayAll(Date time) {
+        DeviationHistory.State state = initialState();
+        for (DeviationHistory.Event event : events) {
+            if (event.at.after(time)) break;
+            state.apply(event);
+        }
+        return state;
+    }
+
+    private static void assertSameState(DeviationHistory.State expected, DeviationHistory.State actual) {
+        assertEquals(expected.status, actual.status);
+        assertEquals(expected.assignedTo, actual.assignedTo);
+        assertEquals(expected.severity, actual.severity);
+        assertEquals(expected.seq, actual.seq);
+    }
+}
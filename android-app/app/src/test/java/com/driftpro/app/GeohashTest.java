@@ -0,0 +1,99 @@
+package com.driftpro.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class GeohashTest {
+    // Roughly 20 x 20 km around Oslo
+    private static final double BASE_LAT = 59.85;
+    private static final double BASE_LON = 10.60;
+    private static final int POINTS = 20000;
+    private static final int QUERIES = 500;
+
+    @Test
+    public void encodeMatchesKnownHash() {
+        assertEquals("u4pruydqqv", Geohash.encode(57.64911, 10.40744));
+    }
+
+    // Near-me queries over points spread across a city, with the ranges scanned over the
+    // sorted hashes the way Firestore serves startAt/endAt queries
+    @Test
+    public void coveringRangesReadOnlyNearbyDocuments() {
+        for (double radiusM : new double[] { 100, 500, 1000, 2000 }) {
+            Random random = new Random(42);
+            double[] lats = new double[POINTS];
+            double[] lons = new double[POINTS];
+            String[] hashes = new String[POINTS];
+            for (int i = 0; i < POINTS; i++) {
+                lats[i] = BASE_LAT + random.nextDouble() * 0.18;
+                lons[i] = BASE_LON + random.nextDouble() * 0.36;
+                hashes[i] = Geohash.encode(lats[i], lons[i]);
+            }
+            String[] sorted = hashes.clone();
+            Arrays.sort(sorted);
+
+            long read = 0;
+            long matched = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                double lat = BASE_LAT + 0.02 + random.nextDouble() * 0.14;
+                double lon = BASE_LON + 0.04 + random.nextDouble() * 0.28;
+                List<Geohash.Range> ranges = Geohash.coveringRanges(lat, lon, radiusM);
+                for (Geohash.Range range : ranges) {
+                    read += upperIndex(sorted, range.end) - lowerIndex(sorted, range.start);
+                }
+                for (int i = 0; i < POINTS; i++) {
+                    if (Geohash.distanceMeters(lat, lon, lats[i], lons[i]) > radiusM) continue;
+                    matched++;
+                    assertTrue("point within " + radiusM + " m outside " + ranges, covered(ranges, hashes[i]));
+                }
+            }
+
+            double readPerQuery = (double) read / QUERIES;
+            double matchedPerQuery = (double) matched / QUERIES;
+            // The bounding box touches at most four cells no smaller than the radius, so a
+            // query reads a few times the circle at most, never a share of the whole city
+            assertTrue(radiusM + " m: read " + readPerQuery + " for " + matchedPerQuery + " matches",
+                    readPerQuery <= 5 * matchedPerQuery);
+            assertTrue(radiusM + " m: read " + readPerQuery + " of " + POINTS,
+                    readPerQuery < POINTS * 0.2);
+        }
+    }
+
+    @Test
+    public void zeroRadiusCoversThePointItself() {
+        String hash = Geohash.encode(59.91, 10.75);
+        assertTrue(covered(Geohash.coveringRanges(59.91, 10.75, 0), hash));
+    }
+
+    private static boolean covered(List<Geohash.Range> ranges, String hash) {
+        for (Geohash.Range range : ranges) {
+            if (hash.compareTo(range.start) >= 0 && hash.compareTo(range.end) <= 0) return true;
+        }
+        return false;
+    }
+
+    // First index whose hash is >= key
+    private static int lowerIndex(String[] sorted, String key) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(key) < 0) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    // First index whose hash is > key, since range ends are inclusive
+    private static int upperIndex(String[] sorted, String key) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(key) <= 0) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,111 @@
+package com.driftpro.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class ResolutionTimeSketchTest {
+    private static final int VALUES = 100000;
+    private static final double[] QUANTILES = { 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999, 1 };
+
+    // Log-normal around a median of about 18 hours, from minutes to a couple of years
+    private static double[] resolutionTimes(long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 1.5 + 7);
+        }
+        return values;
+    }
+
+    @Test
+    public void quantilesAreWithinTheRelativeAccuracy() {
+        double[] values = resolutionTimes(1);
+        ResolutionTimeSketch sketch = new ResolutionTimeSketch();
+        for (double value : values) {
+            sketch.add(value);
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (double q : QUANTILES) {
+            double exact = sorted[(int) Math.floor(q * (VALUES - 1))];
+            // The bucket midpoint is within 1% of anything in the bucket
+            double error = Math.abs(sketch.quantile(q) - exact) / exact;
+            assertTrue("q=" + q + " off by " + error, error <= ResolutionTimeSketch.RELATIVE_ACCURACY);
+        }
+    }
+
+    // Monthly sketches are merged into longer periods, so a merge must answer exactly as one
+    // sketch fed every value would
+    @Test
+    public void mergedSketchesMatchOneSketchOfEveryValue() {
+        double[] values = resolutionTimes(2);
+        ResolutionTimeSketch all = new ResolutionTimeSketch();
+        ResolutionTimeSketch[] months = new ResolutionTimeSketch[3];
+        for (int i = 0; i < months.length; i++) {
+            months[i] = new ResolutionTimeSketch();
+        }
+        for (int i = 0; i < VALUES; i++) {
+            all.add(values[i]);
+            months[i % months.length].add(values[i]);
+        }
+        ResolutionTimeSketch merged = new ResolutionTimeSketch();
+        for (ResolutionTimeSketch month : months) {
+            merged.merge(month);
+        }
+
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMeanMinutes(), merged.getMeanMinutes(), 1e-6 * all.getMeanMinutes());
+        assertTrue(Arrays.equals(all.getHistogram(), merged.getHistogram()));
+        for (double q : QUANTILES) {
+            assertEquals("q=" + q, all.quantile(q), merged.quantile(q), 0);
+        }
+    }
+
+    @Test
+    public void histogramCountsEveryValueOnce() {
+        double[] values = resolutionTimes(3);
+        ResolutionTimeSketch sketch = new ResolutionTimeSketch();
+        long[] expected = new long[ResolutionTimeSketch.HISTOGRAM_BOUNDS.length + 1];
+        for (double value : values) {
+            sketch.add(value);
+            int index = 0;
+            while (index < ResolutionTimeSketch.HISTOGRAM_BOUNDS.length
+                    && value >= ResolutionTimeSketch.HISTOGRAM_BOUNDS[index]) {
+                index++;
+            }
+            expected[index]++;
+        }
+        assertTrue(Arrays.equals(expected, sketch.getHistogram()));
+    }
+
+    // Memory stays bounded however many values, and however slow, are added
+    @Test
+    public void sizeStaysBounded() {
+        ResolutionTimeSketch sketch = new ResolutionTimeSketch();
+        for (double value : resolutionTimes(4)) {
+            sketch.add(value);
+        }
+        assertTrue(sketch.sizeInBytes() + " bytes", sketch.sizeInBytes() <= 6.5 * 1024);
+
+        sketch.add(1e12);
+        assertTrue(sketch.sizeInBytes() + " bytes", sketch.sizeInBytes() <= 6.5 * 1024);
+    }
+
+    @Test
+    public void emptyAndSubMinuteValues() {
+        ResolutionTimeSketch sketch = new ResolutionTimeSketch();
+        assertEquals(-1, sketch.quantile(0.5), 0);
+        assertEquals(-1, sketch.getMeanMinutes(), 0);
+
+        sketch.add(0.5);
+        sketch.add(-3);
+        sketch.add(Double.NaN);
+        assertEquals(1, sketch.getCount());
+        assertEquals(0, sketch.quantile(0.5), 0);
+    }
+}
@@ -0,0 +1,155 @@
+package com.driftpro.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+// The engine keeps per-group decayed scores and per-cell counts up to date one change at a
+// time. These tests replay random listener changes and compare every cell with a recompute
+// from scratch.
+public class RiskMatrixEngineTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int LOCATIONS = 200;
+
+    private final Random random = new Random(11);
+    private final RiskMatrixEngine engine = new RiskMatrixEngine();
+    // What the two snapshot listeners have delivered: every recent report, and the open ones
+    private final Map<String, Deviation> reports = new HashMap<>();
+    private final Set<String> open = new HashSet<>();
+    private final List<String> ids = new ArrayList<>();
+    private int nextId;
+
+    @Test
+    public void incrementalCellsMatchAFullRecompute() {
+        for (int i = 0; i < 20000; i++) {
+            add();
+            // Roughly 5k removals and 5k status changes or moves mixed in with the adds
+            int action = random.nextInt(8);
+            if (action == 0) {
+                remove();
+            } else if (action == 1) {
+                close();
+            } else if (action == 2) {
+                move();
+            }
+            if (i % 1000 == 999) {
+                assertMatchesRecompute();
+            }
+        }
+        assertMatchesRecompute();
+    }
+
+    // Groups go away once they have neither open deviations nor recent reports
+    @Test
+    public void removingEverythingLeavesNoGroups() {
+        for (int i = 0; i < 5000; i++) {
+            add();
+            if (random.nextInt(3) == 0) {
+                close();
+            }
+        }
+        while (!ids.isEmpty()) {
+            remove();
+        }
+        assertMatchesRecompute();
+        assertEquals(0, engine.getGroupCount());
+    }
+
+    private void add() {
+        Deviation deviation = new Deviation();
+        deviation.setId("d" + nextId++);
+        // Skewed towards the first locations, so groups range from one report to dozens
+        deviation.setLocation("Sted " + random.nextInt(random.nextInt(LOCATIONS) + 1));
+        deviation.setCategory(Deviation.DeviationCategory.values()[random.nextInt(Deviation.DeviationCategory.values().length)]);
+        deviation.setSeverity(Deviation.DeviationSeverity.values()[random.nextInt(Deviation.DeviationSeverity.values().length)]);
+        deviation.setCreatedAt(new Date(NOW - (long) (random.nextDouble() * 180 * DAY_MS)));
+        deliver(deviation, random.nextInt(3) > 0);
+        ids.add(deviation.getId());
+    }
+
+    // A deleted deviation leaves both listeners
+    private void remove() {
+        if (ids.isEmpty()) return;
+        String id = ids.remove(random.nextInt(ids.size()));
+        reports.remove(id);
+        open.remove(id);
+        engine.removeReport(id);
+        engine.removeOpen(id);
+    }
+
+    // Leaves the open listener but still counts as a report
+    private void close() {
+        if (ids.isEmpty()) return;
+        String id = ids.get(random.nextInt(ids.size()));
+        if (open.remove(id)) {
+            engine.removeOpen(id);
+        }
+    }
+
+    // A modified document is removed and added again, here with a new location
+    private void move() {
+        if (ids.isEmpty()) return;
+        String id = ids.get(random.nextInt(ids.size()));
+        Deviation deviation = reports.get(id);
+        boolean isOpen = open.contains(id);
+        engine.removeReport(id);
+        engine.removeOpen(id);
+        deviation.setLocation("Sted " + random.nextInt(LOCATIONS));
+        deliver(deviation, isOpen);
+    }
+
+    private void deliver(Deviation deviation, boolean isOpen) {
+        reports.put(deviation.getId(), deviation);
+        engine.addReport(deviation);
+        if (isOpen) {
+            open.add(deviation.getId());
+            engine.addOpen(deviation);
+        } else {
+            open.remove(deviation.getId());
+        }
+    }
+
+    private void assertMatchesRecompute() {
+        Map<String, Double> scores = new HashMap<>();
+        double decayPerMs = Math.log(2) / (RiskMatrixEngine.HALF_LIFE_DAYS * DAY_MS);
+        for (Deviation deviation : reports.values()) {
+            String key = RiskMatrixEngine.groupKey(deviation);
+            Double score = scores.get(key);
+            double weight = Math.exp(-decayPerMs * (NOW - deviation.getCreatedAt().getTime()));
+            scores.put(key, (score != null ? score : 0) + weight);
+        }
+        int[][] counts = new int[RiskMatrixEngine.LIKELIHOOD_LEVELS][RiskMatrixEngine.CONSEQUENCE_LEVELS];
+        List<List<Set<String>>> cellIds = new ArrayList<>();
+        for (int l = 0; l < RiskMatrixEngine.LIKELIHOOD_LEVELS; l++) {
+            List<Set<String>> row = new ArrayList<>();
+            for (int c = 0; c < RiskMatrixEngine.CONSEQUENCE_LEVELS; c++) {
+                row.add(new HashSet<>());
+            }
+            cellIds.add(row);
+        }
+        for (String id : open) {
+            Deviation deviation = reports.get(id);
+            Double score = scores.get(RiskMatrixEngine.groupKey(deviation));
+            int likelihood = RiskMatrixEngine.likelihood(score != null ? score : 0);
+            int consequence = RiskMatrixEngine.consequence(deviation.getSeverity());
+            counts[likelihood - 1][consequence - 1]++;
+            cellIds.get(likelihood - 1).get(consequence - 1).add(id);
+        }
+
+        for (RiskMatrixEngine.Cell cell : engine.getCells(NOW)) {
+            String name = "cell " + cell.likelihood + "x" + cell.consequence;
+            assertEquals(name, counts[cell.likelihood - 1][cell.consequence - 1], cell.count);
+            assertEquals(name, cellIds.get(cell.likelihood - 1).get(cell.consequence - 1),
+                    new HashSet<>(engine.getDeviationIds(cell.likelihood, cell.consequence)));
+        }
+    }
+}